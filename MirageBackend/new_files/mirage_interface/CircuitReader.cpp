@@ -16,6 +16,8 @@ CircuitReader::CircuitReader(char* arithFilepath, char* inputsFilepath,
 
         numSpec = numStmt = numRnd = numWitness = 0;
 
+	binaryFormat = BinaryCircuitStream::isBinaryCircuitFile(arithFilepath);
+
 	firstPass();
 	secondPass();
 	readValues();
@@ -23,7 +25,7 @@ CircuitReader::CircuitReader(char* arithFilepath, char* inputsFilepath,
 }
 
 void CircuitReader::eval(std::vector<FieldT> rndValues){
-		 
+
 	parseAndEval(rndValues);
 	mapValuesToProtoboard();
 	wireLinearCombinations.clear();
@@ -41,7 +43,9 @@ void CircuitReader::readValues(){
 	wireValues.resize(numWires);
 
 
-	if (!inputfs.good()) {
+	if (readBinaryValues()) {
+		inputfs.close();
+	} else if (!inputfs.good()) {
 		printf("Unable to open input file %s \n", inputsFilepath);
 		exit(-1);
 	} else {
@@ -83,8 +87,71 @@ void CircuitReader::readValues(){
 
 
 
+
+
+// Reads the fixed-width binary input format written by
+// jsnark.circuit.eval.BinaryInputWriter: a 16-byte header ("MRCI", version,
+// padding, number of values) followed by records of five little-endian 64-bit
+// words (wire id and the four limbs of the value). The file is memory-mapped
+// and the limbs are copied directly into the field elements. Returns false if
+// the file is not in this format.
+bool CircuitReader::readBinaryValues() {
+
+	int fd = open(inputsFilepath, O_RDONLY);
+	if (fd < 0) {
+		return false;
+	}
+	struct stat st;
+	if (fstat(fd, &st) != 0 || st.st_size < 16) {
+		close(fd);
+		return false;
+	}
+	void* mapped = mmap(NULL, st.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+	close(fd);
+	if (mapped == MAP_FAILED) {
+		return false;
+	}
+	const unsigned char* data = (const unsigned char*) mapped;
+	if (memcmp(data, "MRCI", 4) != 0) {
+		munmap(mapped, st.st_size);
+		return false;
+	}
+	if (data[4] != 1) {
+		printf("Unsupported binary input format version: %d\n", data[4]);
+		exit(-1);
+	}
+	madvise(mapped, st.st_size, MADV_SEQUENTIAL);
+
+	static_assert(FieldT::num_limbs == 4, "The binary input format assumes four 64-bit limbs");
+	const uint64_t* words = (const uint64_t*) data;
+	uint64_t numValues = words[1];
+	if ((uint64_t) st.st_size != 16 + 40 * numValues) {
+		printf("Error: truncated binary input file %s\n", inputsFilepath);
+		exit(-1);
+	}
+	const uint64_t* record = words + 2;
+	for (uint64_t i = 0; i < numValues; i++, record += 5) {
+		if (record[0] >= numWires) {
+			printf("Error in Input: wire %lu out of range\n", (unsigned long) record[0]);
+			exit(-1);
+		}
+		libff::bigint<FieldT::num_limbs> value;
+		for (int j = 0; j < 4; j++) {
+			value.data[j] = record[1 + j];
+		}
+		wireValues[record[0]] = FieldT(value);
+	}
+	munmap(mapped, st.st_size);
+	return true;
+}
+
 void CircuitReader::firstPass() {
 
+	if (binaryFormat) {
+		firstPassBinary();
+		return;
+	}
+
 	 libff::enter_block("Parsing the circuit - First Pass");
 	 ifstream arithfs(arithFilepath, ifstream::in);
 	 string line;
@@ -139,6 +206,33 @@ void CircuitReader::firstPass() {
 	libff::leave_block("Parsing the circuit - First Pass");
 }
 
+void CircuitReader::firstPassBinary() {
+
+	libff::enter_block("Parsing the circuit - First Pass");
+	BinaryCircuitStream stream(arithFilepath);
+	numWires = stream.getNumWires();
+
+	short opcode;
+	FieldT constant;
+	std::vector<Wire> inWires, outWires;
+	while (stream.next(opcode, constant, inWires, outWires)) {
+		if (opcode == SPEC_LABEL) {
+			numSpec++;
+			specWireIds.push_back(outWires[0]);
+		} else if (opcode == STMT_LABEL) {
+			numStmt++;
+			stmtWireIds.push_back(outWires[0]);
+		} else if (opcode == WITNESS_LABEL) {
+			numWitness++;
+			witnessWireIds.push_back(outWires[0]);
+		} else if (opcode == RND_LABEL) {
+			numRnd++;
+			rndWireIds.push_back(outWires[0]);
+		}
+	}
+	libff::leave_block("Parsing the circuit - First Pass");
+}
+
 void CircuitReader::secondPass() {
 
 	libff::enter_block("Parsing the circuit - Second Pass");
@@ -177,79 +271,45 @@ void CircuitReader::secondPass() {
 		currentVariableIdx++;
 	}
 
-	char type[200];
-	char* inputStr;
-	char* outputStr;
-	string line;
-	unsigned int numGateInputs, numGateOutputs;
-
-	ifstream ifs2(arithFilepath, ifstream::in);
-
-	if (!ifs2.good()) {
-		printf("Unable to open circuit file:\n");
-		exit(5);
-	}
-
-	getline(ifs2, line);
-	sscanf(line.c_str(), "total %d", &numWires);
-
 	wireUseCounters.resize(numWires);
 	wireLinearCombinations.resize(numWires);
 
-	int lineCount = 0;
-	while (getline(ifs2, line)) {
-		lineCount++;
+	short opcode;
+	FieldT constant;
+	std::vector<Wire> inWires, outWires;
 
-		if (line.length() == 0) {
-			continue;
+	if (binaryFormat) {
+		BinaryCircuitStream stream(arithFilepath);
+		while (stream.next(opcode, constant, inWires, outWires)) {
+			if (opcode < SPEC_LABEL) {
+				translateGate(opcode, constant, inWires, outWires);
+			}
+			clean();
 		}
-		inputStr = new char[line.size()];
-		outputStr = new char[line.size()];
+	} else {
+		string line;
+		ifstream ifs2(arithFilepath, ifstream::in);
 
-		if (5 == sscanf(line.c_str(), "%s in %d <%[^>]> out %d <%[^>]>", type,
-						&numGateInputs, inputStr, &numGateOutputs, outputStr)) {
-			if (strcmp(type, "add") == 0) {
-				assert(numGateOutputs == 1);
-				handleAddition(inputStr, outputStr);
-			} else if (strcmp(type, "mul") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addMulConstraint(inputStr, outputStr);
-			} else if (strcmp(type, "xor") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addXorConstraint(inputStr, outputStr);
-			} else if (strcmp(type, "or") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addOrConstraint(inputStr, outputStr);
-			} else if (strcmp(type, "assert") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addAssertionConstraint(inputStr, outputStr);
-			} else if (strstr(type, "const-mul-neg-")) {
-				assert(numGateInputs == 1 && numGateOutputs == 1);
-				handleMulNegConst(type, inputStr, outputStr);
-			} else if (strstr(type, "const-mul-")) {
-				assert(numGateInputs == 1 && numGateOutputs == 1);
-				handleMulConst(type, inputStr, outputStr);
-			} else if (strcmp(type, "zerop") == 0) {
-				assert(numGateInputs == 1 && numGateOutputs == 2);
-				addNonzeroCheckConstraint(inputStr, outputStr);
-			} else if (strstr(type, "split")) {
-				assert(numGateInputs == 1);
-				addSplitConstraint(inputStr, outputStr, numGateOutputs);
-			} else if (strstr(type, "pack")) {
-				assert(numGateOutputs == 1);
-				// addPackConstraint(inputStr, outputStr, numGateInputs);
-				handlePackOperation(inputStr, outputStr, numGateInputs);
+		if (!ifs2.good()) {
+			printf("Unable to open circuit file:\n");
+			exit(5);
+		}
 
-			}
-		} else {
+		getline(ifs2, line);
+		sscanf(line.c_str(), "total %d", &numWires);
 
+		while (getline(ifs2, line)) {
+			if (line.length() == 0) {
+				continue;
+			}
+			if (parseGateLine(line, opcode, constant, inWires, outWires)) {
+				translateGate(opcode, constant, inWires, outWires);
+			}
+			clean();
 		}
-		delete[] inputStr;
-		delete[] outputStr;
-		clean();
-	}
 
-	ifs2.close();
+		ifs2.close();
+	}
 
 	printf("\tConstraint translation done\n");
 	look_up_our_self(&usage2);
@@ -258,10 +318,118 @@ void CircuitReader::secondPass() {
 	libff::leave_block("Parsing the circuit - Second Pass");
 }
 
+// Parses a gate line of the textual format. Returns false if the line is not
+// a gate (labels and comments).
+bool CircuitReader::parseGateLine(const string& line, short& opcode,
+		FieldT& constant, std::vector<Wire>& inWires,
+		std::vector<Wire>& outWires) {
+
+	char type[200];
+	unsigned int numGateInputs, numGateOutputs;
+	char* inputStr = new char[line.size()];
+	char* outputStr = new char[line.size()];
+
+	bool isGate = 5 == sscanf(line.c_str(), "%s in %u <%[^>]> out %u <%[^>]>",
+			type, &numGateInputs, inputStr, &numGateOutputs, outputStr);
+	if (isGate) {
+		inWires.clear();
+		outWires.clear();
+		readIds(inputStr, inWires);
+		readIds(outputStr, outWires);
+		assert(inWires.size() == numGateInputs && outWires.size() == numGateOutputs);
+
+		if (strcmp(type, "add") == 0) {
+			opcode = ADD_OPCODE;
+		} else if (strcmp(type, "mul") == 0) {
+			opcode = MUL_OPCODE;
+		} else if (strcmp(type, "xor") == 0) {
+			opcode = XOR_OPCODE;
+		} else if (strcmp(type, "or") == 0) {
+			opcode = OR_OPCODE;
+		} else if (strcmp(type, "assert") == 0) {
+			opcode = CONSTRAINT_OPCODE;
+		} else if (strcmp(type, "pack") == 0) {
+			opcode = PACK_OPCODE;
+		} else if (strcmp(type, "zerop") == 0) {
+			opcode = NONZEROCHECK_OPCODE;
+		} else if (strcmp(type, "split") == 0) {
+			opcode = SPLIT_OPCODE;
+		} else if (strstr(type, "const-mul-neg-")) {
+			opcode = MULCONST_OPCODE;
+			char* constStr = type + sizeof("const-mul-neg-") - 1;
+			constant = readFieldElementFromHex(constStr) * FieldT(-1);
+		} else if (strstr(type, "const-mul-")) {
+			opcode = MULCONST_OPCODE;
+			char* constStr = type + sizeof("const-mul-") - 1;
+			constant = readFieldElementFromHex(constStr);
+		} else {
+			printf("Error: unrecognized line: %s\n", line.c_str());
+			assert(0);
+		}
+	}
+	delete[] inputStr;
+	delete[] outputStr;
+	return isGate;
+}
+
+void CircuitReader::translateGate(short opcode, const FieldT& constant,
+		const std::vector<Wire>& inWires, const std::vector<Wire>& outWires) {
+
+	if (opcode == ADD_OPCODE) {
+		assert(outWires.size() == 1);
+		handleAddition(inWires, outWires);
+	} else if (opcode == MUL_OPCODE) {
+		assert(inWires.size() == 2 && outWires.size() == 1);
+		addMulConstraint(inWires, outWires);
+	} else if (opcode == XOR_OPCODE) {
+		assert(inWires.size() == 2 && outWires.size() == 1);
+		addXorConstraint(inWires, outWires);
+	} else if (opcode == OR_OPCODE) {
+		assert(inWires.size() == 2 && outWires.size() == 1);
+		addOrConstraint(inWires, outWires);
+	} else if (opcode == CONSTRAINT_OPCODE) {
+		assert(inWires.size() == 2 && outWires.size() == 1);
+		addAssertionConstraint(inWires, outWires);
+	} else if (opcode == MULCONST_OPCODE) {
+		assert(inWires.size() == 1 && outWires.size() == 1);
+		handleMulConst(constant, inWires, outWires);
+	} else if (opcode == NONZEROCHECK_OPCODE) {
+		assert(inWires.size() == 1 && outWires.size() == 2);
+		addNonzeroCheckConstraint(inWires, outWires);
+	} else if (opcode == SPLIT_OPCODE) {
+		assert(inWires.size() == 1);
+		addSplitConstraint(inWires, outWires);
+	} else if (opcode == PACK_OPCODE) {
+		assert(outWires.size() == 1);
+		handlePackOperation(inWires, outWires);
+	}
+}
+
 void CircuitReader::parseAndEval(std::vector<FieldT> rndValues) {
 
 	libff::enter_block("Parsing and Evaluating the circuit");
 
+	short opcode;
+	FieldT constant;
+	std::vector<Wire> inWires, outWires;
+	int rndCounter = 0;
+
+	if (binaryFormat) {
+		BinaryCircuitStream stream(arithFilepath);
+		numWires = stream.getNumWires();
+		while (stream.next(opcode, constant, inWires, outWires)) {
+			if (opcode == RND_LABEL) {
+				wireValues[outWires[0]] = rndValues[rndCounter];
+				rndCounter++;
+				rndWireIds.push_back(outWires[0]);
+			} else if (opcode < SPEC_LABEL) {
+				evalGate(opcode, constant, inWires, outWires);
+			}
+		}
+		libff::leave_block("Parsing and Evaluating the circuit");
+		return;
+	}
+
 	ifstream arithfs(arithFilepath, ifstream::in);
 
 	string line;
@@ -279,32 +447,12 @@ void CircuitReader::parseAndEval(std::vector<FieldT> rndValues) {
 		exit(-1);
 	}
 
-
-
-
-	char type[200];
-	char* inputStr;
-	char* outputStr;
-	unsigned int numGateInputs, numGateOutputs;
-
 	Wire wireId;
 
-	FieldT oneElement = FieldT::one();
-	FieldT zeroElement = FieldT::zero();
-	FieldT negOneElement = FieldT(-1);
-
-	long long evalTime;
-	long long begin, end;
-	evalTime = 0;
-	int rndCounter = 0;
-
-
 	while (getline(arithfs, line)) {
 		if (line.length() == 0) {
 			continue;
 		}
-		inputStr = new char[line.size()];
-		outputStr = new char[line.size()];
 
 		if (line[0] == '#') {
 			continue;
@@ -314,103 +462,68 @@ void CircuitReader::parseAndEval(std::vector<FieldT> rndValues) {
 			rndCounter++;
 			rndWireIds.push_back(wireId);
 
-		} else if (5
-				== sscanf(line.c_str(), "%s in %u <%[^>]> out %u <%[^>]>", type,
-						&numGateInputs, inputStr, &numGateOutputs, outputStr)) {
-
-			istringstream iss_i(inputStr, istringstream::in);
-			std::vector<FieldT> inValues;
-			std::vector<Wire> outWires;
-			Wire inWireId;
-			while (iss_i >> inWireId) {
-				wireUseCounters[inWireId]++;
-				inValues.push_back(wireValues[inWireId]);
-			}
-			readIds(outputStr, outWires);
-
-			short opcode;
-			FieldT constant;
-			if (strcmp(type, "add") == 0) {
-				opcode = ADD_OPCODE;
-			} else if (strcmp(type, "mul") == 0) {
-				opcode = MUL_OPCODE;
-			} else if (strcmp(type, "xor") == 0) {
-				opcode = XOR_OPCODE;
-			} else if (strcmp(type, "or") == 0) {
-				opcode = OR_OPCODE;
-			} else if (strcmp(type, "assert") == 0) {
-				wireUseCounters[outWires[0]]++;
-				opcode = CONSTRAINT_OPCODE;
-			} else if (strcmp(type, "pack") == 0) {
-				opcode = PACK_OPCODE;
-			} else if (strcmp(type, "zerop") == 0) {
-				opcode = NONZEROCHECK_OPCODE;
-			} else if (strcmp(type, "split") == 0) {
-				opcode = SPLIT_OPCODE;
-			} else if (strstr(type, "const-mul-neg-")) {
-				opcode = MULCONST_OPCODE;
-				char* constStr = type + sizeof("const-mul-neg-") - 1;
-				constant = readFieldElementFromHex(constStr) * negOneElement;
-			} else if (strstr(type, "const-mul-")) {
-				opcode = MULCONST_OPCODE;
-				char* constStr = type + sizeof("const-mul-") - 1;
-				constant = readFieldElementFromHex(constStr);
-			} else {
-				printf("Error: unrecognized line: %s\n", line.c_str());
-				assert(0);
-			}		
-	
-
-			if (opcode == ADD_OPCODE) {
-				FieldT sum;
-				for (auto &v : inValues)
-					sum += v;
-				wireValues[outWires[0]] = sum;
-			} else if (opcode == MUL_OPCODE) {
-				wireValues[outWires[0]] = inValues[0] * inValues[1];
-			} else if (opcode == XOR_OPCODE) {
-				wireValues[outWires[0]] =
-						(inValues[0] == inValues[1]) ? zeroElement : oneElement;
-			} else if (opcode == OR_OPCODE) {
-				wireValues[outWires[0]] =
-						(inValues[0] == zeroElement
-								&& inValues[1] == zeroElement) ?
-								zeroElement : oneElement;
-			} else if (opcode == NONZEROCHECK_OPCODE) {
-				wireValues[outWires[1]] =
-						(inValues[0] == zeroElement) ? zeroElement : oneElement;
-			} else if (opcode == PACK_OPCODE) {
-				FieldT sum, coeff;
-				FieldT two = oneElement;
-				for (auto &v : inValues) {
-					sum += two * v;
-					two += two;
-				}
-				wireValues[outWires[0]] = sum;
-			} else if (opcode == SPLIT_OPCODE) {
-				int size = outWires.size();
-				FElem inVal = inValues[0];
-				for (int i = 0; i < size; i++) {
-					wireValues[outWires[i]] = inVal.getBit(i, R1P);
-				}
-			} else if (opcode == MULCONST_OPCODE) {
-				wireValues[outWires[0]] = constant * inValues[0];
-			}
-
-		} else {
-
+		} else if (parseGateLine(line, opcode, constant, inWires, outWires)) {
+			evalGate(opcode, constant, inWires, outWires);
 		}
-		delete[] inputStr;
-		delete[] outputStr;
 	}
 	arithfs.close();
 
-	end = clock();
-
 	libff::leave_block("Parsing and Evaluating the circuit");
 
 }
 
+void CircuitReader::evalGate(short opcode, const FieldT& constant,
+		const std::vector<Wire>& inWires, const std::vector<Wire>& outWires) {
+
+	FieldT oneElement = FieldT::one();
+	FieldT zeroElement = FieldT::zero();
+
+	std::vector<FieldT> inValues;
+	for (Wire inWireId : inWires) {
+		wireUseCounters[inWireId]++;
+		inValues.push_back(wireValues[inWireId]);
+	}
+	if (opcode == CONSTRAINT_OPCODE) {
+		wireUseCounters[outWires[0]]++;
+	}
+
+	if (opcode == ADD_OPCODE) {
+		FieldT sum;
+		for (auto &v : inValues)
+			sum += v;
+		wireValues[outWires[0]] = sum;
+	} else if (opcode == MUL_OPCODE) {
+		wireValues[outWires[0]] = inValues[0] * inValues[1];
+	} else if (opcode == XOR_OPCODE) {
+		wireValues[outWires[0]] =
+				(inValues[0] == inValues[1]) ? zeroElement : oneElement;
+	} else if (opcode == OR_OPCODE) {
+		wireValues[outWires[0]] =
+				(inValues[0] == zeroElement
+						&& inValues[1] == zeroElement) ?
+						zeroElement : oneElement;
+	} else if (opcode == NONZEROCHECK_OPCODE) {
+		wireValues[outWires[1]] =
+				(inValues[0] == zeroElement) ? zeroElement : oneElement;
+	} else if (opcode == PACK_OPCODE) {
+		FieldT sum, coeff;
+		FieldT two = oneElement;
+		for (auto &v : inValues) {
+			sum += two * v;
+			two += two;
+		}
+		wireValues[outWires[0]] = sum;
+	} else if (opcode == SPLIT_OPCODE) {
+		int size = outWires.size();
+		FElem inVal = inValues[0];
+		for (int i = 0; i < size; i++) {
+			wireValues[outWires[i]] = inVal.getBit(i, R1P);
+		}
+	} else if (opcode == MULCONST_OPCODE) {
+		wireValues[outWires[0]] = constant * inValues[0];
+	}
+}
+
 
 void CircuitReader::constructCircuit(char* arithFilepath) {
 
@@ -449,11 +562,10 @@ void CircuitReader::constructCircuit(char* arithFilepath) {
 		currentVariableIdx++;
 	}
 
-	char type[200];
-	char* inputStr;
-	char* outputStr;
 	string line;
-	unsigned int numGateInputs, numGateOutputs;
+	short opcode;
+	FieldT constant;
+	std::vector<Wire> inWires, outWires;
 
 	ifstream ifs2(arithFilepath, ifstream::in);
 
@@ -474,49 +586,9 @@ void CircuitReader::constructCircuit(char* arithFilepath) {
 		if (line.length() == 0) {
 			continue;
 		}
-		inputStr = new char[line.size()];
-		outputStr = new char[line.size()];
-
-		if (5
-				== sscanf(line.c_str(), "%s in %d <%[^>]> out %d <%[^>]>", type,
-						&numGateInputs, inputStr, &numGateOutputs, outputStr)) {
-			if (strcmp(type, "add") == 0) {
-				assert(numGateOutputs == 1);
-				handleAddition(inputStr, outputStr);
-			} else if (strcmp(type, "mul") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addMulConstraint(inputStr, outputStr);
-			} else if (strcmp(type, "xor") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addXorConstraint(inputStr, outputStr);
-			} else if (strcmp(type, "or") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addOrConstraint(inputStr, outputStr);
-			} else if (strcmp(type, "assert") == 0) {
-				assert(numGateInputs == 2 && numGateOutputs == 1);
-				addAssertionConstraint(inputStr, outputStr);
-			} else if (strstr(type, "const-mul-neg-")) {
-				assert(numGateInputs == 1 && numGateOutputs == 1);
-				handleMulNegConst(type, inputStr, outputStr);
-			} else if (strstr(type, "const-mul-")) {
-				assert(numGateInputs == 1 && numGateOutputs == 1);
-				handleMulConst(type, inputStr, outputStr);
-			} else if (strcmp(type, "zerop") == 0) {
-				assert(numGateInputs == 1 && numGateOutputs == 2);
-				addNonzeroCheckConstraint(inputStr, outputStr);
-			} else if (strstr(type, "split")) {
-				assert(numGateInputs == 1);
-				addSplitConstraint(inputStr, outputStr, numGateOutputs);
-			} else if (strstr(type, "pack")) {
-				assert(numGateOutputs == 1);
-				handlePackOperation(inputStr, outputStr, numGateInputs);
-
-			}
-		} else {
-//			assert(0);
+		if (parseGateLine(line, opcode, constant, inWires, outWires)) {
+			translateGate(opcode, constant, inWires, outWires);
 		}
-		delete[] inputStr;
-		delete[] outputStr;
 		clean();
 	}
 
@@ -583,19 +655,14 @@ void CircuitReader::clean() {
 	toClean.clear();
 }
 
-void CircuitReader::addMulConstraint(char* inputStr, char* outputStr) {
-
-	Wire outputWireId, inWireId1, inWireId2;
+void CircuitReader::addMulConstraint(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId1;
-	iss_i >> inWireId2;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
+	Wire outputWireId = outWires[0];
 
 	LinearCombinationPtr l1, l2;
-	find(inWireId1, l1);
-	find(inWireId2, l2);
+	find(inWires[0], l1);
+	find(inWires[1], l2);
 
 	if (variableMap.find(outputWireId) == variableMap.end()) {
 		variables.push_back(make_shared<Variable>("mul out"));
@@ -609,19 +676,14 @@ void CircuitReader::addMulConstraint(char* inputStr, char* outputStr) {
 	}
 }
 
-void CircuitReader::addXorConstraint(char* inputStr, char* outputStr) {
-
-	Wire outputWireId, inWireId1, inWireId2;
+void CircuitReader::addXorConstraint(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId1;
-	iss_i >> inWireId2;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
+	Wire outputWireId = outWires[0];
 
 	LinearCombinationPtr lp1, lp2;
-	find(inWireId1, lp1);
-	find(inWireId2, lp2);
+	find(inWires[0], lp1);
+	find(inWires[1], lp2);
 	LinearCombination l1, l2;
 	l1 = *lp1;
 	l2 = *lp2;
@@ -637,19 +699,14 @@ void CircuitReader::addXorConstraint(char* inputStr, char* outputStr) {
 	}
 }
 
-void CircuitReader::addOrConstraint(char* inputStr, char* outputStr) {
+void CircuitReader::addOrConstraint(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
-	Wire outputWireId, inWireId1, inWireId2;
-
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId1;
-	iss_i >> inWireId2;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
+	Wire outputWireId = outWires[0];
 
 	LinearCombinationPtr lp1, lp2;
-	find(inWireId1, lp1);
-	find(inWireId2, lp2);
+	find(inWires[0], lp1);
+	find(inWires[1], lp2);
 	LinearCombination l1, l2;
 	l1 = *lp1;
 	l2 = *lp2;
@@ -665,20 +722,13 @@ void CircuitReader::addOrConstraint(char* inputStr, char* outputStr) {
 	}
 }
 
-void CircuitReader::addAssertionConstraint(char* inputStr, char* outputStr) {
-
-	Wire outputWireId, inWireId1, inWireId2;
-
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId1;
-	iss_i >> inWireId2;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
+void CircuitReader::addAssertionConstraint(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
 	LinearCombinationPtr lp1, lp2, lp3;
-	find(inWireId1, lp1);
-	find(inWireId2, lp2);
-	find(outputWireId, lp3);
+	find(inWires[0], lp1);
+	find(inWires[1], lp2);
+	find(outWires[0], lp3);
 
 	LinearCombination l1, l2, l3;
 	l1 = *lp1;
@@ -688,37 +738,16 @@ void CircuitReader::addAssertionConstraint(char* inputStr, char* outputStr) {
 
 }
 
-void CircuitReader::addSplitConstraint(char* inputStr, char* outputStr,
-		unsigned short n) {
-
-	Wire inWireId;
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId;
+void CircuitReader::addSplitConstraint(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
 	LinearCombinationPtr l;
-	find(inWireId, l);
-
-	istringstream iss_o(outputStr, istringstream::in);
+	find(inWires[0], l);
 
 	LinearCombination sum;
 	FElem two_i = libff::Fr<libff::default_ec_pp> ("1");
 
-	/*
-	for (int i = 0; i < n; i++) {
-		Wire bitWireId;
-		iss_o >> bitWireId;
-		variables.push_back(make_shared<Variable>("bit out"));
-		variableMap[bitWireId] = currentVariableIdx;
-		VariablePtr vptr = variables[currentVariableIdx];
-		pb->enforceBooleanity(*vptr);
-		sum += LinearTerm(*vptr, two_i);
-		two_i += two_i;
-		currentVariableIdx++;
-	} */
-
-	for (int i = 0; i < n; i++) {
-		Wire bitWireId;
-		iss_o >> bitWireId;
+	for (Wire bitWireId : outWires) {
 		VariablePtr vptr;
 		if (variableMap.find(bitWireId) == variableMap.end()) {
 			variables.push_back(make_shared<Variable>("bit out"));
@@ -739,19 +768,14 @@ void CircuitReader::addSplitConstraint(char* inputStr, char* outputStr,
 
 
 
-void CircuitReader::addNonzeroCheckConstraint(char* inputStr, char* outputStr) {
+void CircuitReader::addNonzeroCheckConstraint(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
 	Variable auxConditionInverse_;
-	Wire outputWireId, inWireId;
-
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
-	iss_o >> outputWireId;
+	Wire outputWireId = outWires[1];
 	LinearCombinationPtr l;
 
-	find(inWireId, l);
+	find(inWires[0], l);
 	VariablePtr vptr;
 	if (variableMap.find(outputWireId) == variableMap.end()) {
 		variables.push_back(make_shared<Variable>("zerop out"));
@@ -773,79 +797,175 @@ void CircuitReader::addNonzeroCheckConstraint(char* inputStr, char* outputStr) {
 }
 
 
-void CircuitReader::handlePackOperation(char* inputStr, char* outputStr, unsigned short n){
-
-	Wire outputWireId;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
+void CircuitReader::handlePackOperation(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
-	istringstream iss_i(inputStr, istringstream::in);
 	LinearCombinationPtr sum;
-	Wire bitWireId;
-	iss_i >> bitWireId;
-	find(bitWireId, sum, true);	       
+	find(inWires[0], sum, true);
 	FElem two_i = libff::Fr<libff::default_ec_pp> ("1");
-	for (int i = 1; i < n; i++) {
-		iss_i >> bitWireId;
+	for (size_t i = 1; i < inWires.size(); i++) {
 		LinearCombinationPtr l;
-		find(bitWireId, l);
+		find(inWires[i], l);
 		two_i += two_i;
 		*sum += two_i * (*l);
 	}
-	wireLinearCombinations[outputWireId] = sum;
+	wireLinearCombinations[outWires[0]] = sum;
 }
 
-void CircuitReader::handleAddition(char* inputStr, char* outputStr) {
-
-	Wire inWireId, outputWireId;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
+void CircuitReader::handleAddition(const std::vector<Wire>& inWires,
+		const std::vector<Wire>& outWires) {
 
-	istringstream iss_i(inputStr, istringstream::in);
 	LinearCombinationPtr s, l;
-	iss_i >> inWireId;
-	find(inWireId, l, true);
+	find(inWires[0], l, true);
 	s = l;
-	while (iss_i >> inWireId) {
-		find(inWireId, l);
+	for (size_t i = 1; i < inWires.size(); i++) {
+		find(inWires[i], l);
 		*s += *l;
 	}
-	wireLinearCombinations[outputWireId] = s;
+	wireLinearCombinations[outWires[0]] = s;
 }
 
-void CircuitReader::handleMulConst(char* type, char* inputStr,
-		char* outputStr) {
+// The constant is already negated for const-mul-neg gates
+void CircuitReader::handleMulConst(const FieldT& constant,
+		const std::vector<Wire>& inWires, const std::vector<Wire>& outWires) {
 
-	char* constStr = type + sizeof("const-mul-") - 1;
-	Wire outputWireId, inWireId;
-
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId;
+	Wire outputWireId = outWires[0];
 	LinearCombinationPtr l;
-	find(inWireId, l, true);
+	find(inWires[0], l, true);
 	wireLinearCombinations[outputWireId] = l;
-	*(wireLinearCombinations[outputWireId]) *= readFieldElementFromHex(
-			constStr);
+	*(wireLinearCombinations[outputWireId]) *= constant;
 }
 
-void CircuitReader::handleMulNegConst(char* type, char* inputStr,
-		char* outputStr) {
 
-	char* constStr = type + sizeof("const-mul-neg-") - 1;
-	Wire outputWireId, inWireId;
-	istringstream iss_o(outputStr, istringstream::in);
-	iss_o >> outputWireId;
-	istringstream iss_i(inputStr, istringstream::in);
-	iss_i >> inWireId;
+BinaryCircuitStream::BinaryCircuitStream(const char* path) :
+		buffer(1 << 16), bufferPos(0), bufferSize(0), numWires(0),
+		previousOutputId(-1) {
 
-	LinearCombinationPtr l;
-	find(inWireId, l, true);
+	file = fopen(path, "rb");
+	if (file == NULL) {
+		printf("Unable to open circuit file %s \n", path);
+		exit(-1);
+	}
+	if (!isBinaryCircuitFile(path)) {
+		printf("File Format Does not Match\n");
+		exit(-1);
+	}
 
-	wireLinearCombinations[outputWireId] = l;
-	*(wireLinearCombinations[outputWireId]) *= readFieldElementFromHex(
-			constStr);
-	*(wireLinearCombinations[outputWireId]) *= FieldT(-1); //TODO: make shared FieldT constants
+	unsigned char offsetBytes[8];
+	if (fseeko(file, -8, SEEK_END) != 0 || fread(offsetBytes, 1, 8, file) != 8) {
+		printf("Error: truncated binary circuit file %s\n", path);
+		exit(-1);
+	}
+	long long trailerOffset = 0;
+	for (int i = 7; i >= 0; i--) {
+		trailerOffset = (trailerOffset << 8) | offsetBytes[i];
+	}
+
+	seek(trailerOffset);
+	numWires = readVarint();
+	unsigned long long numConstants = readVarint();
+	std::vector<unsigned char> bytes;
+	for (unsigned long long i = 0; i < numConstants; i++) {
+		bytes.resize(readVarint());
+		for (size_t j = 0; j < bytes.size(); j++) {
+			bytes[j] = readByte();
+		}
+		constants.push_back(readFieldElementFromBytes(bytes.data(), bytes.size()));
+	}
+
+	// records start right after the magic and the version byte
+	seek(5);
+}
+
+BinaryCircuitStream::~BinaryCircuitStream() {
+	fclose(file);
+}
+
+bool BinaryCircuitStream::isBinaryCircuitFile(const char* path) {
+	FILE* f = fopen(path, "rb");
+	if (f == NULL) {
+		return false;
+	}
+	unsigned char header[5];
+	bool matches = fread(header, 1, 5, f) == 5 && memcmp(header, "MRCB", 4) == 0;
+	fclose(f);
+	if (matches && header[4] != 1) {
+		printf("Unsupported binary circuit format version: %d\n", header[4]);
+		exit(-1);
+	}
+	return matches;
+}
+
+bool BinaryCircuitStream::next(short& opcode, FieldT& constant,
+		std::vector<Wire>& inWires, std::vector<Wire>& outWires) {
+
+	opcode = readByte();
+	if (opcode == END_OPCODE) {
+		return false;
+	}
+	inWires.clear();
+	outWires.clear();
+	if (opcode >= SPEC_LABEL) {
+		outWires.push_back(readVarint());
+		return true;
+	}
+	if (opcode == MULCONST_OPCODE || opcode == MULNEGCONST_OPCODE) {
+		unsigned long long index = readVarint();
+		assert(index < constants.size());
+		constant = constants[index];
+		if (opcode == MULNEGCONST_OPCODE) {
+			constant = constant * FieldT(-1);
+			opcode = MULCONST_OPCODE;
+		}
+	}
+	// output ids are deltas from the previous output id, and input ids are
+	// distances from the first output of the gate
+	unsigned long long numOutputs = readVarint();
+	for (unsigned long long i = 0; i < numOutputs; i++) {
+		previousOutputId += 1 + readSignedVarint();
+		outWires.push_back(previousOutputId);
+	}
+	long long base = outWires[0];
+	unsigned long long numInputs = readVarint();
+	for (unsigned long long i = 0; i < numInputs; i++) {
+		inWires.push_back(base - readSignedVarint());
+	}
+	return true;
+}
+
+void BinaryCircuitStream::seek(long long offset) {
+	if (fseeko(file, offset, SEEK_SET) != 0) {
+		printf("Error: invalid offset in the binary circuit file\n");
+		exit(-1);
+	}
+	bufferPos = bufferSize = 0;
+}
+
+unsigned char BinaryCircuitStream::readByte() {
+	if (bufferPos == bufferSize) {
+		bufferSize = fread(buffer.data(), 1, buffer.size(), file);
+		bufferPos = 0;
+		if (bufferSize == 0) {
+			printf("Error: unexpected end of the binary circuit file\n");
+			exit(-1);
+		}
+	}
+	return buffer[bufferPos++];
+}
+
+unsigned long long BinaryCircuitStream::readVarint() {
+	unsigned long long v = 0;
+	int shift = 0;
+	unsigned char b;
+	do {
+		b = readByte();
+		v |= (unsigned long long) (b & 0x7F) << shift;
+		shift += 7;
+	} while (b & 0x80);
+	return v;
+}
 
+long long BinaryCircuitStream::readSignedVarint() {
+	unsigned long long v = readVarint();
+	return (long long) (v >> 1) ^ -(long long) (v & 1);
 }
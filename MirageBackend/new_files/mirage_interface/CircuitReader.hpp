@@ -24,6 +24,9 @@
 #include <unistd.h>
 #include <stdio.h>
 #include <proc/readproc.h>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
 #include <libsnark/common/default_types/universal_r1cs_gg_ppzksnark_pp.hpp>
 
 using namespace libsnark;
@@ -46,6 +49,15 @@ typedef ::std::map<Wire, unsigned int> WireMap;
 #define XOR_OPCODE 7
 #define OR_OPCODE 8
 #define CONSTRAINT_OPCODE 9
+#define MULNEGCONST_OPCODE 10
+
+// Record types that only appear in the binary format (.arithb)
+#define END_OPCODE 0
+#define SPEC_LABEL 16
+#define STMT_LABEL 17
+#define WITNESS_LABEL 18
+#define RND_LABEL 19
+#define OUTPUT_LABEL 20
 
 class universal_circuit_information;
 
@@ -73,6 +85,42 @@ class universal_circuit_information {
 };
 
 
+/*
+ * Sequential reader for the binary circuit format written by
+ * jsnark.circuit.structure.BinaryCircuitWriter: a "MRCB" header and version
+ * byte, the records, and a trailer with the number of wires and the constant
+ * pool, located through the last eight bytes of the file.
+ */
+class BinaryCircuitStream {
+public:
+	BinaryCircuitStream(const char* path);
+	~BinaryCircuitStream();
+
+	static bool isBinaryCircuitFile(const char* path);
+
+	unsigned int getNumWires() const { return numWires; }
+
+	// Reads the next record. For labels, the labeled wire is returned in
+	// outWires. Const-mul gates are returned as MULCONST_OPCODE with the
+	// (possibly negated) constant. Returns false at the end of the records.
+	bool next(short& opcode, FieldT& constant, std::vector<Wire>& inWires,
+			std::vector<Wire>& outWires);
+
+private:
+	FILE* file;
+	std::vector<unsigned char> buffer;
+	size_t bufferPos, bufferSize;
+
+	unsigned int numWires;
+	std::vector<FieldT> constants;
+	long long previousOutputId;
+
+	void seek(long long offset);
+	unsigned char readByte();
+	unsigned long long readVarint();
+	long long readSignedVarint();
+};
+
 class CircuitReader {
 public:
 	CircuitReader(char* arithFilepath, char* inputsFilepath, ProtoboardPtr pb);
@@ -98,6 +146,7 @@ private:
 	ProtoboardPtr pb;
 	char* arithFilepath;
 	char* inputsFilepath;
+	bool binaryFormat;
 
 	std::vector<VariablePtr> variables;
 	std::vector<LinearCombinationPtr> wireLinearCombinations;
@@ -112,8 +161,10 @@ private:
 	std::vector<Wire> toClean;
 
 	void firstPass();
+	void firstPassBinary();
 	void secondPass();
 	void readValues();
+	bool readBinaryValues();
 
 	std::vector<Wire> specWireIds;
 	std::vector<Wire> stmtWireIds;
@@ -138,20 +189,26 @@ private:
 	void find(unsigned int, LinearCombinationPtr&, bool intentionToEdit = false);
 	void clean();
 
-	void addMulConstraint(char*, char*);
-	void addXorConstraint(char*, char*);
+	bool parseGateLine(const string&, short&, FieldT&, std::vector<Wire>&,
+			std::vector<Wire>&);
+	void translateGate(short, const FieldT&, const std::vector<Wire>&,
+			const std::vector<Wire>&);
+	void evalGate(short, const FieldT&, const std::vector<Wire>&,
+			const std::vector<Wire>&);
+
+	void addMulConstraint(const std::vector<Wire>&, const std::vector<Wire>&);
+	void addXorConstraint(const std::vector<Wire>&, const std::vector<Wire>&);
 
-	void addOrConstraint(char*, char*);
-	void addAssertionConstraint(char*, char*);
+	void addOrConstraint(const std::vector<Wire>&, const std::vector<Wire>&);
+	void addAssertionConstraint(const std::vector<Wire>&, const std::vector<Wire>&);
 
-	void addSplitConstraint(char*, char*, unsigned short);
+	void addSplitConstraint(const std::vector<Wire>&, const std::vector<Wire>&);
 
-	void addNonzeroCheckConstraint(char*, char*);
+	void addNonzeroCheckConstraint(const std::vector<Wire>&, const std::vector<Wire>&);
 
-	void handleAddition(char*, char*);
-	void handlePackOperation(char*, char*, unsigned short);
-	void handleMulConst(char*, char*, char*);
-	void handleMulNegConst(char*, char*, char*);
+	void handleAddition(const std::vector<Wire>&, const std::vector<Wire>&);
+	void handlePackOperation(const std::vector<Wire>&, const std::vector<Wire>&);
+	void handleMulConst(const FieldT&, const std::vector<Wire>&, const std::vector<Wire>&);
 
 };
 
@@ -18,3 +18,16 @@ FieldT readFieldElementFromHex(char* inputStr){
 	return f;
 
 }
+
+// Reads an unsigned big-endian integer, as stored in the constant pool of the
+// binary circuit format
+FieldT readFieldElementFromBytes(const unsigned char* bytes, size_t length){
+	char constStrDecimal[150];
+	mpz_t integ;
+	mpz_init(integ);
+	mpz_import(integ, length, 1, 1, 1, 0, bytes);
+	mpz_get_str(constStrDecimal, 10, integ);
+	mpz_clear(integ);
+	FieldT f = FieldT(constStrDecimal);
+	return f;
+}
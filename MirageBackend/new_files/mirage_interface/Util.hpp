@@ -14,6 +14,7 @@ typedef libff::Fr<libff::default_ec_pp> FieldT;
 
 void readIds(char* str, std::vector<unsigned int>& vec);
 FieldT readFieldElementFromHex(char* str);
+FieldT readFieldElementFromBytes(const unsigned char* bytes, size_t length);
 
 
 #endif
@@ -63,7 +63,8 @@ public class AES128Specifier {
 		// This is to measure the amplification cost.
 		// See the matrix mul example for a more natural way for defining the universal circuit
 		
-		UniversalCircuitGenerator generator =  new UniversalCircuitGenerator("UnivCircuit_AES", 48, 1243, 742, 180, 257, 456);
+		// The S-box is a read-only table (opcode 5), so it does not need memory writes.
+		UniversalCircuitGenerator generator =  new UniversalCircuitGenerator("UnivCircuit_AES", 48, 731, 742, 180, 0, 0, 257, 200);
 		generator.generateCircuit();
 		
 		AES128Specifier specifier = new AES128Specifier(generator);
@@ -11,16 +11,25 @@ import examples.auxiliary.Auction;
 import examples.auxiliary.SHA256;
 import jsnark.util.Util;
 import universal.UniversalCircuitGenerator;
+import universal.UniversalCircuitProfiler;
 import universal.opcodes.opcode2.BitwiseOperationType;
 
 public class HawkManagerAuctionSpecifier {
 
 	private int numParicipants;
 	private UniversalCircuitGenerator generator;
+	// packs the outputs into as few statements as possible, for auctions of
+	// many participants
+	private boolean batched;
 
 	public HawkManagerAuctionSpecifier(UniversalCircuitGenerator generator, int numParicipants) {
+		this(generator, numParicipants, false);
+	}
+
+	public HawkManagerAuctionSpecifier(UniversalCircuitGenerator generator, int numParicipants, boolean batched) {
 		this.generator = generator;
 		this.numParicipants = numParicipants;
+		this.batched = batched;
 	}
 
 	public void setInputToUniversalCircuit() {
@@ -103,9 +112,13 @@ public class HawkManagerAuctionSpecifier {
 			}
 		}
 
-		for (int i = 0; i < outputs.size(); i += 2) {
-			generator.makeStmtOutput(generator.addBinaryOp(outputs.get(i), outputs.get(i + 1)));
-			generator.setRuntimeSpecEntryForBinaryOp(3, BigInteger.ONE.shiftLeft(32));
+		if (batched) {
+			generator.makePackedStmtOutputArray(outputs.stream().mapToInt(Integer::intValue).toArray(), 32);
+		} else {
+			for (int i = 0; i < outputs.size(); i += 2) {
+				generator.makeStmtOutput(generator.addBinaryOp(outputs.get(i), outputs.get(i + 1)));
+				generator.setRuntimeSpecEntryForBinaryOp(3, BigInteger.ONE.shiftLeft(32));
+			}
 		}
 		generator.finalizeSpecification();
 	}
@@ -113,16 +126,19 @@ public class HawkManagerAuctionSpecifier {
 	public static void main(String[] args) {
 
 
-		int stmtSize = 300;
-		int budget = 11000000; // max number of constraints for all operations
-		// This is a large circuit that would need large memory
-		UniversalCircuitGenerator generator = new UniversalCircuitGenerator("UnivCircuit", stmtSize, budget);
+		int numParticipants = 6;
+
+		// A dry run of the specification finds the smallest universal circuit that supports it,
+		// instead of splitting a fixed budget between the operations
+		UniversalCircuitProfiler profiler = new UniversalCircuitProfiler();
+		new HawkManagerAuctionSpecifier(profiler, numParticipants, true).setInputToUniversalCircuit();
+		profiler.printShape();
+		UniversalCircuitGenerator generator = profiler.createGenerator("UnivCircuit");
 		generator.generateCircuit();
 		generator.writeCircuitFile();
 		
 		// now specify the input to the universal circuit
-		int numParticipants = 6;
-		HawkManagerAuctionSpecifier specifier = new HawkManagerAuctionSpecifier(generator, numParticipants);
+		HawkManagerAuctionSpecifier specifier = new HawkManagerAuctionSpecifier(generator, numParticipants, true);
 		specifier.setInputToUniversalCircuit();
 		generator.getCircuitEvaluator().evaluateCircuit();
 	}
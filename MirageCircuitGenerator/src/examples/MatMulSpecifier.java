@@ -83,5 +83,6 @@ public class MatMulSpecifier {
 		specifier.setInputToUniversalCircuit();
 		generator.getCircuitEvaluator().evaluateCircuit();
 		generator.getCircuitEvaluator().writeInputFile("matmul");
+		generator.writeMetricsFile();
 	}
 }
@@ -27,15 +27,13 @@ public class MergeSortSpecifier {
 		BigInteger[] sampleInput = Util.randomBigIntegerArray(dimension, 16);
 		int[] array = generator.createStmtArray(sampleInput.length, sampleInput);
 
-		generator.registerMemory("a", dimension);
-		generator.registerMemory("b", dimension);
-
-		int[] constantIndices = new int[dimension + 1];
-		constantIndices[0] = generator.getZeroIndex();
-		constantIndices[1] = generator.getOneIndex();
-		for (int i = 2; i < dimension + 1; i++) {
-			constantIndices[i] = generator.makeConstant(i);
-		}
+		// one more cell for the index past the end, which is read and written
+		// under a false condition when a run is exhausted
+		generator.registerMemory("a", dimension + 1);
+		generator.registerMemory("b", dimension + 1);
+
+		// the memory addresses, loaded by statement entries
+		int[] constantIndices = generator.preloadConstants(dimension + 1);
 
 		for (int i = 0; i < dimension; i++) {
 			generator.writeToMemory("a", constantIndices[i], array[i]);
@@ -145,8 +143,8 @@ public class MergeSortSpecifier {
 		// This is to measure the amplification cost.
 		// See the matrix mul example for a more natural way for defining the universal
 		// circuit
-		int stmtSize = 20;
-		UniversalCircuitGenerator generator = new UniversalCircuitGenerator("univ_circuit", stmtSize, 1041, 81, 6, 30,
+		int stmtSize = 29;
+		UniversalCircuitGenerator generator = new UniversalCircuitGenerator("univ_circuit", stmtSize, 943, 81, 6, 30,
 				294);
 		generator.generateCircuit();
 
@@ -40,7 +40,7 @@ public class SHA256Specifier{
 		// This is to measure the amplification cost.
 		// See the matrix mul example for a more natural way for defining the universal circuit
 
-		UniversalCircuitGenerator generator =  new UniversalCircuitGenerator("UnivCircuit",  24, 920, 960, 479, 128, 0);
+		UniversalCircuitGenerator generator =  new UniversalCircuitGenerator("UnivCircuit",  24, 894, 960, 469, 128, 0);
 		generator.generateCircuit();		
 		SHA256Specifier specifier = new SHA256Specifier(generator);
 		specifier.setInputToUniversalCircuit();
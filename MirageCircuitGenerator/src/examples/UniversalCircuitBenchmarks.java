@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package examples;
+
+import universal.UniversalCircuitBenchmark;
+
+public class UniversalCircuitBenchmarks {
+
+	public static void main(String[] args) {
+
+		// Measures the generation, specification, evaluation and file output of
+		// the examples, on universal circuits of 1x, 2x and 4x their profiled
+		// shapes. The iterations can be given as arguments: [warmup] [measured]
+		int warmupIterations = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int measuredIterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		UniversalCircuitBenchmark benchmark = new UniversalCircuitBenchmark(warmupIterations, measuredIterations);
+		benchmark.addProgram("MatMul", g -> new MatMulSpecifier(g, 3).setInputToUniversalCircuit(), 1, 2, 4);
+		benchmark.addProgram("MergeSort", g -> new MergeSortSpecifier(g, 10).setInputToUniversalCircuit(), 1, 2, 4);
+		benchmark.addProgram("SHA-256", g -> new SHA256Specifier(g).setInputToUniversalCircuit(), 1, 2, 4);
+		benchmark.addProgram("AES-128", g -> new AES128Specifier(g).setInputToUniversalCircuit(), 1, 2, 4);
+		// the smallest auction, as every participant adds about 900K constraints
+		benchmark.addProgram("Hawk Auction", g -> new HawkManagerAuctionSpecifier(g, 2, true).setInputToUniversalCircuit(),
+				1);
+		benchmark.run();
+	}
+
+}
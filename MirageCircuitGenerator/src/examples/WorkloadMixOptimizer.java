@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package examples;
+
+import universal.UniversalCircuitMixOptimizer;
+
+public class WorkloadMixOptimizer {
+
+	public static void main(String[] args) {
+
+		// Finds the smallest universal circuit that supports all the examples,
+		// without building any circuit.
+		UniversalCircuitMixOptimizer optimizer = new UniversalCircuitMixOptimizer();
+		optimizer.addProgram("SHA-256", g -> new SHA256Specifier(g).setInputToUniversalCircuit());
+		optimizer.addProgram("AES-128", g -> new AES128Specifier(g).setInputToUniversalCircuit());
+		optimizer.addProgram("MatMul", g -> new MatMulSpecifier(g, 3).setInputToUniversalCircuit());
+		optimizer.addProgram("MergeSort", g -> new MergeSortSpecifier(g, 10).setInputToUniversalCircuit());
+		optimizer.addProgram("Hawk Auction", g -> new HawkManagerAuctionSpecifier(g, 6).setInputToUniversalCircuit());
+		optimizer.printReport("UnivCircuit");
+	}
+
+}
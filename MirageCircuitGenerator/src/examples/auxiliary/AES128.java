@@ -66,11 +66,11 @@ public class AES128 {
 
 	public void specifyCircuit() {
 
-		generator.registerMemory("sbox", 256);
+		BigInteger[] sbox = new BigInteger[256];
 		for(int i = 0; i < 256; i++){
-			generator.writeToMemory("sbox", generator.makeConstant(i), 
-					generator.makeConstant(SBox[i]));
+			sbox[i] = BigInteger.valueOf(SBox[i]);
 		}
+		generator.registerTable("sbox", sbox);
 		
 		expandedKey = expandKey();
 		
@@ -152,7 +152,7 @@ public class AES128 {
 	}
 	
 	private  int randomAccess(int index) {
-		return generator.readFromMemory("sbox", index);
+		return generator.lookupTable("sbox", index);
 	}
 	
 	
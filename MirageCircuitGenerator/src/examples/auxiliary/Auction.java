@@ -25,12 +25,7 @@ public class Auction {
 		int numParticipants = inputs.length - 1;
 		int winnerIndex = generator.getOneIndex();
 		int currentMax = inputs[1];
-		int[] indices = new int[numParticipants + 1]; // constants unnecessary, but to simplify code for now
-		indices[0] = generator.getZeroIndex();
-		indices[1] = generator.getOneIndex();
-		for (int i = 2; i < numParticipants + 1; i++) {
-			indices[i] = generator.makeConstant( i);
-		}
+		int[] indices = generator.preloadConstants(numParticipants + 1); // constants unnecessary, but to simplify code for now
 
 		for (int i = 2; i < numParticipants + 1; i++) {
 			int greaterThan = generator.isGreaterThan64( inputs[i], currentMax);
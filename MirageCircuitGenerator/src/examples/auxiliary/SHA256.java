@@ -32,57 +32,120 @@ public class SHA256 {
 			0x84c87814L, 0x8cc70208L, 0x90befffaL, 0xa4506cebL, 0xbef9a3f7L,
 			0xc67178f2L };
 
-	private int[] inputs;
-	private int[] outputs;
 	private UniversalCircuitGenerator generator;
 
+	// The state after the last block. The words 0 and 4 of the state (a and e
+	// of the next block) are range checked when they are split in the first
+	// round of the next block, or by getOutputs() if there is none.
+	private int[] state;
+	private boolean[] isChecked;
+	// the rotations of a and e for the first round of the next block, if they
+	// are already known
+	private int[] aRotations;
+	private int[] eRotations;
+	private int[] outputs;
+
+	/**
+	 * Hashes 16-word blocks without padding, as in the commitments of the Hawk
+	 * example. The inputs are 32-bit words.
+	 */
 	public SHA256(UniversalCircuitGenerator generator, int[] inputs) {
 
 		if (inputs.length % 16 != 0) {
 			throw new IllegalArgumentException();
 		}
 		this.generator = generator;
-		this.inputs = inputs;
-		
-		specifyCircuit();
+		initState();
+		for (int j = 0; j < inputs.length / 16; j++) {
+			update(Arrays.copyOfRange(inputs, j * 16, j * 16 + 16));
+		}
 	}
 
-	public void specifyCircuit() {
-
-		int h0 = generator.mulBinaryOp(generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[0]));
-
-		int h1 = generator.mulBinaryOp(generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[1]));
-
-		int h2 = generator.mulBinaryOp( generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[2]));
-
-		int h3 = generator.mulBinaryOp( generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[3]));
+	/**
+	 * Starts a hash that is specified one block at a time, see update() and
+	 * getOutputs().
+	 */
+	public SHA256(UniversalCircuitGenerator generator) {
+		this.generator = generator;
+		initState();
+	}
 
-		int h4 = generator.mulBinaryOp( generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[4]));
+	/**
+	 * Returns the SHA-256 digest of a message of numBytes bytes, given as
+	 * ceil(numBytes / 4) big-endian 32-bit words. When numBytes is not a
+	 * multiple of 4, the bytes of the last word are its high-order bytes, and
+	 * its other bytes must be zero. The padding is specified in the circuit,
+	 * and its constant words do not need any split operations.
+	 */
+	public static int[] hash(UniversalCircuitGenerator generator, int[] words, long numBytes) {
+		if (words.length != (numBytes + 3) / 4) {
+			throw new IllegalArgumentException("Expected " + (numBytes + 3) / 4 + " words");
+		}
+		int numPaddedWords = (int) ((numBytes / 4 + 1 + 2 + 15) / 16 * 16);
+		int[] paddedWords = new int[numPaddedWords];
+		Long[] constants = new Long[numPaddedWords];
+		System.arraycopy(words, 0, paddedWords, 0, words.length);
+
+		int remaining = (int) (numBytes % 4);
+		long marker = 0x80L << (8 * (3 - remaining));
+		if (remaining == 0) {
+			constants[words.length] = marker;
+		} else {
+			int last = words.length - 1;
+			paddedWords[last] = generator.addBinaryOp(words[last], generator.getZeroIndex());
+			generator.setRuntimeSpecEntryForBinaryOp(4, BigInteger.valueOf(marker));
+		}
+		for (int i = (int) (numBytes / 4) + 1; i < numPaddedWords; i++) {
+			constants[i] = 0L;
+		}
+		long numBits = numBytes * 8;
+		constants[numPaddedWords - 2] = numBits >>> 32;
+		constants[numPaddedWords - 1] = numBits & 0xffffffffL;
+
+		SHA256 sha256 = new SHA256(generator);
+		for (int j = 0; j < numPaddedWords / 16; j++) {
+			sha256.update(Arrays.copyOfRange(paddedWords, j * 16, j * 16 + 16),
+					Arrays.copyOfRange(constants, j * 16, j * 16 + 16));
+		}
+		return sha256.getOutputs();
+	}
 
-		int h5 = generator.mulBinaryOp( generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[5]));
+	private void initState() {
+		state = new int[8];
+		isChecked = new boolean[8];
+		for (int i = 0; i < 8; i++) {
+			state[i] = makeConstant(H[i]);
+			isChecked[i] = true;
+		}
+		aRotations = new int[] { makeConstant(rotateRight(H[0], 2)), makeConstant(rotateRight(H[0], 13)),
+				makeConstant(rotateRight(H[0], 22)) };
+		eRotations = new int[] { makeConstant(rotateRight(H[4], 6)), makeConstant(rotateRight(H[4], 11)),
+				makeConstant(rotateRight(H[4], 25)) };
+	}
 
-		int h6 = generator.mulBinaryOp( generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[6]));
+	/**
+	 * Specifies the compression of one block of 16 32-bit words. The words
+	 * that are the zero index are treated as constants.
+	 */
+	public void update(int[] block) {
+		Long[] constants = new Long[16];
+		for (int i = 0; i < 16; i++) {
+			if (block[i] == generator.getZeroIndex()) {
+				constants[i] = 0L;
+			}
+		}
+		update(block, constants);
+	}
 
-		int h7 = generator.mulBinaryOp( generator.getOneIndex(),
-				generator.getOneIndex());
-		generator.setRuntimeSpecEntryForBinaryOp(1, BigInteger.valueOf(H[7]));
+	private void update(int[] block, Long[] constants) {
+		if (outputs != null) {
+			throw new IllegalStateException("The outputs were already computed");
+		}
+		if (block.length != 16) {
+			throw new IllegalArgumentException();
+		}
 
-		Integer[] words = new Integer[64];
-		int[][] wordBits = new int[64][];
+		int[] words = new int[64];
 		Integer[] wordsRR7 = new Integer[64];
 		Integer[] wordsRR18 = new Integer[64];
 		Integer[] wordsRS3 = new Integer[64];
@@ -91,289 +154,295 @@ public class SHA256 {
 		Integer[] wordsRR19 = new Integer[64];
 		Integer[] wordsRS10 = new Integer[64];
 
-		Arrays.fill(words, null);
-		Arrays.fill(wordsRR17, null);
-		Arrays.fill(wordsRR18, null);
-		Arrays.fill(wordsRR19, null);
-		Arrays.fill(wordsRR7, null);
-		Arrays.fill(wordsRS10, null);
-		Arrays.fill(wordsRS3, null);
-
-		for (int j = 0; j < inputs.length / 16; j++) {
-			for (int i = 0; i < 16; i++) {
-				words[i] = inputs[i + j * 16];
-				int[] out = generator.split32ToBitsAndApplySet(
-						words[i], 32,
-						Split32OperationUtil.getRotateRightCoefficients(7));
-				wordBits[i] = Arrays.copyOfRange(out, 0, 32);
-				wordsRR7[i] = out[32];
+		for (int i = 0; i < 16; i++) {
+			if (constants[i] != null) {
+				// the rotations of a constant word are constants as well
+				long w = constants[i];
+				words[i] = makeConstant(w);
 				if (i >= 1) {
-					out = generator.customOp3( wordBits[i], true,
-							Split32OperationUtil.getRotateRightCoefficients(18),
-							Split32OperationUtil.getShiftRightCoefficients(3));
-					wordsRR18[i] = out[0];
-					wordsRS3[i] = out[1];
+					wordsRR7[i] = makeConstant(rotateRight(w, 7));
+					wordsRR18[i] = makeConstant(rotateRight(w, 18));
+					wordsRS3[i] = makeConstant(w >>> 3);
 				}
 				if (i >= 14) {
-					out = generator.customOp3( wordBits[i], true,
-							Split32OperationUtil.getRotateRightCoefficients(17),
-							Split32OperationUtil.getRotateRightCoefficients(19));
-					wordsRR17[i] = out[0];
-					wordsRR19[i] = out[1];
-					out = generator.customOp3( wordBits[i], true,
-							Split32OperationUtil.getShiftRightCoefficients(10),
-							Split32OperationUtil.getShiftRightCoefficients(10));
-					wordsRS10[i] = out[0];
+					wordsRR17[i] = makeConstant(rotateRight(w, 17));
+					wordsRR19[i] = makeConstant(rotateRight(w, 19));
+					wordsRS10[i] = makeConstant(w >>> 10);
 				}
+				continue;
 			}
-
-			for (int i = 16; i < 64; i++) {
-
-				int s0_tmp1 = generator.bitwiseOp( wordsRR7[i - 15],
-						wordsRR18[i - 15], BitwiseOperationType.xor);
-				int s0 = generator.bitwiseOp( s0_tmp1,
-						wordsRS3[i - 15], BitwiseOperationType.xor);
-
-				int s1_tmp1 = generator.bitwiseOp( wordsRR17[i - 2],
-						wordsRR19[i - 2], BitwiseOperationType.xor);
-				int s1 = generator.bitwiseOp( s1_tmp1,
-						wordsRS10[i - 2], BitwiseOperationType.xor);
-
-				generator.addBinaryOp( words[i - 16], words[i - 7]);
-				int t2 = generator.customBinaryOp( s0, s1,
-						OperationType.add, OperationType.add, true);
-
-				int[] t2_splitted = generator.splitBinary( t2,
-						new int[] { 32, 2 });
-				words[i] = t2_splitted[0];
-				// wordBits[i] = split32ToBits( words[i], 32);
-
-				int rem = t2_splitted[1]; // range 2 bits
-				int[] rem_splitted = generator.splitBinary( rem,
-						new int[] { 1, 1 });
-				generator.addBitToVerify(rem_splitted[0]);
-				generator.addBitToVerify(rem_splitted[1]);
-
-				int[] out = generator.split32ToBitsAndApplySet(
-						words[i], 32,
-						Split32OperationUtil.getRotateRightCoefficients(17));
-				wordBits[i] = Arrays.copyOfRange(out, 0, 32);
-				wordsRR17[i] = out[32];
-
-				if (i < 64 - 15) {
-					out = generator.customOp3( wordBits[i], true,
-							Split32OperationUtil.getRotateRightCoefficients(7),
-							Split32OperationUtil.getRotateRightCoefficients(18));
-					wordsRR7[i] = out[0];
-					wordsRR18[i] = out[1];
-					out = generator.customOp3( wordBits[i], true,
-							Split32OperationUtil.getShiftRightCoefficients(3),
-							Split32OperationUtil.getShiftRightCoefficients(3));
-					wordsRS3[i] = out[0];
-				}
-				if (i < 64 - 2) {
-					out = generator.customOp3( wordBits[i], true,
-							Split32OperationUtil.getRotateRightCoefficients(19),
-							Split32OperationUtil.getShiftRightCoefficients(10));
-					wordsRR19[i] = out[0];
-					wordsRS10[i] = out[1];
-				}
+			words[i] = block[i];
+			int[] out = generator.split32ToBitsAndApplySet(
+					words[i], 32,
+					Split32OperationUtil.getRotateRightCoefficients(7));
+			int[] wordBits = Arrays.copyOfRange(out, 0, 32);
+			wordsRR7[i] = out[32];
+			if (i >= 1) {
+				out = generator.customOp3( wordBits, true,
+						Split32OperationUtil.getRotateRightCoefficients(18),
+						Split32OperationUtil.getShiftRightCoefficients(3));
+				wordsRR18[i] = out[0];
+				wordsRS3[i] = out[1];
 			}
+			if (i >= 14) {
+				out = generator.customOp3( wordBits, true,
+						Split32OperationUtil.getRotateRightCoefficients(17),
+						Split32OperationUtil.getRotateRightCoefficients(19));
+				wordsRR17[i] = out[0];
+				wordsRR19[i] = out[1];
+				out = generator.customOp3( wordBits, true,
+						Split32OperationUtil.getShiftRightCoefficients(10),
+						Split32OperationUtil.getShiftRightCoefficients(10));
+				wordsRS10[i] = out[0];
+			}
+		}
 
-			int a, b, c, d, e, f, g, h;
-			a = h0;
-			b = h1;
-			c = h2;
-			d = h3;
-			e = h4;
-			f = h5;
-			g = h6;
-			h = h7;
-
-			int[] aBits;
-			int aRR2;
-			int aRR13;
-			int aRR22;
-			int[] out = generator.split32ToBitsAndApplySet( a, 32,
-					Split32OperationUtil.getRotateRightCoefficients(2));
-			aBits = Arrays.copyOfRange(out, 0, 32);
-			aRR2 = out[32];
-			out = generator.customOp3( aBits, true,
-					Split32OperationUtil.getRotateRightCoefficients(13),
-					Split32OperationUtil.getRotateRightCoefficients(22));
-			aRR13 = out[0];
-			aRR22 = out[1];
-
-			int[] eBits;
-			int eRR6;
-			int eRR11;
-			int eRR25;
-			out = generator.split32ToBitsAndApplySet( e, 32,
-					Split32OperationUtil.getRotateRightCoefficients(6));
-			eBits = Arrays.copyOfRange(out, 0, 32);
-			eRR6 = out[32];
-			out = generator.customOp3( eBits, true,
-					Split32OperationUtil.getRotateRightCoefficients(11),
-					Split32OperationUtil.getRotateRightCoefficients(25));
-			eRR11 = out[0];
-			eRR25 = out[1];
-
-			for (int i = 0; i < 64; i++) {
-
-				int s1_tmp = generator.bitwiseOp( eRR6, eRR11,
-						BitwiseOperationType.xor);
-				int s1 = generator.bitwiseOp( s1_tmp, eRR25,
-						BitwiseOperationType.xor);
-
-				int s0_tmp = generator.bitwiseOp( aRR2, aRR13,
-						BitwiseOperationType.xor);
-				int s0 = generator.bitwiseOp( s0_tmp, aRR22,
-						BitwiseOperationType.xor);
-
-				// ch := (e and f) xor ((not e) and g)
-
-				int ch1 = generator.bitwiseOp( e, f,
-						BitwiseOperationType.and);
-				int ch2 = generator.bitwiseOp( e, g,
-						BitwiseOperationType.andInv1);
-				int ch = generator.bitwiseOp( ch1, ch2,
-						BitwiseOperationType.xor);
-
-				// maj := (a and b) xor (a and c) xor (b and c)
-
-				int maj1 = generator.bitwiseOp( a, b,
-						BitwiseOperationType.and);
-				int maj2 = generator.bitwiseOp( a, c,
-						BitwiseOperationType.and);
-				int maj3 = generator.bitwiseOp( b, c,
-						BitwiseOperationType.and);
-				int maj4 = generator.bitwiseOp( maj1, maj2,
-						BitwiseOperationType.xor);
-				int maj = generator.bitwiseOp( maj3, maj4,
-						BitwiseOperationType.xor);
-				;
-				// int ch = bitwiseOp( ch1, ch2,
-				// BitwiseOperationType.xor);
-
-				// makeStmtOutput( s0);
-				// makeStmtOutput( s1);
-				// makeStmtOutput( ch);
-				// makeStmtOutput( maj);
-
-				// computing temp1
-				generator.customBinaryOp( h, s1, OperationType.add,
-						OperationType.add, false);
-				generator.setRuntimeSpecEntryForBinaryOp(4,
-						BigInteger.valueOf(K[i]));
-				int temp1 = generator.customBinaryOp( ch, words[i],
-						OperationType.add, OperationType.add, true);
-				;
-				int temp2 = generator.customBinaryOp( s0, maj,
-						OperationType.add, OperationType.add, false);
-				;
-
-				// if (i == 32){
-				// makeStmtOutput(s1);
-				// makeStmtOutput(s0);
-				// makeStmtOutput(ch);
-				// makeStmtOutput(maj);
-				// makeStmtOutput(temp1);
-				// makeStmtOutput(temp2);
-				// }
-
-				h = g;
-				g = f;
-				f = e;
-
-				// e = d + temp1; // UPDATE
-				int tempE = generator.customBinaryOp( d, temp1,
-						OperationType.add, OperationType.add, false);
-				int[] tempESplitted = generator.splitBinary( tempE,
-						new int[] { 32, 3 });
-				e = tempESplitted[0];
-				// eBits = split32ToBits( e, 32);
-
-				int[] remaining = generator.splitBinary(
-						tempESplitted[1], new int[] { 1, 2 });
-				generator.addBitToVerify(remaining[0]);
-				int[] remaining2 = generator.splitBinary(
-						remaining[1], new int[] { 1, 1 });
-				generator.addBitToVerify(remaining2[0]);
-				generator.addBitToVerify(remaining2[1]);
-
-				d = c;
-				c = b;
-				b = a;
-
-				int tempA = generator.customBinaryOp( temp2, temp1,
-						OperationType.add, OperationType.add, false);
-				int[] tempASplitted = generator.splitBinary( tempA,
-						new int[] { 32, 3 });
-				a = tempASplitted[0];
-				// aBits = split32ToBits( a, 32);
-
-				remaining = generator.splitBinary( tempASplitted[1],
-						new int[] { 1, 2 });
-				generator.addBitToVerify(remaining[0]);
-				remaining2 = generator.splitBinary( remaining[1],
-						new int[] { 1, 1 });
-				generator.addBitToVerify(remaining2[0]);
-				generator.addBitToVerify(remaining2[1]);
-
-				out = generator.split32ToBitsAndApplySet( a, 32,
-						Split32OperationUtil.getRotateRightCoefficients(2));
-				aBits = Arrays.copyOfRange(out, 0, 32);
-				aRR2 = out[32];
-				out = generator.customOp3( aBits, true,
-						Split32OperationUtil.getRotateRightCoefficients(13),
-						Split32OperationUtil.getRotateRightCoefficients(22));
-				aRR13 = out[0];
-				aRR22 = out[1];
-
-				out = generator.split32ToBitsAndApplySet( e, 32,
-						Split32OperationUtil.getRotateRightCoefficients(6));
-				eBits = Arrays.copyOfRange(out, 0, 32);
-				eRR6 = out[32];
-				out = generator.customOp3( eBits, true,
-						Split32OperationUtil.getRotateRightCoefficients(11),
-						Split32OperationUtil.getRotateRightCoefficients(25));
-				eRR11 = out[0];
-				eRR25 = out[1];
-
+		for (int i = 16; i < 64; i++) {
+
+			int s0_tmp1 = generator.bitwiseOp( wordsRR7[i - 15],
+					wordsRR18[i - 15], BitwiseOperationType.xor);
+			int s0 = generator.bitwiseOp( s0_tmp1,
+					wordsRS3[i - 15], BitwiseOperationType.xor);
+
+			int s1_tmp1 = generator.bitwiseOp( wordsRR17[i - 2],
+					wordsRR19[i - 2], BitwiseOperationType.xor);
+			int s1 = generator.bitwiseOp( s1_tmp1,
+					wordsRS10[i - 2], BitwiseOperationType.xor);
+
+			generator.addBinaryOp( words[i - 16], words[i - 7]);
+			int t2 = generator.customBinaryOp( s0, s1,
+					OperationType.add, OperationType.add, true);
+
+			int[] t2_splitted = generator.splitBinary( t2,
+					new int[] { 32, 2 });
+			words[i] = t2_splitted[0];
+
+			int rem = t2_splitted[1]; // range 2 bits
+			int[] rem_splitted = generator.splitBinary( rem,
+					new int[] { 1, 1 });
+			generator.addBitToVerify(rem_splitted[0]);
+			generator.addBitToVerify(rem_splitted[1]);
+
+			// The last two words are only used in the additions of the last
+			// rounds, which are reduced modulo 2^32 by the range checks of the
+			// state, so they are neither split nor range checked.
+			if (i >= 64 - 2) {
+				continue;
 			}
+			int[] out = generator.split32ToBitsAndApplySet(
+					words[i], 32,
+					Split32OperationUtil.getRotateRightCoefficients(17));
+			int[] wordBits = Arrays.copyOfRange(out, 0, 32);
+			wordsRR17[i] = out[32];
+
+			if (i < 64 - 15) {
+				out = generator.customOp3( wordBits, true,
+						Split32OperationUtil.getRotateRightCoefficients(7),
+						Split32OperationUtil.getRotateRightCoefficients(18));
+				wordsRR7[i] = out[0];
+				wordsRR18[i] = out[1];
+				out = generator.customOp3( wordBits, true,
+						Split32OperationUtil.getShiftRightCoefficients(3),
+						Split32OperationUtil.getShiftRightCoefficients(3));
+				wordsRS3[i] = out[0];
+			}
+			out = generator.customOp3( wordBits, true,
+					Split32OperationUtil.getRotateRightCoefficients(19),
+					Split32OperationUtil.getShiftRightCoefficients(10));
+			wordsRR19[i] = out[0];
+			wordsRS10[i] = out[1];
+		}
 
-			a = generator.customBinaryOp( a, h0, OperationType.add,
-					OperationType.add, false);
-			b = generator.customBinaryOp( b, h1, OperationType.add,
-					OperationType.add, false);
-			c = generator.customBinaryOp( c, h2, OperationType.add,
-					OperationType.add, false);
-			d = generator.customBinaryOp( d, h3, OperationType.add,
-					OperationType.add, false);
-			e = generator.customBinaryOp( e, h4, OperationType.add,
-					OperationType.add, false);
-			f = generator.customBinaryOp( f, h5, OperationType.add,
-					OperationType.add, false);
-			g = generator.customBinaryOp( g, h6, OperationType.add,
+		int a, b, c, d, e, f, g, h;
+		a = state[0];
+		b = state[1];
+		c = state[2];
+		d = state[3];
+		e = state[4];
+		f = state[5];
+		g = state[6];
+		h = state[7];
+
+		if (aRotations == null) {
+			aRotations = rotateA(a);
+		}
+		if (eRotations == null) {
+			eRotations = rotateE(e);
+		}
+		int aRR2 = aRotations[0];
+		int aRR13 = aRotations[1];
+		int aRR22 = aRotations[2];
+		int eRR6 = eRotations[0];
+		int eRR11 = eRotations[1];
+		int eRR25 = eRotations[2];
+
+		for (int i = 0; i < 64; i++) {
+
+			int s1_tmp = generator.bitwiseOp( eRR6, eRR11,
+					BitwiseOperationType.xor);
+			int s1 = generator.bitwiseOp( s1_tmp, eRR25,
+					BitwiseOperationType.xor);
+
+			int s0_tmp = generator.bitwiseOp( aRR2, aRR13,
+					BitwiseOperationType.xor);
+			int s0 = generator.bitwiseOp( s0_tmp, aRR22,
+					BitwiseOperationType.xor);
+
+			// ch := (e and f) xor ((not e) and g)
+
+			int ch1 = generator.bitwiseOp( e, f,
+					BitwiseOperationType.and);
+			int ch2 = generator.bitwiseOp( e, g,
+					BitwiseOperationType.andInv1);
+			int ch = generator.bitwiseOp( ch1, ch2,
+					BitwiseOperationType.xor);
+
+			// maj := (a and b) xor (a and c) xor (b and c)
+
+			int maj1 = generator.bitwiseOp( a, b,
+					BitwiseOperationType.and);
+			int maj2 = generator.bitwiseOp( a, c,
+					BitwiseOperationType.and);
+			int maj3 = generator.bitwiseOp( b, c,
+					BitwiseOperationType.and);
+			int maj4 = generator.bitwiseOp( maj1, maj2,
+					BitwiseOperationType.xor);
+			int maj = generator.bitwiseOp( maj3, maj4,
+					BitwiseOperationType.xor);
+
+			// computing temp1
+			generator.customBinaryOp( h, s1, OperationType.add,
 					OperationType.add, false);
-			h = generator.customBinaryOp( h, h7, OperationType.add,
+			generator.setRuntimeSpecEntryForBinaryOp(4,
+					BigInteger.valueOf(K[i]));
+			int temp1 = generator.customBinaryOp( ch, words[i],
+					OperationType.add, OperationType.add, true);
+			int temp2 = generator.customBinaryOp( s0, maj,
+					OperationType.add, OperationType.add, false);
+
+			h = g;
+			g = f;
+			f = e;
+
+			// e = d + temp1; // UPDATE
+			int tempE = generator.customBinaryOp( d, temp1,
+					OperationType.add, OperationType.add, false);
+			int[] tempESplitted = generator.splitBinary( tempE,
+					new int[] { 32, 3 });
+			e = tempESplitted[0];
+
+			int[] remaining = generator.splitBinary(
+					tempESplitted[1], new int[] { 1, 2 });
+			generator.addBitToVerify(remaining[0]);
+			int[] remaining2 = generator.splitBinary(
+					remaining[1], new int[] { 1, 1 });
+			generator.addBitToVerify(remaining2[0]);
+			generator.addBitToVerify(remaining2[1]);
+
+			d = c;
+			c = b;
+			b = a;
+
+			int tempA = generator.customBinaryOp( temp2, temp1,
+					OperationType.add, OperationType.add, false);
+			int[] tempASplitted = generator.splitBinary( tempA,
+					new int[] { 32, 3 });
+			a = tempASplitted[0];
+
+			remaining = generator.splitBinary( tempASplitted[1],
+					new int[] { 1, 2 });
+			generator.addBitToVerify(remaining[0]);
+			remaining2 = generator.splitBinary( remaining[1],
+					new int[] { 1, 1 });
+			generator.addBitToVerify(remaining2[0]);
+			generator.addBitToVerify(remaining2[1]);
+
+			// a and e of the last round are only added to the state, which is
+			// range checked after the addition.
+			if (i < 63) {
+				int[] rotations = rotateA(a);
+				aRR2 = rotations[0];
+				aRR13 = rotations[1];
+				aRR22 = rotations[2];
+				rotations = rotateE(e);
+				eRR6 = rotations[0];
+				eRR11 = rotations[1];
+				eRR25 = rotations[2];
+			}
+		}
+
+		int[] result = new int[] { a, b, c, d, e, f, g, h };
+		for (int i = 0; i < 8; i++) {
+			int sum = generator.customBinaryOp( result[i], state[i], OperationType.add,
 					OperationType.add, false);
+			// a and e are split in the first round of the next block
+			if (i == 0 || i == 4) {
+				state[i] = trimOneBitUnchecked(sum);
+				isChecked[i] = false;
+			} else {
+				state[i] = trimOneBit(sum);
+				isChecked[i] = true;
+			}
+		}
+		aRotations = null;
+		eRotations = null;
+	}
 
-			h0 = trimOneBit( a);
-			h1 = trimOneBit( b);
-			h2 = trimOneBit( c);
-			h3 = trimOneBit( d);
-			h4 = trimOneBit( e);
-			h5 = trimOneBit( f);
-			h6 = trimOneBit( g);
-			h7 = trimOneBit( h);
+	/**
+	 * Returns the digest, after range checking the words of the state that
+	 * were not checked yet. No block can be added afterwards.
+	 */
+	public int[] getOutputs() {
+		if (outputs == null) {
+			for (int i = 0; i < 8; i++) {
+				if (!isChecked[i]) {
+					generator.split32ToBits(state[i], 32);
+					isChecked[i] = true;
+				}
+			}
+			outputs = state.clone();
+		}
+		return outputs;
+	}
+
+	private int[] rotateA(int a) {
+		int[] out = generator.split32ToBitsAndApplySet( a, 32,
+				Split32OperationUtil.getRotateRightCoefficients(2));
+		int[] aBits = Arrays.copyOfRange(out, 0, 32);
+		int aRR2 = out[32];
+		out = generator.customOp3( aBits, true,
+				Split32OperationUtil.getRotateRightCoefficients(13),
+				Split32OperationUtil.getRotateRightCoefficients(22));
+		return new int[] { aRR2, out[0], out[1] };
+	}
 
-			// output:
-			// ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad
+	private int[] rotateE(int e) {
+		int[] out = generator.split32ToBitsAndApplySet( e, 32,
+				Split32OperationUtil.getRotateRightCoefficients(6));
+		int[] eBits = Arrays.copyOfRange(out, 0, 32);
+		int eRR6 = out[32];
+		out = generator.customOp3( eBits, true,
+				Split32OperationUtil.getRotateRightCoefficients(11),
+				Split32OperationUtil.getRotateRightCoefficients(25));
+		return new int[] { eRR6, out[0], out[1] };
+	}
 
+	private int makeConstant(long value) {
+		if (value == 0) {
+			return generator.getZeroIndex();
 		}
+		return generator.makeConstant(BigInteger.valueOf(value));
+	}
+
+	private static long rotateRight(long value, int n) {
+		return Integer.rotateRight((int) value, n) & 0xffffffffL;
+	}
 
-		outputs = new int[]{h0, h1, h2, h3, h4, h5, h6, h7};
+	private int trimOneBitUnchecked(int index) {
+		int[] tempSplitted = generator.splitBinary( index, new int[] {
+				32, 1 });
+		generator.addBitToVerify(tempSplitted[1]);
+		return tempSplitted[0];
 	}
 
 	private int trimOneBit(int index) {
@@ -385,8 +454,4 @@ public class SHA256 {
 		return answer;
 	}
 
-	public int[] getOutputs() {
-		return outputs;
-	}
-
 }
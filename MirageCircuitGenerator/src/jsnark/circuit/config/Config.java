@@ -36,6 +36,28 @@ public class Config {
 	public static boolean hexOutputEnabled = properties.getProperty("PRINT_HEX").equals("1");
 	public static boolean outputVerbose = properties.getProperty("OUTPUT_VERBOSE").equals("1");
 	public static boolean debugVerbose = properties.getProperty("DEBUG_VERBOSE").equals("1");
+	
+	// bigint, limbs or offheap (see jsnark.circuit.eval.AssignmentStore)
+	public static String assignmentStoreType = properties.getProperty("ASSIGNMENT_STORE", "limbs").trim();
+
+	// write the .arith file while the circuit is built, keeping only a bounded
+	// window of recent instructions for deduplication
+	public static boolean streamCircuitFile = properties.getProperty("STREAM_CIRCUIT_FILE", "0").trim().equals("1");
+	public static int streamingDedupWindow = Integer
+			.parseInt(properties.getProperty("STREAMING_DEDUP_WINDOW", "1048576").trim());
+
+	// text (.arith), binary (.arithb, see jsnark.circuit.structure.BinaryCircuitWriter)
+	// or both
+	public static String circuitFileFormat = properties.getProperty("CIRCUIT_FILE_FORMAT", "text").trim();
+
+	// text (.in), binary (.inb, see jsnark.circuit.eval.BinaryInputWriter) or both
+	public static String inputFileFormat = properties.getProperty("INPUT_FILE_FORMAT", "text").trim();
+
+	// threads used to evaluate the constraints of the universal circuit (0 uses
+	// all the available processors, see jsnark.circuit.eval.ParallelEvaluator)
+	public static int evaluationThreads = Integer.parseInt(properties.getProperty("EVALUATION_THREADS", "0").trim());
+	public static boolean printEvaluationLevels = properties.getProperty("PRINT_EVALUATION_LEVELS", "0").trim()
+			.equals("1");
 
 	public static boolean printStackTraceAtWarnings = false;
 }
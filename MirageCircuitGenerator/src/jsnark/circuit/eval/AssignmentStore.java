@@ -0,0 +1,153 @@
+package jsnark.circuit.eval;
+
+import java.math.BigInteger;
+
+import jsnark.circuit.config.Config;
+
+/**
+ * Holds the values assigned to the wires of a circuit during evaluation.
+ *
+ * Field elements are exposed as four 64-bit little-endian limbs, so that the
+ * primitive operations can work on the packed representation directly.
+ * BigInteger values are only produced at the API edges (get/set).
+ *
+ */
+public abstract class AssignmentStore {
+
+	public static final int NUM_LIMBS = 4;
+
+	// Values are always reduced, so the highest bit of the last limb is never
+	// used by a value (this requires a prime of at most 255 bits). The packed
+	// stores use it to mark a wire as assigned.
+	protected static final long ASSIGNED_FLAG = 0x8000000000000000L;
+
+	protected final int numWires;
+
+	protected AssignmentStore(int numWires) {
+		this.numWires = numWires;
+	}
+
+	public static AssignmentStore create(int numWires) {
+		String type = Config.assignmentStoreType;
+		if (Config.FIELD_PRIME.bitLength() > 64 * NUM_LIMBS - 1 || type.equals("bigint")) {
+			return new BigIntegerAssignmentStore(numWires);
+		} else if (type.equals("offheap")) {
+			return new OffHeapAssignmentStore(numWires);
+		} else if (type.equals("limbs")) {
+			return new LimbAssignmentStore(numWires);
+		} else {
+			throw new IllegalArgumentException("Unknown assignment store type: " + type);
+		}
+	}
+
+	public int size() {
+		return numWires;
+	}
+
+	/**
+	 * Returns true if the values are kept in the packed limb layout, in which
+	 * case FieldArithmetic can be used on them directly.
+	 */
+	public boolean isPacked() {
+		return true;
+	}
+
+	public abstract boolean isAssigned(int wireId);
+
+	/**
+	 * Returns limb i (0 is the least significant) of the value of the wire.
+	 */
+	public abstract long getLimb(int wireId, int i);
+
+	/**
+	 * Sets the value of a wire from its limbs. The value must be already
+	 * reduced modulo the field prime.
+	 */
+	public abstract void setLimbs(int wireId, long l0, long l1, long l2, long l3);
+
+	public BigInteger get(int wireId) {
+		if (!isAssigned(wireId)) {
+			return null;
+		}
+		byte[] bytes = new byte[8 * NUM_LIMBS];
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long limb = getLimb(wireId, i);
+			int offset = bytes.length - 8 * (i + 1);
+			for (int j = 0; j < 8; j++) {
+				bytes[offset + 7 - j] = (byte) (limb >>> (8 * j));
+			}
+		}
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * Sets the value of a wire. The value must be already reduced modulo the
+	 * field prime.
+	 */
+	public void set(int wireId, BigInteger v) {
+		byte[] bytes = v.toByteArray();
+		long[] limbs = new long[NUM_LIMBS];
+		for (int k = 0; k < bytes.length && k < 8 * NUM_LIMBS; k++) {
+			limbs[k / 8] |= (bytes[bytes.length - 1 - k] & 0xffL) << (8 * (k % 8));
+		}
+		setLimbs(wireId, limbs[0], limbs[1], limbs[2], limbs[3]);
+	}
+
+	public void setLong(int wireId, long v) {
+		if (v < 0) {
+			throw new IllegalArgumentException("negative values must be reduced first");
+		}
+		setLimbs(wireId, v, 0, 0, 0);
+	}
+
+	public void copy(int fromWireId, int toWireId) {
+		setLimbs(toWireId, getLimb(fromWireId, 0), getLimb(fromWireId, 1), getLimb(fromWireId, 2),
+				getLimb(fromWireId, 3));
+	}
+
+	public boolean isZero(int wireId) {
+		return (getLimb(wireId, 0) | getLimb(wireId, 1) | getLimb(wireId, 2) | getLimb(wireId, 3)) == 0;
+	}
+
+	public boolean isOne(int wireId) {
+		return getLimb(wireId, 0) == 1 && (getLimb(wireId, 1) | getLimb(wireId, 2) | getLimb(wireId, 3)) == 0;
+	}
+
+	public boolean isBinary(int wireId) {
+		return (getLimb(wireId, 0) & ~1L) == 0 && (getLimb(wireId, 1) | getLimb(wireId, 2) | getLimb(wireId, 3)) == 0;
+	}
+
+	public boolean testBit(int wireId, int i) {
+		if (i >= 64 * NUM_LIMBS) {
+			return false;
+		}
+		return ((getLimb(wireId, i >>> 6) >>> (i & 63)) & 1) != 0;
+	}
+
+	public int bitLength(int wireId) {
+		for (int i = NUM_LIMBS - 1; i >= 0; i--) {
+			long limb = getLimb(wireId, i);
+			if (limb != 0) {
+				return 64 * i + 64 - Long.numberOfLeadingZeros(limb);
+			}
+		}
+		return 0;
+	}
+
+	public boolean valuesEqual(int wireId1, int wireId2) {
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			if (getLimb(wireId1, i) != getLimb(wireId2, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Releases any resources held by the store. The store must not be used
+	 * afterwards.
+	 */
+	public void release() {
+	}
+
+}
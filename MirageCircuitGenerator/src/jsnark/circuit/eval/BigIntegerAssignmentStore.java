@@ -0,0 +1,95 @@
+package jsnark.circuit.eval;
+
+import java.math.BigInteger;
+
+/**
+ * An assignment store that keeps one BigInteger per wire. This is the original
+ * jsnark representation, and is also used when the field prime does not fit in
+ * the packed limb layout.
+ *
+ */
+public class BigIntegerAssignmentStore extends AssignmentStore {
+
+	private BigInteger[] values;
+
+	public BigIntegerAssignmentStore(int numWires) {
+		super(numWires);
+		values = new BigInteger[numWires];
+	}
+
+	@Override
+	public boolean isPacked() {
+		return false;
+	}
+
+	@Override
+	public boolean isAssigned(int wireId) {
+		return values[wireId] != null;
+	}
+
+	@Override
+	public long getLimb(int wireId, int i) {
+		return values[wireId].shiftRight(64 * i).longValue();
+	}
+
+	@Override
+	public void setLimbs(int wireId, long l0, long l1, long l2, long l3) {
+		long[] limbs = new long[] { l0, l1, l2, l3 };
+		BigInteger v = BigInteger.ZERO;
+		for (int i = NUM_LIMBS - 1; i >= 0; i--) {
+			v = v.shiftLeft(64).or(new BigInteger(Long.toUnsignedString(limbs[i])));
+		}
+		values[wireId] = v;
+	}
+
+	@Override
+	public BigInteger get(int wireId) {
+		return values[wireId];
+	}
+
+	@Override
+	public void set(int wireId, BigInteger v) {
+		values[wireId] = v;
+	}
+
+	@Override
+	public void setLong(int wireId, long v) {
+		values[wireId] = BigInteger.valueOf(v);
+	}
+
+	@Override
+	public void copy(int fromWireId, int toWireId) {
+		values[toWireId] = values[fromWireId];
+	}
+
+	@Override
+	public boolean isZero(int wireId) {
+		return values[wireId].signum() == 0;
+	}
+
+	@Override
+	public boolean isOne(int wireId) {
+		return values[wireId].equals(BigInteger.ONE);
+	}
+
+	@Override
+	public boolean isBinary(int wireId) {
+		return values[wireId].signum() == 0 || values[wireId].equals(BigInteger.ONE);
+	}
+
+	@Override
+	public boolean testBit(int wireId, int i) {
+		return values[wireId].testBit(i);
+	}
+
+	@Override
+	public int bitLength(int wireId) {
+		return values[wireId].bitLength();
+	}
+
+	@Override
+	public boolean valuesEqual(int wireId1, int wireId2) {
+		return values[wireId1].equals(values[wireId2]);
+	}
+
+}
@@ -0,0 +1,83 @@
+package jsnark.circuit.eval;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.stream.IntStream;
+
+import jsnark.circuit.config.Config;
+
+/**
+ * Writes wire values in the fixed-width binary input format (.inb) that the
+ * backend's CircuitReader memory-maps. Layout (version 1), all little-endian:
+ *
+ * <pre>
+ * header:   "MRCI" version(u8) 3 zero bytes u64(numValues)
+ * records:  u64(wireId) u64(limb0) u64(limb1) u64(limb2) u64(limb3)
+ * </pre>
+ *
+ * As every record has the same size, the file is written in chunks by
+ * several threads, each one through its own mapping of the file.
+ *
+ */
+public class BinaryInputWriter {
+
+	public static final byte[] MAGIC = { 'M', 'R', 'C', 'I' };
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 8 * (1 + AssignmentStore.NUM_LIMBS);
+
+	// 40MB per mapping
+	private static final int RECORDS_PER_CHUNK = 1 << 20;
+
+	public static void write(String path, AssignmentStore assignment, int[] wireIds) throws IOException {
+		if (Config.FIELD_PRIME.bitLength() > 64 * AssignmentStore.NUM_LIMBS) {
+			throw new IllegalArgumentException("The field prime does not fit in the binary input format");
+		}
+		for (int id : wireIds) {
+			if (!assignment.isAssigned(id)) {
+				throw new RuntimeException("Wire#" + id + " is without value");
+			}
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			file.setLength(HEADER_SIZE + (long) RECORD_SIZE * wireIds.length);
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC);
+			header.put((byte) VERSION);
+			header.put(new byte[3]);
+			header.putLong(wireIds.length);
+
+			int numChunks = (wireIds.length + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK;
+			IntStream.range(0, numChunks).parallel().forEach(c -> writeChunk(channel, assignment, wireIds, c));
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void writeChunk(FileChannel channel, AssignmentStore assignment, int[] wireIds, int chunk) {
+		int from = chunk * RECORDS_PER_CHUNK;
+		int to = Math.min(wireIds.length, from + RECORDS_PER_CHUNK);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+					HEADER_SIZE + (long) RECORD_SIZE * from, (long) RECORD_SIZE * (to - from));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			for (int k = from; k < to; k++) {
+				int id = wireIds[k];
+				buffer.putLong(id);
+				for (int i = 0; i < AssignmentStore.NUM_LIMBS; i++) {
+					buffer.putLong(assignment.getLimb(id, i));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error while writing the binary input file", e);
+		}
+	}
+
+}
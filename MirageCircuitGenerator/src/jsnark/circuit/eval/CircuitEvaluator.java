@@ -4,22 +4,24 @@
 package jsnark.circuit.eval;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 
 import jsnark.circuit.config.Config;
 import jsnark.circuit.structure.CircuitGenerator;
+import jsnark.circuit.structure.LazyLinearCombinationWire;
 import jsnark.circuit.structure.Wire;
 import jsnark.circuit.structure.WireArray;
 
 public class CircuitEvaluator {
 
 	protected CircuitGenerator circuitGenerator;
-	protected BigInteger[] wireValueAssignment;
+	protected AssignmentStore wireValueAssignment;
 
 	public CircuitEvaluator(CircuitGenerator circuitGenerator) {
 		this.circuitGenerator = circuitGenerator;
-		wireValueAssignment = new BigInteger[circuitGenerator.getNumWires()];
-		wireValueAssignment[circuitGenerator.getOneWire().getWireId()] = BigInteger.ONE;
+		wireValueAssignment = AssignmentStore.create(circuitGenerator.getNumWires());
+		wireValueAssignment.setLong(circuitGenerator.getOneWire().getWireId(), 1);
 	}
 
 	public void setWireValue(Wire w, BigInteger v) {
@@ -27,24 +29,28 @@ public class CircuitEvaluator {
 		if (v == null)
 			return;
 		v = v.mod(Config.FIELD_PRIME);
-		if (wireValueAssignment[w.getWireId()] != null) {
-			if (!v.equals(wireValueAssignment[w.getWireId()])) {
-				System.out.println(w.getWireId() + ", " + v + ",," + wireValueAssignment[w.getWireId()]);
+		if (wireValueAssignment.isAssigned(w.getWireId())) {
+			BigInteger current = wireValueAssignment.get(w.getWireId());
+			if (!v.equals(current)) {
+				System.out.println(w.getWireId() + ", " + v + ",," + current);
 				throw new NullPointerException();
 			}
 		} else {
-			wireValueAssignment[w.getWireId()] = v;
+			wireValueAssignment.set(w.getWireId(), v);
 		}
 	}
 
 	public BigInteger getWireValue(Wire w) {
-		BigInteger v = wireValueAssignment[w.getWireId()];
+		if (w instanceof LazyLinearCombinationWire && !((LazyLinearCombinationWire) w).isMaterialized()) {
+			return ((LazyLinearCombinationWire) w).evaluate(this);
+		}
+		BigInteger v = wireValueAssignment.get(w.getWireId());
 		if (v == null) {
 			WireArray bits = w.getBitWiresIfExistAlready();
 			if (bits != null) {
 				BigInteger sum = BigInteger.ZERO;
 				for (int i = 0; i < bits.size(); i++) {
-					sum = sum.add(wireValueAssignment[bits.get(i).getWireId()].shiftLeft(i));
+					sum = sum.add(wireValueAssignment.get(bits.get(i).getWireId()).shiftLeft(i));
 				}
 				v = sum;
 			}
@@ -61,7 +67,47 @@ public class CircuitEvaluator {
 	}
 
 	public void setWireValue(Wire wire, long v) {
-		setWireValue(wire, new BigInteger(v + ""));
+		if (v >= 0 && !wireValueAssignment.isAssigned(wire.getWireId())) {
+			wireValueAssignment.setLong(wire.getWireId(), v);
+		} else {
+			setWireValue(wire, BigInteger.valueOf(v));
+		}
+	}
+
+	/**
+	 * Reads the value of a wire as four reduced limbs. Returns false if the
+	 * wire has no value yet.
+	 */
+	public boolean getWireValue(Wire w, long[] limbs) {
+		int id = w instanceof LazyLinearCombinationWire && !((LazyLinearCombinationWire) w).isMaterialized() ? -1
+				: w.getWireId();
+		if (id >= 0 && wireValueAssignment.isAssigned(id)) {
+			FieldArithmetic.load(wireValueAssignment, id, limbs);
+			return true;
+		}
+		BigInteger v = getWireValue(w);
+		if (v == null) {
+			return false;
+		}
+		FieldArithmetic.forCurrentThread().fromBigInteger(v, limbs);
+		return true;
+	}
+
+	/**
+	 * Sets the value of a wire from four reduced limbs.
+	 */
+	public void setWireValue(Wire w, long[] limbs) {
+		int id = w.getWireId();
+		if (!wireValueAssignment.isAssigned(id)) {
+			FieldArithmetic.store(wireValueAssignment, id, limbs);
+		} else {
+			for (int i = 0; i < AssignmentStore.NUM_LIMBS; i++) {
+				if (wireValueAssignment.getLimb(id, i) != limbs[i]) {
+					setWireValue(w, FieldArithmetic.forCurrentThread().toBigInteger(limbs));
+					return;
+				}
+			}
+		}
 	}
 
 	public void setWireValue(Wire[] wires, BigInteger[] v) {
@@ -73,26 +119,38 @@ public class CircuitEvaluator {
 		}
 	}
 
-	public BigInteger[] getAssignment() {
+	public AssignmentStore getAssignment() {
 		return wireValueAssignment;
 	}
 	
 	public void evaluate() {
 		
 		System.out.println("Running Circuit Evaluator for < " + circuitGenerator.getName() + " >");
+		circuitGenerator.startPhase("evaluateCircuit");
 		LinkedHashMap<Instruction, Instruction> evalSequence = circuitGenerator.getEvaluationQueue();
 
-		for (Instruction e : evalSequence.keySet()) {
-			e.evaluate(this);
+		int numThreads = ParallelEvaluator.getNumThreads();
+		if (numThreads > 1 || Config.printEvaluationLevels) {
+			ParallelEvaluator parallelEvaluator = new ParallelEvaluator(new ArrayList<>(evalSequence.keySet()),
+					wireValueAssignment.size());
+			if (Config.printEvaluationLevels) {
+				parallelEvaluator.printStatistics();
+			}
+			parallelEvaluator.evaluate(this, numThreads);
+		} else {
+			for (Instruction e : evalSequence.keySet()) {
+				e.evaluate(this);
 
-			e.emit(this);
+				e.emit(this);
+			}
 		}
 		// check that each wire has been assigned a value
-		for (int i = 0; i < wireValueAssignment.length; i++) {
-			if (wireValueAssignment[i] == null) {
+		for (int i = 0; i < wireValueAssignment.size(); i++) {
+			if (!wireValueAssignment.isAssigned(i)) {
 				throw new RuntimeException("Wire#" + i + "is without value");
 			}
 		}
+		circuitGenerator.endPhase("evaluateCircuit");
 		System.out.println("Circuit Evaluation Done for < " + circuitGenerator.getName() + " >\n\n");
 
 	}
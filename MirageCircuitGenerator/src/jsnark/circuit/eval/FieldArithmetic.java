@@ -0,0 +1,493 @@
+package jsnark.circuit.eval;
+
+import java.math.BigInteger;
+
+import jsnark.circuit.config.Config;
+
+/**
+ * Fixed-width arithmetic over the configured prime field, using four 64-bit
+ * little-endian limbs per element (the layout of AssignmentStore).
+ *
+ * Multiplications use Montgomery reduction, sums can be accumulated without
+ * reduction in a wide accumulator, and inverses can be computed in batches
+ * with a single exponentiation (batchInvert()). BigInteger is only used for conversions.
+ *
+ * An instance keeps scratch buffers and is not thread-safe. Use
+ * forCurrentThread() to get an instance for the calling thread.
+ *
+ */
+public final class FieldArithmetic {
+
+	public static final int NUM_LIMBS = AssignmentStore.NUM_LIMBS;
+	public static final int ACCUMULATOR_LIMBS = NUM_LIMBS + 1;
+	public static final int NUM_SCRATCH_BUFFERS = 4;
+
+	private static final long MASK32 = 0xffffffffL;
+
+	private static final ThreadLocal<FieldArithmetic> instances = new ThreadLocal<FieldArithmetic>() {
+		@Override
+		protected FieldArithmetic initialValue() {
+			return new FieldArithmetic(Config.FIELD_PRIME);
+		}
+	};
+
+	private final BigInteger prime;
+	private final long[] p;
+	private final long[] r2; // R^2 mod p, with R = 2^256
+	private final long[] rModP; // one in the Montgomery form
+	private final long[] pMinus2;
+	private final long pInv; // -p^(-1) mod 2^64
+
+	private final long[] wide = new long[2 * NUM_LIMBS];
+	private final long[] tmp1 = new long[NUM_LIMBS];
+	private final long[] tmp2 = new long[NUM_LIMBS];
+	private final long[] opA = new long[NUM_LIMBS];
+	private final long[] opB = new long[NUM_LIMBS];
+	private final long[] sum = new long[ACCUMULATOR_LIMBS];
+	private final long[][] scratch = new long[NUM_SCRATCH_BUFFERS][NUM_LIMBS];
+
+	public FieldArithmetic(BigInteger prime) {
+		if (prime.bitLength() > 64 * NUM_LIMBS - 1 || !prime.testBit(0)) {
+			throw new IllegalArgumentException("The prime must be odd and fit in " + (64 * NUM_LIMBS - 1) + " bits");
+		}
+		this.prime = prime;
+		p = toRawLimbs(prime);
+		r2 = toRawLimbs(BigInteger.ONE.shiftLeft(2 * 64 * NUM_LIMBS).mod(prime));
+		rModP = toRawLimbs(BigInteger.ONE.shiftLeft(64 * NUM_LIMBS).mod(prime));
+		pMinus2 = toRawLimbs(prime.subtract(BigInteger.valueOf(2)));
+
+		// Newton iteration for the inverse of p modulo 2^64
+		long x = p[0];
+		for (int i = 0; i < 5; i++) {
+			x *= 2 - p[0] * x;
+		}
+		pInv = -x;
+	}
+
+	public static FieldArithmetic forCurrentThread() {
+		return instances.get();
+	}
+
+	/**
+	 * Returns one of the NUM_SCRATCH_BUFFERS buffers of this instance, which
+	 * callers can use as temporaries instead of allocating. The methods of this
+	 * class do not use them.
+	 */
+	public long[] getScratch(int i) {
+		return scratch[i];
+	}
+
+	/* ---------------------- conversions ---------------------- */
+
+	private static long[] toRawLimbs(BigInteger v) {
+		long[] limbs = new long[NUM_LIMBS];
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			limbs[i] = v.shiftRight(64 * i).longValue();
+		}
+		return limbs;
+	}
+
+	/**
+	 * Reduces v modulo the prime and writes its limbs to out.
+	 */
+	public void fromBigInteger(BigInteger v, long[] out) {
+		if (v.signum() < 0 || v.compareTo(prime) >= 0) {
+			v = v.mod(prime);
+		}
+		if (v.bitLength() < 64) {
+			out[0] = v.longValue();
+			out[1] = out[2] = out[3] = 0;
+			return;
+		}
+		byte[] bytes = v.toByteArray();
+		out[0] = out[1] = out[2] = out[3] = 0;
+		for (int k = 0; k < bytes.length && k < 8 * NUM_LIMBS; k++) {
+			out[k / 8] |= (bytes[bytes.length - 1 - k] & 0xffL) << (8 * (k % 8));
+		}
+	}
+
+	public BigInteger toBigInteger(long[] a) {
+		byte[] bytes = new byte[8 * NUM_LIMBS];
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			int offset = bytes.length - 8 * (i + 1);
+			for (int j = 0; j < 8; j++) {
+				bytes[offset + 7 - j] = (byte) (a[i] >>> (8 * j));
+			}
+		}
+		return new BigInteger(1, bytes);
+	}
+
+	public static void load(AssignmentStore store, int wireId, long[] out) {
+		out[0] = store.getLimb(wireId, 0);
+		out[1] = store.getLimb(wireId, 1);
+		out[2] = store.getLimb(wireId, 2);
+		out[3] = store.getLimb(wireId, 3);
+	}
+
+	public static void store(AssignmentStore store, int wireId, long[] a) {
+		store.setLimbs(wireId, a[0], a[1], a[2], a[3]);
+	}
+
+	public static void setLong(long[] out, long v) {
+		out[0] = v;
+		out[1] = out[2] = out[3] = 0;
+	}
+
+	public static void copy(long[] a, long[] out) {
+		System.arraycopy(a, 0, out, 0, NUM_LIMBS);
+	}
+
+	/* ---------------------- comparisons ---------------------- */
+
+	public static boolean isZero(long[] a) {
+		return (a[0] | a[1] | a[2] | a[3]) == 0;
+	}
+
+	public static boolean equal(long[] a, long[] b) {
+		return a[0] == b[0] && a[1] == b[1] && a[2] == b[2] && a[3] == b[3];
+	}
+
+	private static boolean greaterOrEqual(long[] a, long[] b) {
+		for (int i = NUM_LIMBS - 1; i >= 0; i--) {
+			if (a[i] != b[i]) {
+				return Long.compareUnsigned(a[i], b[i]) > 0;
+			}
+		}
+		return true;
+	}
+
+	/* ---------------------- additive operations ---------------------- */
+
+	// out = a - b over 256 bits, ignoring the final borrow
+	private static void subtractRaw(long[] a, long[] b, long[] out) {
+		long borrow = 0;
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long ai = a[i];
+			long d = ai - b[i] - borrow;
+			borrow = (Long.compareUnsigned(ai, b[i]) < 0 || (borrow == 1 && ai == b[i])) ? 1 : 0;
+			out[i] = d;
+		}
+	}
+
+	private void reduceOnce(long[] a) {
+		if (greaterOrEqual(a, p)) {
+			subtractRaw(a, p, a);
+		}
+	}
+
+	/**
+	 * out = a + b mod p, for reduced a and b. As p has at most 255 bits, the
+	 * sum cannot overflow the four limbs.
+	 */
+	public void add(long[] a, long[] b, long[] out) {
+		long carry = 0;
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long s = a[i] + b[i];
+			long c1 = Long.compareUnsigned(s, a[i]) < 0 ? 1 : 0;
+			long s2 = s + carry;
+			long c2 = Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+			out[i] = s2;
+			carry = c1 | c2;
+		}
+		reduceOnce(out);
+	}
+
+	/**
+	 * out = a - b mod p, for reduced a and b.
+	 */
+	public void sub(long[] a, long[] b, long[] out) {
+		if (greaterOrEqual(a, b)) {
+			subtractRaw(a, b, out);
+		} else {
+			// a - b + p = p - (b - a)
+			subtractRaw(b, a, tmp1);
+			subtractRaw(p, tmp1, out);
+		}
+	}
+
+	public void negate(long[] a, long[] out) {
+		if (isZero(a)) {
+			copy(a, out);
+		} else {
+			subtractRaw(p, a, out);
+		}
+	}
+
+	/**
+	 * Adds a (not necessarily reduced) 256-bit value to a wide accumulator of
+	 * ACCUMULATOR_LIMBS limbs without reducing. Up to 2^64 values can be
+	 * accumulated before calling reduceAccumulator().
+	 */
+	public static void accumulate(long[] acc, long[] a) {
+		long carry = 0;
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long s = acc[i] + a[i];
+			long c1 = Long.compareUnsigned(s, acc[i]) < 0 ? 1 : 0;
+			long s2 = s + carry;
+			long c2 = Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+			acc[i] = s2;
+			carry = c1 | c2;
+		}
+		acc[NUM_LIMBS] += carry;
+	}
+
+	public static void accumulate(AssignmentStore store, long[] acc, int wireId) {
+		long carry = 0;
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long a = store.getLimb(wireId, i);
+			long s = acc[i] + a;
+			long c1 = Long.compareUnsigned(s, acc[i]) < 0 ? 1 : 0;
+			long s2 = s + carry;
+			long c2 = Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+			acc[i] = s2;
+			carry = c1 | c2;
+		}
+		acc[NUM_LIMBS] += carry;
+	}
+
+	public static void clearAccumulator(long[] acc) {
+		for (int i = 0; i < ACCUMULATOR_LIMBS; i++) {
+			acc[i] = 0;
+		}
+	}
+
+	/**
+	 * Reduces the wide accumulator modulo p and writes the result to out.
+	 */
+	public void reduceAccumulator(long[] acc, long[] out) {
+		if (acc[NUM_LIMBS] == 0) {
+			copy(acc, out);
+			// few subtractions are needed for short sums
+			for (int i = 0; i < 4 && greaterOrEqual(out, p); i++) {
+				subtractRaw(out, p, out);
+			}
+			if (!greaterOrEqual(out, p)) {
+				return;
+			}
+		}
+		// The accumulated value T is below p * 2^256, so REDC(T) = T / R, and
+		// a multiplication by R^2 recovers T mod p.
+		for (int i = 0; i < 2 * NUM_LIMBS; i++) {
+			wide[i] = i < ACCUMULATOR_LIMBS ? acc[i] : 0;
+		}
+		redc(wide, tmp2);
+		montMul(tmp2, r2, out);
+	}
+
+	/* ---------------------- multiplicative operations ---------------------- */
+
+	// unsigned high 64 bits of a * b (portable replacement of Math.multiplyHigh)
+	private static long mulHigh(long a, long b) {
+		long aLo = a & MASK32, aHi = a >>> 32;
+		long bLo = b & MASK32, bHi = b >>> 32;
+		long loLo = aLo * bLo;
+		long hiLo = aHi * bLo;
+		long loHi = aLo * bHi;
+		long hiHi = aHi * bHi;
+		long cross = (loLo >>> 32) + (hiLo & MASK32) + loHi;
+		return (hiLo >>> 32) + (cross >>> 32) + hiHi;
+	}
+
+	// t = a * b (eight limbs)
+	private static void mulWide(long[] a, long[] b, long[] t) {
+		for (int i = 0; i < 2 * NUM_LIMBS; i++) {
+			t[i] = 0;
+		}
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long carry = 0;
+			long ai = a[i];
+			for (int j = 0; j < NUM_LIMBS; j++) {
+				long lo = ai * b[j];
+				long hi = mulHigh(ai, b[j]);
+				long s = lo + t[i + j];
+				if (Long.compareUnsigned(s, lo) < 0) {
+					hi++;
+				}
+				long s2 = s + carry;
+				if (Long.compareUnsigned(s2, s) < 0) {
+					hi++;
+				}
+				t[i + j] = s2;
+				carry = hi;
+			}
+			t[i + NUM_LIMBS] = carry;
+		}
+	}
+
+	// Montgomery reduction: out = t / R mod p, for t < p * R. t is modified.
+	private void redc(long[] t, long[] out) {
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			long m = t[i] * pInv;
+			long carry = 0;
+			for (int j = 0; j < NUM_LIMBS; j++) {
+				long lo = m * p[j];
+				long hi = mulHigh(m, p[j]);
+				long s = lo + t[i + j];
+				if (Long.compareUnsigned(s, lo) < 0) {
+					hi++;
+				}
+				long s2 = s + carry;
+				if (Long.compareUnsigned(s2, s) < 0) {
+					hi++;
+				}
+				t[i + j] = s2;
+				carry = hi;
+			}
+			for (int k = i + NUM_LIMBS; carry != 0 && k < 2 * NUM_LIMBS; k++) {
+				long s = t[k] + carry;
+				carry = Long.compareUnsigned(s, carry) < 0 ? 1 : 0;
+				t[k] = s;
+			}
+		}
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			out[i] = t[i + NUM_LIMBS];
+		}
+		reduceOnce(out);
+	}
+
+	/**
+	 * Montgomery product: out = a * b / R mod p.
+	 */
+	public void montMul(long[] a, long[] b, long[] out) {
+		mulWide(a, b, wide);
+		redc(wide, out);
+	}
+
+	public void toMontgomery(long[] a, long[] out) {
+		montMul(a, r2, out);
+	}
+
+	public void fromMontgomery(long[] a, long[] out) {
+		for (int i = 0; i < 2 * NUM_LIMBS; i++) {
+			wide[i] = i < NUM_LIMBS ? a[i] : 0;
+		}
+		redc(wide, out);
+	}
+
+	/**
+	 * out = a * b mod p, for operands in the normal (non-Montgomery) form.
+	 * When one operand is used many times, it is cheaper to convert it once
+	 * using toMontgomery() and call montMul() directly.
+	 */
+	public void mul(long[] a, long[] b, long[] out) {
+		montMul(a, b, tmp2);
+		montMul(tmp2, r2, out);
+	}
+
+	/* ---------------------- inverses ---------------------- */
+
+	/**
+	 * out = a^(-1) mod p, for a non-zero a in the normal form, computed as
+	 * a^(p-2) with Montgomery multiplications.
+	 */
+	public void invert(long[] a, long[] out) {
+		if (isZero(a)) {
+			throw new ArithmeticException("Zero has no inverse");
+		}
+		toMontgomery(a, tmp1);
+		copy(rModP, tmp2);
+		for (int bit = bitLength(pMinus2) - 1; bit >= 0; bit--) {
+			montMul(tmp2, tmp2, tmp2);
+			if (((pMinus2[bit >>> 6] >>> (bit & 63)) & 1) != 0) {
+				montMul(tmp2, tmp1, tmp2);
+			}
+		}
+		fromMontgomery(tmp2, out);
+	}
+
+	/**
+	 * Inverts the non-zero elements of in (normal form) using Montgomery's
+	 * trick: a single call to invert() and 3(n - 1) Montgomery multiplications.
+	 * out can be the same array as in.
+	 */
+	public void batchInvert(long[][] in, long[][] out) {
+		int n = in.length;
+		if (n == 0) {
+			return;
+		}
+		long[][] prefix = new long[n][NUM_LIMBS];
+		copy(in[0], prefix[0]);
+		for (int i = 1; i < n; i++) {
+			montMul(prefix[i - 1], in[i], prefix[i]);
+		}
+		// prefix[i] = (a_0 ... a_i) / R^i, so the inverse of the last prefix
+		// is R^(n-1) / (a_0 ... a_(n-1)), and each Montgomery multiplication
+		// below removes one factor of R.
+		long[] inverse = new long[NUM_LIMBS];
+		invert(prefix[n - 1], inverse);
+		for (int i = n - 1; i > 0; i--) {
+			montMul(inverse, prefix[i - 1], prefix[i]);
+			montMul(inverse, in[i], inverse);
+			copy(prefix[i], out[i]);
+		}
+		copy(inverse, out[0]);
+	}
+
+	/* ---------------------- operations on stored wires ---------------------- */
+
+	public void clearSum() {
+		clearAccumulator(sum);
+	}
+
+	public void addToSum(AssignmentStore store, int wireId) {
+		accumulate(store, sum, wireId);
+	}
+
+	public void storeSum(AssignmentStore store, int outWireId) {
+		reduceAccumulator(sum, opA);
+		store(store, outWireId, opA);
+	}
+
+	public void mul(AssignmentStore store, int wireId1, int wireId2, int outWireId) {
+		load(store, wireId1, opA);
+		load(store, wireId2, opB);
+		mul(opA, opB, opA);
+		store(store, outWireId, opA);
+	}
+
+	/**
+	 * Multiplies a wire by a constant given in the Montgomery form, which costs
+	 * a single Montgomery multiplication.
+	 */
+	public void mulByMontgomeryConstant(AssignmentStore store, int wireId, long[] constMont, int outWireId) {
+		load(store, wireId, opA);
+		montMul(opA, constMont, opA);
+		store(store, outWireId, opA);
+	}
+
+	public boolean productEquals(AssignmentStore store, int wireId1, int wireId2, int resultWireId) {
+		load(store, wireId1, opA);
+		load(store, wireId2, opB);
+		mul(opA, opB, opA);
+		for (int i = 0; i < NUM_LIMBS; i++) {
+			if (opA[i] != store.getLimb(resultWireId, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the bits [from, from + length) of a to out.
+	 */
+	public static void extractBits(long[] a, int from, int length, long[] out) {
+		long[] result = new long[NUM_LIMBS];
+		for (int i = 0; i < length && from + i < 64 * NUM_LIMBS; i++) {
+			int bit = from + i;
+			if (((a[bit >>> 6] >>> (bit & 63)) & 1) != 0) {
+				result[i >>> 6] |= 1L << (i & 63);
+			}
+		}
+		copy(result, out);
+	}
+
+	public static int bitLength(long[] a) {
+		for (int i = NUM_LIMBS - 1; i >= 0; i--) {
+			if (a[i] != 0) {
+				return 64 * i + 64 - Long.numberOfLeadingZeros(a[i]);
+			}
+		}
+		return 0;
+	}
+
+}
@@ -3,6 +3,7 @@
  *******************************************************************************/
 package jsnark.circuit.eval;
 
+
 public interface Instruction {
 
 	public void evaluate(CircuitEvaluator evaluator);
@@ -13,6 +14,12 @@ public interface Instruction {
 	public default boolean doneWithinCircuit() {
 		return false;
 	}
+
+	// appends the line of the instruction in the circuit file, so that the file
+	// is written without building a string per line
+	public default void writeTo(StringBuilder out) {
+		out.append(toString());
+	}
 	
 	// added for MIRAGE
 	public default int getOperationCounter(){
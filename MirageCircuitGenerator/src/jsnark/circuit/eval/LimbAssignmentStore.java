@@ -0,0 +1,45 @@
+package jsnark.circuit.eval;
+
+/**
+ * An assignment store that packs the limbs of all wire values into a single
+ * long[] (four consecutive longs per wire), so that no object is allocated per
+ * wire.
+ *
+ */
+public class LimbAssignmentStore extends AssignmentStore {
+
+	private final long[] limbs;
+
+	public LimbAssignmentStore(int numWires) {
+		super(numWires);
+		limbs = new long[NUM_LIMBS * numWires];
+	}
+
+	@Override
+	public boolean isAssigned(int wireId) {
+		return limbs[NUM_LIMBS * wireId + NUM_LIMBS - 1] != 0;
+	}
+
+	@Override
+	public long getLimb(int wireId, int i) {
+		if (i == NUM_LIMBS - 1) {
+			return limbs[NUM_LIMBS * wireId + i] & ~ASSIGNED_FLAG;
+		}
+		return limbs[NUM_LIMBS * wireId + i];
+	}
+
+	@Override
+	public void setLimbs(int wireId, long l0, long l1, long l2, long l3) {
+		int offset = NUM_LIMBS * wireId;
+		limbs[offset] = l0;
+		limbs[offset + 1] = l1;
+		limbs[offset + 2] = l2;
+		limbs[offset + 3] = l3 | ASSIGNED_FLAG;
+	}
+
+	@Override
+	public void copy(int fromWireId, int toWireId) {
+		System.arraycopy(limbs, NUM_LIMBS * fromWireId, limbs, NUM_LIMBS * toWireId, NUM_LIMBS);
+	}
+
+}
@@ -0,0 +1,68 @@
+package jsnark.circuit.eval;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An assignment store that keeps the wire values outside the Java heap, in
+ * direct byte buffers (32 bytes per wire). The values are split over several
+ * buffers, as a single buffer cannot exceed 2GB.
+ *
+ */
+public class OffHeapAssignmentStore extends AssignmentStore {
+
+	private static final int WIRES_PER_CHUNK_LOG = 24;
+	private static final int WIRES_PER_CHUNK = 1 << WIRES_PER_CHUNK_LOG;
+	private static final int BYTES_PER_WIRE = 8 * NUM_LIMBS;
+
+	private ByteBuffer[] chunks;
+
+	public OffHeapAssignmentStore(int numWires) {
+		super(numWires);
+		int numChunks = (numWires + WIRES_PER_CHUNK - 1) / WIRES_PER_CHUNK;
+		chunks = new ByteBuffer[numChunks];
+		for (int i = 0; i < numChunks; i++) {
+			int wiresInChunk = Math.min(WIRES_PER_CHUNK, numWires - i * WIRES_PER_CHUNK);
+			chunks[i] = ByteBuffer.allocateDirect(wiresInChunk * BYTES_PER_WIRE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private ByteBuffer chunk(int wireId) {
+		return chunks[wireId >>> WIRES_PER_CHUNK_LOG];
+	}
+
+	private static int offset(int wireId, int i) {
+		return (wireId & (WIRES_PER_CHUNK - 1)) * BYTES_PER_WIRE + 8 * i;
+	}
+
+	@Override
+	public boolean isAssigned(int wireId) {
+		return chunk(wireId).getLong(offset(wireId, NUM_LIMBS - 1)) != 0;
+	}
+
+	@Override
+	public long getLimb(int wireId, int i) {
+		long limb = chunk(wireId).getLong(offset(wireId, i));
+		if (i == NUM_LIMBS - 1) {
+			return limb & ~ASSIGNED_FLAG;
+		}
+		return limb;
+	}
+
+	@Override
+	public void setLimbs(int wireId, long l0, long l1, long l2, long l3) {
+		ByteBuffer buffer = chunk(wireId);
+		int offset = offset(wireId, 0);
+		buffer.putLong(offset, l0);
+		buffer.putLong(offset + 8, l1);
+		buffer.putLong(offset + 16, l2);
+		buffer.putLong(offset + 24, l3 | ASSIGNED_FLAG);
+	}
+
+	@Override
+	public void release() {
+		// the direct buffers are freed once they become unreachable
+		chunks = null;
+	}
+
+}
@@ -0,0 +1,214 @@
+package jsnark.circuit.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import jsnark.circuit.config.Config;
+import jsnark.circuit.operations.WireLabelInstruction;
+import jsnark.circuit.operations.primitive.BasicOp;
+import jsnark.circuit.structure.Wire;
+
+/**
+ * Evaluates a sequence of instructions on several threads, with the same
+ * result as evaluating them one after the other.
+ *
+ * The primitive operations are grouped into levels, where an operation is
+ * placed one level after the operations that assign its input (and output)
+ * wires, so the operations of one level are independent and are evaluated in
+ * parallel. Any other instruction, e.g. a witness computation, may read or
+ * assign any wire, so it gets a level of its own after all the operations
+ * before it, and the operations after it start after its level. Labels do
+ * not assign values, so they are only emitted at the end, in their order.
+ *
+ * The levels are computed when the evaluator is created, and their widths
+ * show how much parallelism a circuit offers (see printStatistics()).
+ *
+ */
+public class ParallelEvaluator {
+
+	// smaller levels are evaluated by the calling thread
+	private static final int MIN_TASK_SIZE = 1024;
+
+	private final Instruction[] ordered; // the instructions ordered by level
+	private final int[] levelStart; // level l is ordered[levelStart[l]..levelStart[l + 1])
+	private final ArrayList<Instruction> labels = new ArrayList<>();
+	private int numBarriers;
+
+	public ParallelEvaluator(List<Instruction> instructions, int numWires) {
+		int n = instructions.size();
+		int[] levels = new int[n];
+		int numLevels = computeLevels(numWires, instructions, levels);
+
+		// order the instructions by level, keeping their order within a level
+		levelStart = new int[numLevels + 1];
+		for (int i = 0; i < n; i++) {
+			if (levels[i] >= 0) {
+				levelStart[levels[i] + 1]++;
+			}
+		}
+		for (int l = 0; l < numLevels; l++) {
+			levelStart[l + 1] += levelStart[l];
+		}
+		ordered = new Instruction[levelStart[numLevels]];
+		int[] next = Arrays.copyOf(levelStart, numLevels);
+		for (int i = 0; i < n; i++) {
+			if (levels[i] >= 0) {
+				ordered[next[levels[i]]++] = instructions.get(i);
+			} else {
+				labels.add(instructions.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of threads set by EVALUATION_THREADS in the config
+	 * file, where 0 means all the available processors.
+	 */
+	public static int getNumThreads() {
+		return Config.evaluationThreads > 0 ? Config.evaluationThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	public void evaluate(CircuitEvaluator evaluator, int numThreads) {
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (int l = 0; l < getNumLevels(); l++) {
+				int from = levelStart[l];
+				int to = levelStart[l + 1];
+				if (to - from < MIN_TASK_SIZE) {
+					evaluate(evaluator, ordered, from, to);
+				} else {
+					pool.invoke(new LevelTask(evaluator, ordered, from, to));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		for (Instruction e : labels) {
+			e.evaluate(evaluator);
+			e.emit(evaluator);
+		}
+	}
+
+	public int getNumLevels() {
+		return levelStart.length - 1;
+	}
+
+	/**
+	 * Returns the number of instructions in each level.
+	 */
+	public int[] getLevelWidths() {
+		int[] widths = new int[getNumLevels()];
+		for (int l = 0; l < widths.length; l++) {
+			widths[l] = levelStart[l + 1] - levelStart[l];
+		}
+		return widths;
+	}
+
+	/**
+	 * Returns the number of instructions, other than primitive operations and
+	 * labels, that were evaluated alone in their levels.
+	 */
+	public int getNumBarriers() {
+		return numBarriers;
+	}
+
+	public void printStatistics() {
+		int[] widths = getLevelWidths();
+		int maxWidth = 0;
+		long parallel = 0;
+		// histogram of the widths by powers of two
+		int[] histogram = new int[32];
+		for (int w : widths) {
+			maxWidth = Math.max(maxWidth, w);
+			if (w >= MIN_TASK_SIZE) {
+				parallel += w;
+			}
+			histogram[31 - Integer.numberOfLeadingZeros(w)]++;
+		}
+		System.out.println("Evaluation levels: " + widths.length + " levels for " + ordered.length + " instructions ("
+				+ numBarriers + " barriers, " + labels.size() + " labels)");
+		System.out.println("\tMax level width = " + maxWidth + ", Average level width = "
+				+ (widths.length == 0 ? 0 : ordered.length / widths.length));
+		System.out.println("\tInstructions in levels of at least " + MIN_TASK_SIZE + " (evaluated in parallel) = "
+				+ parallel + (ordered.length == 0 ? "" : " (" + parallel * 100 / ordered.length + "%)"));
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] != 0) {
+				System.out.println("\tLevels of width [" + (1L << i) + ", " + (1L << (i + 1)) + ") :: " + histogram[i]);
+			}
+		}
+	}
+
+	private int computeLevels(int numWires, List<Instruction> instructions, int[] levels) {
+		// the level of the last operation that assigned each wire, or -1
+		int[] wireLevels = new int[numWires];
+		Arrays.fill(wireLevels, -1);
+		int firstLevel = 0;
+		int numLevels = 0;
+		for (int i = 0; i < levels.length; i++) {
+			Instruction e = instructions.get(i);
+			int level;
+			if (e instanceof WireLabelInstruction) {
+				level = -1;
+			} else if (e instanceof BasicOp) {
+				level = firstLevel;
+				for (Wire w : ((BasicOp) e).getInputs()) {
+					level = Math.max(level, wireLevels[w.getWireId()] + 1);
+				}
+				Wire[] outputs = ((BasicOp) e).getOutputs();
+				for (Wire w : outputs) {
+					level = Math.max(level, wireLevels[w.getWireId()] + 1);
+				}
+				for (Wire w : outputs) {
+					wireLevels[w.getWireId()] = level;
+				}
+				numLevels = Math.max(numLevels, level + 1);
+			} else {
+				level = numLevels;
+				firstLevel = numLevels = level + 1;
+				numBarriers++;
+			}
+			levels[i] = level;
+		}
+		return numLevels;
+	}
+
+	private static void evaluate(CircuitEvaluator evaluator, Instruction[] instructions, int from, int to) {
+		for (int i = from; i < to; i++) {
+			instructions[i].evaluate(evaluator);
+			instructions[i].emit(evaluator);
+		}
+	}
+
+	private static class LevelTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CircuitEvaluator evaluator;
+		private final Instruction[] instructions;
+		private final int from;
+		private final int to;
+
+		LevelTask(CircuitEvaluator evaluator, Instruction[] instructions, int from, int to) {
+			this.evaluator = evaluator;
+			this.instructions = instructions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= MIN_TASK_SIZE) {
+				evaluate(evaluator, instructions, from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new LevelTask(evaluator, instructions, from, mid),
+						new LevelTask(evaluator, instructions, mid, to));
+			}
+		}
+	}
+
+}
@@ -3,6 +3,7 @@
  *******************************************************************************/
 package jsnark.circuit.operations;
 
+
 import jsnark.circuit.structure.CircuitGenerator;
 import jsnark.circuit.structure.Wire;
 
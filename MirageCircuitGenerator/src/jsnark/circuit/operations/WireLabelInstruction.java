@@ -36,6 +36,14 @@ public class WireLabelInstruction implements Instruction {
 		return type + " " + w + (desc.length() == 0 ? "" : "\t\t\t # " + desc);
 	}
 
+	@Override
+	public void writeTo(StringBuilder out) {
+		out.append(type.name()).append(' ').append(w.getWireId());
+		if (desc.length() > 0) {
+			out.append("\t\t\t # ").append(desc);
+		}
+	}
+
 	public void evaluate(CircuitEvaluator evaluator) {
 		// nothing to do.
 	}
@@ -52,6 +60,10 @@ public class WireLabelInstruction implements Instruction {
 		return type;
 	}
 
+	public String getDesc() {
+		return desc;
+	}
+
 	public boolean doneWithinCircuit() {
 		return type != LabelType.debug;
 	}
@@ -6,6 +6,8 @@ package jsnark.circuit.operations.primitive;
 import java.math.BigInteger;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
+import jsnark.circuit.eval.FieldArithmetic;
 import jsnark.circuit.structure.Wire;
 
 public class AddBasicOp extends BasicOp {
@@ -19,12 +21,21 @@ public class AddBasicOp extends BasicOp {
 	}
 	
 	@Override
-	public void compute(BigInteger[] assignment) {
+	public void compute(AssignmentStore assignment) {
+		if (assignment.isPacked()) {
+			FieldArithmetic field = FieldArithmetic.forCurrentThread();
+			field.clearSum();
+			for (Wire w : inputs) {
+				field.addToSum(assignment, w.getWireId());
+			}
+			field.storeSum(assignment, outputs[0].getWireId());
+			return;
+		}
 		BigInteger s = BigInteger.ZERO;
 		for (Wire w : inputs) {
-			s = s.add(assignment[w.getWireId()]);
+			s = s.add(assignment.get(w.getWireId()));
 		}
-		assignment[outputs[0].getWireId()] = s.mod(Config.FIELD_PRIME);
+		assignment.set(outputs[0].getWireId(), s.mod(Config.FIELD_PRIME));
 	}
 	
 	@Override
@@ -47,14 +58,15 @@ public class AddBasicOp extends BasicOp {
 					&& inputs[0].equals(op.inputs[1]);
 			return check1 || check2;
 		} else {
-			boolean check = true;
-			for(int i = 0; i < inputs.length; i++){
-				check = check && inputs[i].equals(op.inputs[i]);
-			}
-			return check;
+			return op.getStructuralHash() == getStructuralHash() && hasSameInputsInAnyOrder(op);
 		}
 	}
 
+	@Override
+	protected boolean isCommutative() {
+		return true;
+	}
+
 	@Override
 	public int getNumMulGates() {
 		return 0;
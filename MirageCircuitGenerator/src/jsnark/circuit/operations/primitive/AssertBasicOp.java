@@ -6,6 +6,8 @@ package jsnark.circuit.operations.primitive;
 import java.math.BigInteger;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
+import jsnark.circuit.eval.FieldArithmetic;
 import jsnark.circuit.structure.Wire;
 
 public class AssertBasicOp extends BasicOp {
@@ -15,23 +17,29 @@ public class AssertBasicOp extends BasicOp {
 	}
 	
 	@Override
-	protected void compute(BigInteger[] assignment) {
-		BigInteger leftSide = assignment[inputs[0].getWireId()].multiply(
-				assignment[inputs[1].getWireId()]).mod(
-						Config.FIELD_PRIME);
-		BigInteger rightSide = assignment[outputs[0].getWireId()];
-		boolean check = leftSide.equals(rightSide);
+	protected void compute(AssignmentStore assignment) {
+		boolean check;
+		if (assignment.isPacked()) {
+			check = FieldArithmetic.forCurrentThread().productEquals(assignment, inputs[0].getWireId(),
+					inputs[1].getWireId(), outputs[0].getWireId());
+		} else {
+			BigInteger leftSide = assignment.get(inputs[0].getWireId()).multiply(
+					assignment.get(inputs[1].getWireId())).mod(
+							Config.FIELD_PRIME);
+			BigInteger rightSide = assignment.get(outputs[0].getWireId());
+			check = leftSide.equals(rightSide);
+		}
 		if (!check) {
 			System.err.println("Error - Assertion Failed " + this);
-			System.out.println(assignment[inputs[0].getWireId()] + "*"
-					+ assignment[inputs[1].getWireId()] + "!="
-					+ assignment[outputs[0].getWireId()]);
+			System.out.println(assignment.get(inputs[0].getWireId()) + "*"
+					+ assignment.get(inputs[1].getWireId()) + "!="
+					+ assignment.get(outputs[0].getWireId()));
 			throw new RuntimeException("Error During Evaluation");
 		}
 	}
 
 	@Override
-	protected void checkOutputs(BigInteger[] assignment) {
+	protected void checkOutputs(AssignmentStore assignment) {
 		// do nothing
 	}
 	
@@ -62,4 +70,14 @@ public class AssertBasicOp extends BasicOp {
 		return 1;
 	}
 
+	@Override
+	protected boolean isCommutative() {
+		return true;
+	}
+
+	@Override
+	protected long getHashSeed() {
+		return outputs[0].getWireId();
+	}
+
 }
\ No newline at end of file
@@ -3,18 +3,20 @@
  *******************************************************************************/
 package jsnark.circuit.operations.primitive;
 
-import java.math.BigInteger;
+import java.util.Arrays;
 
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.eval.CircuitEvaluator;
 import jsnark.circuit.eval.Instruction;
 import jsnark.circuit.structure.Wire;
-import jsnark.util.Util;
 
 public abstract class BasicOp implements Instruction {
 
 	protected Wire[] inputs;
 	protected Wire[] outputs;
 	protected String desc;
+	// computed on first use, 0 if not computed yet (see getStructuralHash())
+	private long structuralHash;
 
 	public BasicOp(Wire[] inputs, Wire[] outputs, String... desc) {
 		this.inputs = inputs;
@@ -49,27 +51,27 @@ public abstract class BasicOp implements Instruction {
 	}
 
 	public void evaluate(CircuitEvaluator evaluator) {
-		BigInteger[] assignment = evaluator.getAssignment();
+		AssignmentStore assignment = evaluator.getAssignment();
 		checkInputs(assignment);
 		checkOutputs(assignment);
 		compute(assignment);
 	}
 
-	protected void checkInputs(BigInteger[] assignment) {
+	protected void checkInputs(AssignmentStore assignment) {
 		for (Wire w : inputs) {
-			if (assignment[w.getWireId()] == null) {
+			if (!assignment.isAssigned(w.getWireId())) {
 				System.err.println("Error - The inWire " + w + " has not been assigned\n" + this);
 				throw new RuntimeException("Error During Evaluation");
 			}
 		}
 	}
 
-	protected abstract void compute(BigInteger[] assignment);
+	protected abstract void compute(AssignmentStore assignment);
 
-	protected void checkOutputs(BigInteger[] assignment) {
+	protected void checkOutputs(AssignmentStore assignment) {
 		for (Wire w : outputs) {
-			if (assignment[w.getWireId()] != null) {
-				if(w.getWireId() == 1 && assignment[w.getWireId()].equals(BigInteger.ZERO)) {
+			if (assignment.isAssigned(w.getWireId())) {
+				if(w.getWireId() == 1 && assignment.isZero(w.getWireId())) {
 					// ignore -- this is a special case in the Mirage universal circuit. TODO:  handle this in a better way.
 				}
 				else {
@@ -84,8 +86,35 @@ public abstract class BasicOp implements Instruction {
 	public abstract int getNumMulGates();
 	
 	public String toString() {
-		return getOpcode() + " in " + inputs.length + " <" + Util.arrayToString(inputs, " ") + "> out " + outputs.length
-				+ " <" + Util.arrayToString(outputs, " ") + ">" + (desc.length() > 0 ? (" \t\t# " + desc) : "");
+		StringBuilder s = new StringBuilder();
+		writeTo(s);
+		return s.toString();
+	}
+
+	@Override
+	public void writeTo(StringBuilder out) {
+		writeOpcodeTo(out);
+		out.append(" in ").append(inputs.length).append(" <");
+		writeWireIds(out, inputs);
+		out.append("> out ").append(outputs.length).append(" <");
+		writeWireIds(out, outputs);
+		out.append('>');
+		if (desc.length() > 0) {
+			out.append(" \t\t# ").append(desc);
+		}
+	}
+
+	protected void writeOpcodeTo(StringBuilder out) {
+		out.append(getOpcode());
+	}
+
+	private static void writeWireIds(StringBuilder out, Wire[] wires) {
+		for (int i = 0; i < wires.length; i++) {
+			if (i > 0) {
+				out.append(' ');
+			}
+			out.append(wires[i].getWireId());
+		}
 	}
 
 	public Wire[] getInputs() {
@@ -96,18 +125,96 @@ public abstract class BasicOp implements Instruction {
 		return outputs;
 	}
 
+	public String getDesc() {
+		return desc;
+	}
+
 	public boolean doneWithinCircuit() {
 		return true;
 	}
 	
-	@Override
-	public int hashCode() {
+	/**
+	 * Returns true if the order of the inputs does not matter, i.e. equals()
+	 * also accepts an operation with the same inputs in another order.
+	 */
+	protected boolean isCommutative() {
+		return false;
+	}
+
+	/**
+	 * Returns a hash of what equals() compares besides the class and the
+	 * inputs, e.g. a constant.
+	 */
+	protected long getHashSeed() {
+		return 0;
+	}
 
-		int h = getOpcode().hashCode();
-		for(Wire in:inputs){
-			h+=in.hashCode();
+	/**
+	 * Returns a 64-bit hash of the class, the inputs (sorted if the operation
+	 * is commutative) and the hash seed, so that equal operations have equal
+	 * hashes, and collisions between operations with many inputs are rare.
+	 */
+	public final long getStructuralHash() {
+		long h = structuralHash;
+		if (h != 0) {
+			return h;
 		}
-		return h;
+		h = mix(getClass().getName().hashCode() ^ getHashSeed() * 0x9E3779B97F4A7C15L);
+		if (inputs.length == 2 && isCommutative()) {
+			int id1 = inputs[0].getWireId();
+			int id2 = inputs[1].getWireId();
+			h = mix(mix(h + Math.min(id1, id2)) + Math.max(id1, id2));
+		} else {
+			int[] ids = new int[inputs.length];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = inputs[i].getWireId();
+			}
+			if (isCommutative()) {
+				Arrays.sort(ids);
+			}
+			for (int id : ids) {
+				h = mix(h + id);
+			}
+		}
+		h = mix(h + inputs.length);
+		structuralHash = h == 0 ? 1 : h;
+		return structuralHash;
+	}
+
+	// the finalizer of SplitMix64
+	private static long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * Returns true if the given operation has the same inputs in some order.
+	 */
+	protected boolean hasSameInputsInAnyOrder(BasicOp op) {
+		if (op.inputs.length != inputs.length) {
+			return false;
+		}
+		int[] ids1 = new int[inputs.length];
+		int[] ids2 = new int[inputs.length];
+		for (int i = 0; i < ids1.length; i++) {
+			ids1[i] = inputs[i].getWireId();
+			ids2[i] = op.inputs[i].getWireId();
+		}
+		Arrays.sort(ids1);
+		Arrays.sort(ids2);
+		return Arrays.equals(ids1, ids2);
+	}
+
+	/**
+	 * Returns the structural hash folded to 32 bits. All its bits depend on
+	 * every input, so that e.g. the many constant multiplications of the
+	 * one-wire do not collide in the hash tables of the evaluation queue.
+	 */
+	@Override
+	public int hashCode() {
+		long h = getStructuralHash();
+		return (int) (h ^ (h >>> 32));
 	}
 	
 	
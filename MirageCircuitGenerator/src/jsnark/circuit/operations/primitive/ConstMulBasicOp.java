@@ -6,12 +6,20 @@ package jsnark.circuit.operations.primitive;
 import java.math.BigInteger;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
+import jsnark.circuit.eval.FieldArithmetic;
 import jsnark.circuit.structure.Wire;
+import jsnark.util.BigIntStorage;
 
 public class ConstMulBasicOp extends BasicOp {
 
 	private BigInteger constInteger;
+	// the constant as it appears in the opcode
+	private BigInteger constMagnitude;
 	private boolean inSign;
+	// the constant in the Montgomery form, computed on first use (volatile, as
+	// operations can be evaluated by several threads)
+	private volatile long[] constMont;
 	
 	public ConstMulBasicOp(Wire w, Wire out, BigInteger constInteger,
 			String...desc) {
@@ -20,28 +28,65 @@ public class ConstMulBasicOp extends BasicOp {
 		if (!inSign) {
 			constInteger = constInteger.mod(Config.FIELD_PRIME);
 			this.constInteger =constInteger;
+			this.constMagnitude = constInteger;
 		} else {
 			constInteger = constInteger.negate();
 			constInteger = constInteger.mod(Config.FIELD_PRIME);
 			this.constInteger = Config.FIELD_PRIME.subtract(constInteger);
+			this.constMagnitude = constInteger;
 		}
 	}
 
+	/**
+	 * Same as above, with the constant of another operation, which is shared
+	 * instead of being reduced again, e.g. when a compiled circuit is loaded.
+	 */
+	public ConstMulBasicOp(Wire w, Wire out, ConstMulBasicOp sameConstant, String... desc) {
+		super(new Wire[] { w }, new Wire[] { out }, desc);
+		inSign = sameConstant.inSign;
+		constInteger = sameConstant.constInteger;
+		constMagnitude = sameConstant.constMagnitude;
+	}
+
 	public String getOpcode(){
-		if (!inSign) {
-			return "const-mul-" + constInteger.toString(16);
-		} else{
-			return "const-mul-neg-" + Config.FIELD_PRIME.subtract(constInteger).toString(16);
-		}
+		return (inSign ? "const-mul-neg-" : "const-mul-") + BigIntStorage.getInstance().getHexString(constMagnitude);
+	}
+
+	@Override
+	protected void writeOpcodeTo(StringBuilder out) {
+		out.append(inSign ? "const-mul-neg-" : "const-mul-").append(BigIntStorage.getInstance().getHexString(constMagnitude));
 	}
 	
+	public boolean isNegative() {
+		return inSign;
+	}
+
+	/**
+	 * Returns the constant as it appears in the opcode, i.e. its absolute value
+	 * for the const-mul-neg case.
+	 */
+	public BigInteger getConstantMagnitude() {
+		return constMagnitude;
+	}
+
 	@Override
-	public void compute(BigInteger[] assignment) {
-		BigInteger result = assignment[inputs[0].getWireId()].multiply(constInteger);
+	public void compute(AssignmentStore assignment) {
+		if (assignment.isPacked()) {
+			FieldArithmetic field = FieldArithmetic.forCurrentThread();
+			if (constMont == null) {
+				long[] c = new long[FieldArithmetic.NUM_LIMBS];
+				field.fromBigInteger(constInteger, c);
+				field.toMontgomery(c, c);
+				constMont = c;
+			}
+			field.mulByMontgomeryConstant(assignment, inputs[0].getWireId(), constMont, outputs[0].getWireId());
+			return;
+		}
+		BigInteger result = assignment.get(inputs[0].getWireId()).multiply(constInteger);
 		if (result.bitLength() >= Config.LOG2_FIELD_PRIME) {
 			result = result.mod(Config.FIELD_PRIME);
 		}
-		assignment[outputs[0].getWireId()] = result;
+		assignment.set(outputs[0].getWireId(), result);
 	}
 	
 	@Override
@@ -55,6 +100,11 @@ public class ConstMulBasicOp extends BasicOp {
 		return inputs[0].equals(op.inputs[0]) && constInteger.equals(op.constInteger);
 
 	}
+
+	@Override
+	protected long getHashSeed() {
+		return constInteger.hashCode();
+	}
 	
 	@Override
 	public int getNumMulGates() {
@@ -6,6 +6,8 @@ package jsnark.circuit.operations.primitive;
 import java.math.BigInteger;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
+import jsnark.circuit.eval.FieldArithmetic;
 import jsnark.circuit.structure.Wire;
 
 public class MulBasicOp extends BasicOp {
@@ -19,13 +21,18 @@ public class MulBasicOp extends BasicOp {
 	}
 	
 	@Override
-	public void compute(BigInteger[] assignment) {
-		BigInteger result = assignment[inputs[0].getWireId()]
-				.multiply(assignment[inputs[1].getWireId()]);
-		if (result.compareTo(Config.FIELD_PRIME) > 0) {
+	public void compute(AssignmentStore assignment) {
+		if (assignment.isPacked()) {
+			FieldArithmetic.forCurrentThread().mul(assignment, inputs[0].getWireId(), inputs[1].getWireId(),
+					outputs[0].getWireId());
+			return;
+		}
+		BigInteger result = assignment.get(inputs[0].getWireId())
+				.multiply(assignment.get(inputs[1].getWireId()));
+		if (result.compareTo(Config.FIELD_PRIME) >= 0) {
 			result = result.mod(Config.FIELD_PRIME);
 		}
-		assignment[outputs[0].getWireId()] = result;
+		assignment.set(outputs[0].getWireId(), result);
 	}
 
 	@Override
@@ -51,5 +58,9 @@ public class MulBasicOp extends BasicOp {
 		return 1;
 	}
 
+	@Override
+	protected boolean isCommutative() {
+		return true;
+	}
 
 }
\ No newline at end of file
@@ -3,8 +3,7 @@
  *******************************************************************************/
 package jsnark.circuit.operations.primitive;
 
-import java.math.BigInteger;
-
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.structure.Wire;
 
 public class NonZeroCheckBasicOp extends BasicOp {
@@ -17,14 +16,14 @@ public class NonZeroCheckBasicOp extends BasicOp {
 		return "zerop";
 	}
 	@Override
-	public void compute(BigInteger[] assignment) {
+	public void compute(AssignmentStore assignment) {
 
-		if (assignment[inputs[0].getWireId()].signum() == 0) {
-			assignment[outputs[1].getWireId()] = BigInteger.ZERO;
+		if (assignment.isZero(inputs[0].getWireId())) {
+			assignment.setLong(outputs[1].getWireId(), 0);
 		} else {
-			assignment[outputs[1].getWireId()] = BigInteger.ONE;
+			assignment.setLong(outputs[1].getWireId(), 1);
 		}
-		assignment[outputs[0].getWireId()] = BigInteger.ZERO; // a dummy value
+		assignment.setLong(outputs[0].getWireId(), 0); // a dummy value
 	}
 	
 	@Override
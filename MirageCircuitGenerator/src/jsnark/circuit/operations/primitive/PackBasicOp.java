@@ -6,8 +6,8 @@ package jsnark.circuit.operations.primitive;
 import java.math.BigInteger;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.structure.Wire;
-import jsnark.util.Util;
 
 public class PackBasicOp extends BasicOp {
 
@@ -20,11 +20,11 @@ public class PackBasicOp extends BasicOp {
 	}
 	
 	@Override
-	public void checkInputs(BigInteger[] assignment) {
+	public void checkInputs(AssignmentStore assignment) {
 		super.checkInputs(assignment);
 		boolean check = true;
 		for (int i = 0; i < inputs.length; i++) {
-			check &= Util.isBinary(assignment[inputs[i].getWireId()]);
+			check &= assignment.isBinary(inputs[i].getWireId());
 		}
 		if (!check) {
 			System.err.println("Error - Input(s) to Pack are not binary. "
@@ -35,13 +35,24 @@ public class PackBasicOp extends BasicOp {
 	}
 
 	@Override
-	public void compute(BigInteger[] assignment) {
-		BigInteger sum = BigInteger.ZERO;
-		for (int i = 0; i < inputs.length; i++) {
-			sum = sum.add(assignment[inputs[i].getWireId()]
-					.multiply(new BigInteger("2").pow(i)));
+	public void compute(AssignmentStore assignment) {
+		if (inputs.length < Config.LOG2_FIELD_PRIME) {
+			// the packed value is below the field prime, so the bits can be
+			// placed in the limbs directly
+			long[] limbs = new long[AssignmentStore.NUM_LIMBS];
+			for (int i = 0; i < inputs.length; i++) {
+				if (assignment.isOne(inputs[i].getWireId())) {
+					limbs[i >>> 6] |= 1L << (i & 63);
+				}
+			}
+			assignment.setLimbs(outputs[0].getWireId(), limbs[0], limbs[1], limbs[2], limbs[3]);
+		} else {
+			BigInteger sum = BigInteger.ZERO;
+			for (int i = 0; i < inputs.length; i++) {
+				sum = sum.add(assignment.get(inputs[i].getWireId()).shiftLeft(i));
+			}
+			assignment.set(outputs[0].getWireId(), sum.mod(Config.FIELD_PRIME));
 		}
-		assignment[outputs[0].getWireId()] = sum.mod(Config.FIELD_PRIME);
 	}
 
 	@Override
@@ -3,9 +3,7 @@
  *******************************************************************************/
 package jsnark.circuit.operations.primitive;
 
-import java.math.BigInteger;
-
-import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.structure.Wire;
 
 public class SplitBasicOp extends BasicOp {
@@ -18,27 +16,23 @@ public class SplitBasicOp extends BasicOp {
 		return "split";
 	}
 	
-	protected void checkInputs(BigInteger[] assignment) {
+	protected void checkInputs(AssignmentStore assignment) {
 		super.checkInputs(assignment);
-		if (outputs.length < assignment[inputs[0].getWireId()].bitLength()) {
+		if (outputs.length < assignment.bitLength(inputs[0].getWireId())) {
 			System.err
 					.println("Error in Split --- The number of bits does not fit -- Input: "
-							+ assignment[inputs[0].getWireId()].toString(16) + "\n\t" + this);
+							+ assignment.get(inputs[0].getWireId()).toString(16) + "\n\t" + this);
 
 			throw new RuntimeException("Error During Evaluation -- " + this);
 		}
 	}
 
 	@Override
-	protected void compute(BigInteger[] assignment) {
+	protected void compute(AssignmentStore assignment) {
 
-		BigInteger inVal = assignment[inputs[0].getWireId()];
-		if (inVal.compareTo(Config.FIELD_PRIME) > 0) {
-			inVal = inVal.mod(Config.FIELD_PRIME);
-		}
+		int inWireId = inputs[0].getWireId();
 		for (int i = 0; i < outputs.length; i++) {
-			assignment[outputs[i].getWireId()] = inVal.testBit(i) ? BigInteger.ONE
-					: BigInteger.ZERO;
+			assignment.setLong(outputs[i].getWireId(), assignment.testBit(inWireId, i) ? 1 : 0);
 		}
 	}
 
@@ -54,6 +48,11 @@ public class SplitBasicOp extends BasicOp {
 		return inputs[0].equals(op.inputs[0]) && outputs.length == op.outputs.length;
 
 	}
+
+	@Override
+	protected long getHashSeed() {
+		return outputs.length;
+	}
 	
 	@Override
 	public int getNumMulGates() {
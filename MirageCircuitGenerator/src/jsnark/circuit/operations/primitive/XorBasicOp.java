@@ -3,10 +3,8 @@
  *******************************************************************************/
 package jsnark.circuit.operations.primitive;
 
-import java.math.BigInteger;
-
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.structure.Wire;
-import jsnark.util.Util;
 
 public class XorBasicOp extends BasicOp {
 
@@ -18,10 +16,10 @@ public class XorBasicOp extends BasicOp {
 		return "xor";
 	}
 
-	public void checkInputs(BigInteger[] assignment) {
+	public void checkInputs(AssignmentStore assignment) {
 		super.checkInputs(assignment);
-		boolean check = Util.isBinary(assignment[inputs[0].getWireId()])
-				&& Util.isBinary(assignment[inputs[1].getWireId()]);
+		boolean check = assignment.isBinary(inputs[0].getWireId())
+				&& assignment.isBinary(inputs[1].getWireId());
 		if (!check){
 			System.err.println("Error - Input(s) to XOR are not binary. "
 					+ this);
@@ -31,9 +29,9 @@ public class XorBasicOp extends BasicOp {
 	}
 
 	@Override
-	public void compute(BigInteger[] assignment) {
-		assignment[outputs[0].getWireId()] = assignment[inputs[0].getWireId()].xor(
-				assignment[inputs[1].getWireId()]);
+	public void compute(AssignmentStore assignment) {
+		assignment.setLong(outputs[0].getWireId(),
+				assignment.valuesEqual(inputs[0].getWireId(), inputs[1].getWireId()) ? 0 : 1);
 	}
 
 	@Override
@@ -58,5 +56,10 @@ public class XorBasicOp extends BasicOp {
 	public int getNumMulGates() {
 		return 1;
 	}
-	
+
+	@Override
+	protected boolean isCommutative() {
+		return true;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package jsnark.circuit.structure;
+
+import jsnark.circuit.operations.primitive.BasicOp;
+
+/**
+ * The basic operations of an evaluation queue, so that an equal operation is
+ * found without building opcode strings. The table uses open addressing with
+ * linear probing from the 64-bit structural hash of an operation (see
+ * BasicOp.getStructuralHash()), and keeps the hashes in a primitive array, so
+ * that equals() is only called when the full hashes match.
+ *
+ */
+class BasicOpTable {
+
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	private long[] hashes = new long[INITIAL_CAPACITY];
+	private BasicOp[] ops = new BasicOp[INITIAL_CAPACITY];
+	private int mask = INITIAL_CAPACITY - 1;
+	private int size;
+
+	/**
+	 * Returns the operation of the table that is equal to the given one, or
+	 * adds the given operation and returns null.
+	 */
+	BasicOp putIfAbsent(BasicOp op) {
+		long h = op.getStructuralHash();
+		int i = slot(h);
+		while (ops[i] != null) {
+			if (hashes[i] == h && ops[i].equals(op)) {
+				return ops[i];
+			}
+			i = (i + 1) & mask;
+		}
+		hashes[i] = h;
+		ops[i] = op;
+		if (++size * 2 > ops.length) {
+			resize();
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the given operation, if it is in the table (not just an equal
+	 * one).
+	 */
+	void remove(BasicOp op) {
+		int i = slot(op.getStructuralHash());
+		while (ops[i] != op) {
+			if (ops[i] == null) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		size--;
+		// moves back the following operations of the probe sequence that would
+		// not be found after the gap
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (ops[j] == null) {
+				break;
+			}
+			int k = slot(hashes[j]);
+			if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			hashes[i] = hashes[j];
+			ops[i] = ops[j];
+			i = j;
+		}
+		ops[i] = null;
+	}
+
+	private void resize() {
+		long[] oldHashes = hashes;
+		BasicOp[] oldOps = ops;
+		hashes = new long[oldOps.length * 2];
+		ops = new BasicOp[oldOps.length * 2];
+		mask = ops.length - 1;
+		for (int i = 0; i < oldOps.length; i++) {
+			if (oldOps[i] != null) {
+				int j = slot(oldHashes[i]);
+				while (ops[j] != null) {
+					j = (j + 1) & mask;
+				}
+				hashes[j] = oldHashes[i];
+				ops[j] = oldOps[i];
+			}
+		}
+	}
+
+	private int slot(long h) {
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+}
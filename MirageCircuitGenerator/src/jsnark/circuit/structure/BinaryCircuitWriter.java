@@ -0,0 +1,193 @@
+package jsnark.circuit.structure;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.operations.WireLabelInstruction;
+import jsnark.circuit.operations.primitive.BasicOp;
+import jsnark.circuit.operations.primitive.ConstMulBasicOp;
+
+/**
+ * Writes a circuit in the compact binary format (.arithb) read by the
+ * backend's CircuitReader. Layout (version 1):
+ *
+ * <pre>
+ * header:   "MRCB" version(u8)
+ * records:  label:  opcode(u8) varint(wireId)
+ *           gate:   opcode(u8) [varint(constIndex)] varint(nOut) outputs varint(nIn) inputs
+ *           end:    END_OPCODE(u8)
+ * trailer:  varint(numWires) varint(numConstants) {varint(length) bytes(big-endian)}*
+ *           u64 little-endian offset of the trailer
+ * </pre>
+ *
+ * Output ids are written as zigzag deltas from the previous output id minus
+ * one (usually a single byte), and input ids as zigzag distances from the
+ * first output of the gate. Constants of const-mul gates are deduplicated in
+ * the pool at the end, so that the file can be written in one pass.
+ *
+ */
+public class BinaryCircuitWriter {
+
+	public static final byte[] MAGIC = { 'M', 'R', 'C', 'B' };
+	public static final int VERSION = 1;
+
+	public static final int END_OPCODE = 0;
+	public static final int ADD_OPCODE = 1;
+	public static final int MUL_OPCODE = 2;
+	public static final int SPLIT_OPCODE = 3;
+	public static final int NONZEROCHECK_OPCODE = 4;
+	public static final int PACK_OPCODE = 5;
+	public static final int MULCONST_OPCODE = 6;
+	public static final int XOR_OPCODE = 7;
+	public static final int OR_OPCODE = 8;
+	public static final int CONSTRAINT_OPCODE = 9;
+	public static final int MULNEGCONST_OPCODE = 10;
+
+	public static final int SPEC_LABEL = 16;
+	public static final int STMT_LABEL = 17;
+	public static final int WITNESS_LABEL = 18;
+	public static final int RND_LABEL = 19;
+	public static final int OUTPUT_LABEL = 20;
+
+	private OutputStream out;
+	private long position;
+	private long previousOutputId = -1;
+
+	private HashMap<BigInteger, Integer> constantIndices = new HashMap<>();
+	private ArrayList<BigInteger> constants = new ArrayList<>();
+
+	public BinaryCircuitWriter(String path) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+		out.write(MAGIC);
+		out.write(VERSION);
+		position = MAGIC.length + 1;
+	}
+
+	public void write(Instruction e) throws IOException {
+		if (!e.doneWithinCircuit()) {
+			return;
+		}
+		if (e instanceof WireLabelInstruction) {
+			WireLabelInstruction label = (WireLabelInstruction) e;
+			writeByte(getLabelOpcode(label));
+			writeVarint(label.getWire().getWireId());
+		} else if (e instanceof BasicOp) {
+			writeGate((BasicOp) e);
+		} else {
+			throw new IllegalArgumentException("Unsupported instruction in the binary format: " + e);
+		}
+	}
+
+	private int getLabelOpcode(WireLabelInstruction label) {
+		switch (label.getType()) {
+		case spec:
+			return SPEC_LABEL;
+		case stmt:
+			return STMT_LABEL;
+		case witness:
+			return WITNESS_LABEL;
+		case rnd:
+			return RND_LABEL;
+		case output:
+			return OUTPUT_LABEL;
+		default:
+			throw new IllegalArgumentException("Unsupported label type: " + label.getType());
+		}
+	}
+
+	private int getGateOpcode(BasicOp op) {
+		if (op instanceof ConstMulBasicOp) {
+			return ((ConstMulBasicOp) op).isNegative() ? MULNEGCONST_OPCODE : MULCONST_OPCODE;
+		}
+		switch (op.getOpcode()) {
+		case "add":
+			return ADD_OPCODE;
+		case "mul":
+			return MUL_OPCODE;
+		case "split":
+			return SPLIT_OPCODE;
+		case "zerop":
+			return NONZEROCHECK_OPCODE;
+		case "pack":
+			return PACK_OPCODE;
+		case "xor":
+			return XOR_OPCODE;
+		case "or":
+			return OR_OPCODE;
+		case "assert":
+			return CONSTRAINT_OPCODE;
+		default:
+			throw new IllegalArgumentException("Unsupported opcode in the binary format: " + op.getOpcode());
+		}
+	}
+
+	private void writeGate(BasicOp op) throws IOException {
+		int opcode = getGateOpcode(op);
+		writeByte(opcode);
+		if (opcode == MULCONST_OPCODE || opcode == MULNEGCONST_OPCODE) {
+			BigInteger c = ((ConstMulBasicOp) op).getConstantMagnitude();
+			Integer index = constantIndices.get(c);
+			if (index == null) {
+				index = constants.size();
+				constants.add(c);
+				constantIndices.put(c, index);
+			}
+			writeVarint(index);
+		}
+		Wire[] outputs = op.getOutputs();
+		Wire[] inputs = op.getInputs();
+		writeVarint(outputs.length);
+		for (Wire w : outputs) {
+			long id = w.getWireId();
+			writeVarint(zigzag(id - previousOutputId - 1));
+			previousOutputId = id;
+		}
+		long base = outputs[0].getWireId();
+		writeVarint(inputs.length);
+		for (Wire w : inputs) {
+			writeVarint(zigzag(base - w.getWireId()));
+		}
+	}
+
+	public void close(int numWires) throws IOException {
+		writeByte(END_OPCODE);
+		long trailerOffset = position;
+		writeVarint(numWires);
+		writeVarint(constants.size());
+		for (BigInteger c : constants) {
+			byte[] bytes = c.toByteArray();
+			int start = (bytes.length > 1 && bytes[0] == 0) ? 1 : 0;
+			writeVarint(bytes.length - start);
+			out.write(bytes, start, bytes.length - start);
+			position += bytes.length - start;
+		}
+		for (int i = 0; i < 8; i++) {
+			writeByte((int) (trailerOffset >>> (8 * i)));
+		}
+		out.close();
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private void writeByte(int b) throws IOException {
+		out.write(b);
+		position++;
+	}
+
+	private void writeVarint(long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		writeByte((int) v);
+	}
+
+}
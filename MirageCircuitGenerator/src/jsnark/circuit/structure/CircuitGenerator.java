@@ -3,14 +3,28 @@
  *******************************************************************************/
 package jsnark.circuit.structure;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import jsnark.circuit.config.Config;
@@ -19,15 +33,26 @@ import jsnark.circuit.operations.WireLabelInstruction;
 import jsnark.circuit.operations.WireLabelInstruction.LabelType;
 import jsnark.circuit.operations.primitive.AssertBasicOp;
 import jsnark.circuit.operations.primitive.BasicOp;
+import jsnark.circuit.operations.primitive.ConstMulBasicOp;
 import jsnark.circuit.operations.primitive.MulBasicOp;
 
 public abstract class CircuitGenerator {
 
+	/**
+	 * The version of the compiled circuit files (see saveCompiledCircuit()). It
+	 * is to be increased when the saved skeleton or the generated circuits
+	 * change, so that older files are rebuilt instead of being loaded.
+	 */
+	public static final int COMPILED_CIRCUIT_VERSION = 2;
+
 	private static ConcurrentHashMap<Long, CircuitGenerator> activeCircuitGenerators = new ConcurrentHashMap<>();
 	private static CircuitGenerator instance;
 
 	protected int currentWireId;
 	protected LinkedHashMap<Instruction, Instruction> evaluationQueue;
+	// the basic operations of the evaluation queue, to find duplicates (see
+	// getBasicOps())
+	private BasicOpTable basicOps;
 
 	protected Wire zeroWire;
 	protected Wire oneWire;
@@ -44,6 +69,22 @@ public abstract class CircuitGenerator {
 	protected HashMap<BigInteger, Wire> knownConstantWires;
 
 	private int numOfConstraints;
+
+	// When streaming, instructions that are done within the circuit are written
+	// as soon as they are added, and only the most recent ones are kept in the
+	// evaluation queue for deduplication.
+	protected boolean streamingMode;
+	private File streamBodyFile;
+	private PrintWriter streamWriter;
+	private StringBuilder streamLines;
+	private BinaryCircuitWriter streamBinaryWriter;
+	// the instructions that were already in the evaluation queue when added
+	private long numDedupHits;
+	private CircuitMetrics metrics;
+	// While a compiled circuit is loaded, its wires by id, and the witness
+	// computations of its gadgets, which are not saved but created again.
+	private Wire[] restoredWires;
+	private ArrayList<Instruction> restoredInstructions;
 //	private CircuitEvaluator circuitEvaluator;
 
 	public CircuitGenerator(String circuitName) {
@@ -57,7 +98,8 @@ public abstract class CircuitGenerator {
 		witnessWires = new ArrayList<Wire>();
 
 		outWires = new ArrayList<Wire>();
-		evaluationQueue = new LinkedHashMap<Instruction, Instruction>();
+		streamingMode = Config.streamCircuitFile;
+		evaluationQueue = createEvaluationQueue();
 		knownConstantWires = new HashMap<BigInteger, Wire>();
 		currentWireId = 0;
 		numOfConstraints = 0;
@@ -81,18 +123,252 @@ public abstract class CircuitGenerator {
 		}
 	}
 
+	private LinkedHashMap<Instruction, Instruction> createEvaluationQueue() {
+		basicOps = new BasicOpTable();
+		if (!streamingMode) {
+			return new LinkedHashMap<Instruction, Instruction>();
+		}
+		final int window = Config.streamingDedupWindow;
+		return new LinkedHashMap<Instruction, Instruction>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(java.util.Map.Entry<Instruction, Instruction> eldest) {
+				if (size() <= window) {
+					return false;
+				}
+				if (eldest.getKey() instanceof BasicOp) {
+					basicOps.remove((BasicOp) eldest.getKey());
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Enables or disables the streaming mode, in which the circuit file is
+	 * written while the circuit is being built. Must be called before
+	 * generateCircuit(). In this mode, the evaluation queue is not retained, so
+	 * the circuit cannot be evaluated by the same generator.
+	 */
+	public void setStreamingMode(boolean streamingMode) {
+		if (currentWireId != 0) {
+			throw new IllegalStateException("The streaming mode must be set before generating the circuit");
+		}
+		this.streamingMode = streamingMode;
+		evaluationQueue = createEvaluationQueue();
+	}
+
+	public boolean isStreamingMode() {
+		return streamingMode;
+	}
+
 	protected abstract void buildCircuit();
 
 	public final void generateCircuit() {
 		
 		System.out.println("Running Circuit Generator for < " + circuitName + " >");
 
+		startPhase("generateCircuit");
 		initCircuitConstruction();
 		buildCircuit();
+		endPhase("generateCircuit");
 		
 		System.out.println("Circuit Generation Done for < " + circuitName + " >  \n \t Total Number of Constraints :  " + getNumOfConstraints() + "\n");
 	}
 
+	/**
+	 * Saves the built circuit, so that later runs can load it with
+	 * loadCompiledCircuit() instead of calling generateCircuit() again. Only
+	 * primitive data is written: the evaluation queue as records of wire ids
+	 * (see EvaluationQueueSerializer), and the skeleton of the generator (see
+	 * writeSkeleton()). Must be called before the circuit is evaluated.
+	 */
+	public void saveCompiledCircuit(String path) {
+		if (streamingMode) {
+			throw new IllegalStateException(
+					"The evaluation queue is not retained in streaming mode (circuit " + circuitName + ")");
+		}
+		startPhase("saveCompiledCircuit");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+			out.writeInt(COMPILED_CIRCUIT_VERSION);
+			writeSkeleton(out);
+			EvaluationQueueSerializer.write(out, evaluationQueue);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not save the compiled circuit to " + path, e);
+		} finally {
+			endPhase("saveCompiledCircuit");
+		}
+	}
+
+	/**
+	 * Loads a circuit saved by saveCompiledCircuit() into this generator,
+	 * instead of calling generateCircuit(). The generator must be new, and of
+	 * the same class and parameters as the one that saved the circuit. It
+	 * becomes the active generator. If the file cannot be loaded, e.g.
+	 * because it was saved by another version, the generator is not to be
+	 * used.
+	 */
+	public void loadCompiledCircuit(String path) {
+		if (streamingMode) {
+			throw new IllegalStateException(
+					"The evaluation queue is not retained in streaming mode (circuit " + circuitName + ")");
+		}
+		if (currentWireId != 0) {
+			throw new IllegalStateException("The circuit " + circuitName + " was already generated");
+		}
+		makeActive();
+		startPhase("loadCompiledCircuit");
+		try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int version = in.getInt();
+			if (version != COMPILED_CIRCUIT_VERSION) {
+				throw new IOException("The file has version " + version + " instead of " + COMPILED_CIRCUIT_VERSION);
+			}
+			restoredInstructions = new ArrayList<>();
+			readSkeleton(in);
+			evaluationQueue = EvaluationQueueSerializer.read(in, restoredWires, restoredInstructions.iterator());
+			basicOps = null;
+		} catch (IOException | RuntimeException e) {
+			throw new RuntimeException("Could not load the compiled circuit from " + path, e);
+		} finally {
+			restoredWires = null;
+			restoredInstructions = null;
+			endPhase("loadCompiledCircuit");
+		}
+	}
+
+	/**
+	 * Writes the state of the built circuit besides its evaluation queue: the
+	 * counters, the constant wires and the ids of the input wires.
+	 * Subclasses append the wire ids of their gadgets, and read them back in
+	 * the same order in readSkeleton().
+	 */
+	protected void writeSkeleton(DataOutputStream out) throws IOException {
+		out.writeInt(currentWireId);
+		out.writeInt(numOfConstraints);
+		out.writeLong(numDedupHits);
+		out.writeInt(knownConstantWires.size());
+		for (Map.Entry<BigInteger, Wire> e : knownConstantWires.entrySet()) {
+			byte[] bytes = e.getKey().toByteArray();
+			out.writeShort(bytes.length);
+			out.write(bytes);
+			out.writeInt(e.getValue().getWireId());
+		}
+		out.writeInt(oneWire.getWireId());
+		out.writeInt(zeroWire.getWireId());
+		writeWireIds(out, specWires);
+		writeWireIds(out, stmtWires);
+		writeWireIds(out, witnessWires);
+		writeWireIds(out, rndWires);
+		writeWireIds(out, outWires);
+	}
+
+	/**
+	 * Reads what writeSkeleton() wrote. The wires are recreated with
+	 * getRestoredWire(), and the gadgets of subclasses hand their witness
+	 * computations to specifyProverWitnessComputation() as when they were
+	 * built, in the same order.
+	 */
+	protected void readSkeleton(ByteBuffer in) throws IOException {
+		currentWireId = in.getInt();
+		numOfConstraints = in.getInt();
+		numDedupHits = in.getLong();
+		restoredWires = new Wire[currentWireId];
+		int numConstants = in.getInt();
+		for (int i = 0; i < numConstants; i++) {
+			byte[] bytes = new byte[in.getShort() & 0xFFFF];
+			in.get(bytes);
+			BigInteger constant = new BigInteger(bytes);
+			int id = in.getInt();
+			restoredWires[id] = new ConstantWire(id, constant);
+			knownConstantWires.put(constant, restoredWires[id]);
+		}
+		oneWire = getRestoredWire(in.getInt());
+		zeroWire = getRestoredWire(in.getInt());
+		specWires = new ArrayList<>(Arrays.asList(readWireIds(in)));
+		stmtWires = new ArrayList<>(Arrays.asList(readWireIds(in)));
+		witnessWires = new ArrayList<>(Arrays.asList(readWireIds(in)));
+		rndWires = new ArrayList<>(Arrays.asList(readWireIds(in)));
+		outWires = new ArrayList<>(Arrays.asList(readWireIds(in)));
+	}
+
+	/**
+	 * Returns the wire with the given id of the compiled circuit that is being
+	 * loaded (see readSkeleton()).
+	 */
+	public Wire getRestoredWire(int id) {
+		if (restoredWires == null) {
+			throw new IllegalStateException("No compiled circuit is being loaded");
+		}
+		if (restoredWires[id] == null) {
+			restoredWires[id] = new VariableWire(id);
+		}
+		return restoredWires[id];
+	}
+
+	/**
+	 * Returns the n wires with consecutive ids from firstId of the compiled
+	 * circuit that is being loaded, e.g. an array created by
+	 * createSpecWireArray().
+	 */
+	public Wire[] getRestoredWires(int firstId, int n) {
+		Wire[] wires = new Wire[n];
+		for (int i = 0; i < n; i++) {
+			wires[i] = getRestoredWire(firstId + i);
+		}
+		return wires;
+	}
+
+	/**
+	 * Writes the ids of the wires as runs of consecutive ids, as most wires
+	 * are created in arrays.
+	 */
+	public static void writeWireIds(DataOutputStream out, List<Wire> wires) throws IOException {
+		out.writeInt(wires.size());
+		int i = 0;
+		while (i < wires.size()) {
+			int first = wires.get(i).getWireId();
+			int n = 1;
+			while (i + n < wires.size() && wires.get(i + n).getWireId() == first + n) {
+				n++;
+			}
+			out.writeInt(first);
+			out.writeInt(n);
+			i += n;
+		}
+	}
+
+	public static void writeWireIds(DataOutputStream out, Wire[] wires) throws IOException {
+		writeWireIds(out, Arrays.asList(wires));
+	}
+
+	public Wire[] readWireIds(ByteBuffer in) {
+		Wire[] wires = new Wire[in.getInt()];
+		int i = 0;
+		while (i < wires.length) {
+			int first = in.getInt();
+			int n = in.getInt();
+			for (int j = 0; j < n; j++) {
+				wires[i++] = getRestoredWire(first + j);
+			}
+		}
+		return wires;
+	}
+
+	/**
+	 * Makes this generator the active one, e.g. after building or loading
+	 * another generator.
+	 */
+	public void makeActive() {
+		instance = this;
+		if (Config.runningMultiGenerators) {
+			activeCircuitGenerators.put(Thread.currentThread().getId(), this);
+		}
+	}
+
 	public String getName() {
 		return circuitName;
 	}
@@ -265,21 +541,132 @@ public abstract class CircuitGenerator {
 	}
 
 	public void writeCircuitFile() {
+		startPhase("writeCircuitFile");
+		writeCircuitFiles();
+		endPhase("writeCircuitFile");
+	}
+
+	private void writeCircuitFiles() {
+		if (streamingMode) {
+			finishStreamedCircuitFile();
+			return;
+		}
+		if (writesBinaryCircuitFile()) {
+			writeBinaryCircuitFile();
+		}
+		if (!writesTextCircuitFile()) {
+			return;
+		}
 		try {
 			PrintWriter printWriter = new PrintWriter(new BufferedWriter(new FileWriter(getName() + ".arith")));
 
 			printWriter.println("total " + currentWireId);
+			StringBuilder lines = new StringBuilder(CIRCUIT_FILE_BUFFER_SIZE + 256);
 			for (Instruction e : evaluationQueue.keySet()) {
 				if (e.doneWithinCircuit()) {
-					printWriter.print(e + "\n");
+					appendLine(e, lines, printWriter);
 				}
 			}
+			printWriter.append(lines);
 			printWriter.close();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	private void writeBinaryCircuitFile() {
+		try {
+			BinaryCircuitWriter writer = new BinaryCircuitWriter(getName() + ".arithb");
+			for (Instruction e : evaluationQueue.keySet()) {
+				writer.write(e);
+			}
+			writer.close(currentWireId);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	// the lines of the circuit file are written in chunks of about this many
+	// characters, instead of one string per instruction
+	private static final int CIRCUIT_FILE_BUFFER_SIZE = 1 << 16;
+
+	private static void appendLine(Instruction e, StringBuilder lines, Writer writer) {
+		e.writeTo(lines);
+		lines.append('\n');
+		if (lines.length() >= CIRCUIT_FILE_BUFFER_SIZE) {
+			try {
+				writer.append(lines);
+			} catch (IOException ex) {
+				throw new RuntimeException("Error while writing the circuit file", ex);
+			}
+			lines.setLength(0);
+		}
+	}
+
+	private boolean writesTextCircuitFile() {
+		return !Config.circuitFileFormat.equals("binary");
+	}
+
+	private boolean writesBinaryCircuitFile() {
+		return Config.circuitFileFormat.equals("binary") || Config.circuitFileFormat.equals("both");
+	}
+
+	private void openCircuitStream() {
+		try {
+			if (writesTextCircuitFile()) {
+				streamBodyFile = new File(getName() + ".arith.body");
+				streamWriter = new PrintWriter(new BufferedWriter(new FileWriter(streamBodyFile), 1 << 16));
+				streamLines = new StringBuilder(CIRCUIT_FILE_BUFFER_SIZE + 256);
+			}
+			if (writesBinaryCircuitFile()) {
+				streamBinaryWriter = new BinaryCircuitWriter(getName() + ".arithb");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open the circuit file for streaming", e);
+		}
+	}
+
+	// The header needs the final number of wires, so the body is streamed to a
+	// separate file and appended after the header at the end.
+	private void finishStreamedCircuitFile() {
+		if (streamWriter == null && streamBinaryWriter == null) {
+			throw new IllegalStateException("The circuit has not been generated");
+		}
+		if (streamBinaryWriter != null) {
+			try {
+				streamBinaryWriter.close(currentWireId);
+			} catch (IOException e) {
+				throw new RuntimeException("Error while streaming the binary circuit file", e);
+			}
+			streamBinaryWriter = null;
+		}
+		if (streamWriter == null) {
+			return;
+		}
+		streamWriter.append(streamLines);
+		streamLines = null;
+		streamWriter.close();
+		if (streamWriter.checkError()) {
+			throw new RuntimeException("Error while streaming the circuit file");
+		}
+		streamWriter = null;
+		try {
+			PrintWriter printWriter = new PrintWriter(new BufferedWriter(new FileWriter(getName() + ".arith")));
+			printWriter.println("total " + currentWireId);
+			BufferedReader reader = new BufferedReader(new FileReader(streamBodyFile), 1 << 16);
+			char[] buffer = new char[1 << 16];
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				printWriter.write(buffer, 0, n);
+			}
+			reader.close();
+			printWriter.close();
+			streamBodyFile.delete();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	public void printCircuit() {
 
 		for (Instruction e : evaluationQueue.keySet()) {
@@ -290,7 +677,10 @@ public abstract class CircuitGenerator {
 
 	}
 
-	private void initCircuitConstruction() {
+	protected void initCircuitConstruction() {
+		if (streamingMode) {
+			openCircuitStream();
+		}
 		oneWire = new ConstantWire(currentWireId++, BigInteger.ONE);
 		knownConstantWires.put(BigInteger.ONE, oneWire);
 		addToEvaluationQueue(new WireLabelInstruction(LabelType.spec, oneWire, "The one-input wire."));
@@ -332,7 +722,12 @@ public abstract class CircuitGenerator {
 
 
 	public void specifyProverWitnessComputation(Instruction instruction) {
-		addToEvaluationQueue(instruction);
+		if (restoredInstructions != null) {
+			// the loaded queue already has a record for it
+			restoredInstructions.add(instruction);
+		} else {
+			addToEvaluationQueue(instruction);
+		}
 	}
 
 	public final Wire getZeroWire() {
@@ -344,31 +739,153 @@ public abstract class CircuitGenerator {
 	}
 
 	public LinkedHashMap<Instruction, Instruction> getEvaluationQueue() {
+		if (streamingMode) {
+			throw new IllegalStateException(
+					"The evaluation queue is not retained in streaming mode (circuit " + circuitName + ")");
+		}
 		return evaluationQueue;
 	}
 
+	/**
+	 * Removes the instructions that were added to the evaluation queue after
+	 * its first n instructions, e.g. to discard the witness computations of a
+	 * previous evaluation of the circuit.
+	 */
+	protected void truncateEvaluationQueue(int n) {
+		if (streamingMode) {
+			throw new IllegalStateException(
+					"The evaluation queue is not retained in streaming mode (circuit " + circuitName + ")");
+		}
+		Iterator<Instruction> it = evaluationQueue.keySet().iterator();
+		for (int i = 0; it.hasNext(); i++) {
+			Instruction e = it.next();
+			if (i >= n) {
+				it.remove();
+				if (e instanceof BasicOp && basicOps != null) {
+					basicOps.remove((BasicOp) e);
+				}
+			}
+		}
+	}
+
 	public int getNumWires() {
 		return currentWireId;
 	}
 
 	public Wire[] addToEvaluationQueue(Instruction e) {
-		if (evaluationQueue.containsKey(e)) {
-			if (e instanceof BasicOp) {
-				return ((BasicOp) evaluationQueue.get(e)).getOutputs();
-			}
-		}
+		boolean seen;
 		if (e instanceof BasicOp) {
+			BasicOp existing = getBasicOps().putIfAbsent((BasicOp) e);
+			if (existing != null) {
+				numDedupHits++;
+				return existing.getOutputs();
+			}
+			seen = false;
 			numOfConstraints += ((BasicOp) e).getNumMulGates();
+		} else {
+			seen = evaluationQueue.containsKey(e);
+			if (seen) {
+				numDedupHits++;
+			}
 		}
 		evaluationQueue.put(e, e);
+		if (streamingMode && !seen && e.doneWithinCircuit()) {
+			if (streamWriter != null) {
+				appendLine(e, streamLines, streamWriter);
+			}
+			if (streamBinaryWriter != null) {
+				try {
+					streamBinaryWriter.write(e);
+				} catch (IOException ex) {
+					throw new RuntimeException("Error while streaming the binary circuit file", ex);
+				}
+			}
+		}
 		return null;  // returning null means we have not seen this instruction before
 	}
 
+	// The basic operations of a loaded circuit are only indexed when more are
+	// added, as it is usually only evaluated.
+	private BasicOpTable getBasicOps() {
+		if (basicOps == null) {
+			basicOps = new BasicOpTable();
+			for (Instruction e : evaluationQueue.keySet()) {
+				if (e instanceof BasicOp) {
+					basicOps.putIfAbsent((BasicOp) e);
+				}
+			}
+		}
+		return basicOps;
+	}
+
 	public void printState(String message) {
 		System.out.println("\nGenerator State @ " + message);
 		System.out.println("\tCurrent Number of Multiplication Gates " + " :: " + numOfConstraints + "\n");
 	}
 
+	/**
+	 * Returns the metrics recorded so far, e.g. the measured phases. See
+	 * collectMetrics() for the state of the circuit.
+	 */
+	public CircuitMetrics getMetrics() {
+		if (metrics == null) {
+			metrics = new CircuitMetrics();
+		}
+		return metrics;
+	}
+
+	/**
+	 * Starts measuring a phase of the pipeline (see CircuitMetrics).
+	 */
+	public void startPhase(String name) {
+		getMetrics().startPhase(name);
+	}
+
+	public void endPhase(String name) {
+		getMetrics().endPhase(name);
+	}
+
+	/**
+	 * Returns the recorded metrics, with the current state of the circuit
+	 * (see updateMetrics()).
+	 */
+	public CircuitMetrics collectMetrics() {
+		CircuitMetrics metrics = getMetrics();
+		updateMetrics(metrics);
+		return metrics;
+	}
+
+	public void writeMetricsFile() {
+		collectMetrics().writeJson(getName() + ".metrics.json");
+	}
+
+	/**
+	 * Sets the values that describe the current state of the circuit. The
+	 * instructions are counted by opcode (the constant of a constant
+	 * multiplication is left out) unless the circuit is streamed, as the
+	 * evaluation queue is not retained then.
+	 */
+	protected void updateMetrics(CircuitMetrics metrics) {
+		metrics.set("circuit", "name", circuitName);
+		metrics.set("circuit", "constraints", numOfConstraints);
+		metrics.set("circuit", "wires", currentWireId);
+		metrics.set("circuit", "evaluationQueueSize", evaluationQueue.size());
+		metrics.set("circuit", "evaluationQueueDedupHits", numDedupHits);
+		if (streamingMode) {
+			return;
+		}
+		LinkedHashMap<String, Object> instructions = metrics.getSection("instructions");
+		instructions.clear();
+		for (Instruction e : evaluationQueue.keySet()) {
+			// the opcode of a constant multiplication includes its constant
+			String opcode = e instanceof ConstMulBasicOp ? "const-mul"
+					: e instanceof BasicOp ? ((BasicOp) e).getOpcode()
+							: e instanceof WireLabelInstruction ? ((WireLabelInstruction) e).getType().toString()
+									: "prover";
+			instructions.merge(opcode, 1L, (a, b) -> (Long) a + (Long) b);
+		}
+	}
+
 	public int getNumOfConstraints() {
 		return numOfConstraints;
 	}
@@ -385,6 +902,14 @@ public abstract class CircuitGenerator {
 		return witnessWires;
 	}
 
+	public ArrayList<Wire> getStmtWires() {
+		return stmtWires;
+	}
+
+	public ArrayList<Wire> getRndWires() {
+		return rndWires;
+	}
+
 	/**
 	 * Asserts an r1cs constraint. w1*w2 = w3
 	 * 
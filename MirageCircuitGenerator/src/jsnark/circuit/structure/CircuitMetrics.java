@@ -0,0 +1,156 @@
+package jsnark.circuit.structure;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Metrics of a circuit generator, grouped in sections (e.g. "phases",
+ * "circuit", "records"), which can be exported as JSON. Phases are measured
+ * by startPhase() and endPhase(): the wall time and the bytes allocated by the
+ * live threads are added up over all the runs of a phase. The other values
+ * are set by the generator (see CircuitGenerator.getMetrics()).
+ *
+ */
+public class CircuitMetrics {
+
+	private LinkedHashMap<String, LinkedHashMap<String, Object>> sections = new LinkedHashMap<>();
+	private HashMap<String, long[]> openPhases = new HashMap<>();
+
+	public void startPhase(String name) {
+		openPhases.put(name, new long[] { System.nanoTime(), getAllocatedBytes() });
+	}
+
+	public void endPhase(String name) {
+		long[] start = openPhases.remove(name);
+		if (start == null) {
+			throw new IllegalStateException("The phase " + name + " was not started");
+		}
+		long time = System.nanoTime() - start[0];
+		long allocated = Math.max(0, getAllocatedBytes() - start[1]);
+		LinkedHashMap<String, Object> phase = getPhase(name);
+		phase.put("count", (Long) phase.get("count") + 1);
+		phase.put("wallTimeMs", (Double) phase.get("wallTimeMs") + time / 1e6);
+		phase.put("allocatedBytes", (Long) phase.get("allocatedBytes") + allocated);
+	}
+
+	@SuppressWarnings("unchecked")
+	private LinkedHashMap<String, Object> getPhase(String name) {
+		LinkedHashMap<String, Object> phases = getSection("phases");
+		LinkedHashMap<String, Object> phase = (LinkedHashMap<String, Object>) phases.get(name);
+		if (phase == null) {
+			phase = new LinkedHashMap<>();
+			phase.put("count", 0L);
+			phase.put("wallTimeMs", 0.0);
+			phase.put("allocatedBytes", 0L);
+			phases.put(name, phase);
+		}
+		return phase;
+	}
+
+	/**
+	 * Returns the values of a section, in the order they were set. A value is a
+	 * number, a string, a boolean or a map of such values.
+	 */
+	public LinkedHashMap<String, Object> getSection(String name) {
+		return sections.computeIfAbsent(name, k -> new LinkedHashMap<>());
+	}
+
+	public void set(String section, String key, Object value) {
+		getSection(section).put(key, value);
+	}
+
+	/**
+	 * Sets the capacity, the consumed number and the utilization of one kind of
+	 * records/ops.
+	 */
+	public void setUtilization(String section, String key, long capacity, long consumed) {
+		LinkedHashMap<String, Object> utilization = new LinkedHashMap<>();
+		utilization.put("capacity", capacity);
+		utilization.put("consumed", consumed);
+		utilization.put("utilization", capacity == 0 ? 0.0 : (double) consumed / capacity);
+		set(section, key, utilization);
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		appendJson(json, sections, "");
+		return json.append('\n').toString();
+	}
+
+	public void writeJson(String path) {
+		try (PrintWriter printWriter = new PrintWriter(path)) {
+			printWriter.print(toJson());
+		} catch (FileNotFoundException e) {
+			throw new RuntimeException("Could not write the metrics to " + path, e);
+		}
+	}
+
+	private static void appendJson(StringBuilder json, Object value, String indent) {
+		if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			if (map.isEmpty()) {
+				json.append("{}");
+				return;
+			}
+			json.append("{\n");
+			int i = 0;
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				json.append(indent).append("  ");
+				appendString(json, entry.getKey().toString());
+				json.append(": ");
+				appendJson(json, entry.getValue(), indent + "  ");
+				json.append(++i < map.size() ? ",\n" : "\n");
+			}
+			json.append(indent).append('}');
+		} else if (value instanceof Double) {
+			double d = (Double) value;
+			json.append(Double.isFinite(d) ? String.format(Locale.ROOT, "%.3f", d) : "null");
+		} else if (value instanceof Number || value instanceof Boolean) {
+			json.append(value);
+		} else if (value == null) {
+			json.append("null");
+		} else {
+			appendString(json, value.toString());
+		}
+	}
+
+	private static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the live threads, or 0 if the JVM
+	 * does not support it. The difference of two calls is the allocation in
+	 * between, except for the threads that terminated in between.
+	 */
+	public static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return 0;
+		}
+		long total = 0;
+		for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+			if (bytes > 0) {
+				total += bytes;
+			}
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,259 @@
+package jsnark.circuit.structure;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.operations.WireLabelInstruction;
+import jsnark.circuit.operations.WireLabelInstruction.LabelType;
+import jsnark.circuit.operations.primitive.AddBasicOp;
+import jsnark.circuit.operations.primitive.AssertBasicOp;
+import jsnark.circuit.operations.primitive.BasicOp;
+import jsnark.circuit.operations.primitive.ConstMulBasicOp;
+import jsnark.circuit.operations.primitive.MulBasicOp;
+import jsnark.circuit.operations.primitive.NonZeroCheckBasicOp;
+import jsnark.circuit.operations.primitive.ORBasicOp;
+import jsnark.circuit.operations.primitive.PackBasicOp;
+import jsnark.circuit.operations.primitive.SplitBasicOp;
+import jsnark.circuit.operations.primitive.XorBasicOp;
+
+/**
+ * Writes and reads the evaluation queue of a compiled circuit (see
+ * CircuitGenerator.saveCompiledCircuit()). Primitive operations and labels,
+ * which are almost all of the queue, are written as records of wire ids with
+ * shared tables of descriptions and constants. The remaining instructions,
+ * e.g. the witness computations of gadgets, only leave a marker, and are
+ * created again by the gadgets when the circuit is loaded.
+ *
+ * The wires of the records are shared with the loaded generator (see
+ * CircuitGenerator.getRestoredWire()), one per id, as the operations only use
+ * the ids of their wires.
+ *
+ */
+final class EvaluationQueueSerializer {
+
+	private static final int LABEL = 0;
+	private static final int OTHER = 1;
+	private static final int ADD = 2;
+	private static final int MUL = 3;
+	private static final int ASSERT = 4;
+	private static final int CONST_MUL = 5;
+	private static final int CONST_MUL_NEG = 6;
+	private static final int NONZERO_CHECK = 7;
+	private static final int OR = 8;
+	private static final int XOR = 9;
+	private static final int PACK = 10;
+	private static final int SPLIT = 11;
+
+	private EvaluationQueueSerializer() {
+	}
+
+	static void write(DataOutputStream out, LinkedHashMap<Instruction, Instruction> queue) throws IOException {
+		HashMap<String, Integer> descIndices = new HashMap<>();
+		HashMap<BigInteger, Integer> constantIndices = new HashMap<>();
+		out.writeInt(queue.size());
+		for (Instruction e : queue.keySet()) {
+			if (e instanceof WireLabelInstruction) {
+				WireLabelInstruction label = (WireLabelInstruction) e;
+				out.writeByte(LABEL);
+				out.writeByte(label.getType().ordinal());
+				out.writeInt(label.getWire().getWireId());
+				writeDesc(out, label.getDesc(), descIndices);
+			} else if (e instanceof BasicOp) {
+				BasicOp op = (BasicOp) e;
+				int kind = getKind(op);
+				out.writeByte(kind);
+				if (kind == CONST_MUL || kind == CONST_MUL_NEG) {
+					writeConstant(out, ((ConstMulBasicOp) op).getConstantMagnitude(), constantIndices);
+				}
+				writeWires(out, op.getInputs());
+				writeWires(out, op.getOutputs());
+				writeDesc(out, op.getDesc(), descIndices);
+			} else {
+				out.writeByte(OTHER);
+			}
+		}
+	}
+
+	/**
+	 * Reads a queue written by write(). The wires are taken from or added to
+	 * the given table, and the other instructions are taken in order.
+	 */
+	static LinkedHashMap<Instruction, Instruction> read(ByteBuffer in, Wire[] wires, Iterator<Instruction> others)
+			throws IOException {
+		int size = in.getInt();
+		LinkedHashMap<Instruction, Instruction> queue = new LinkedHashMap<>(size * 4 / 3 + 1);
+		ArrayList<String> descs = new ArrayList<>();
+		ArrayList<BigInteger> constants = new ArrayList<>();
+		// the first constant multiplication of each constant and sign, whose
+		// constant is shared by the next ones
+		ArrayList<ConstMulBasicOp> constMulOps = new ArrayList<>();
+		LabelType[] labelTypes = LabelType.values();
+		for (int i = 0; i < size; i++) {
+			int kind = in.get() & 0xFF;
+			Instruction e;
+			if (kind == LABEL) {
+				LabelType type = labelTypes[in.get() & 0xFF];
+				Wire w = getWire(wires, in.getInt());
+				e = new WireLabelInstruction(type, w, readDesc(in, descs));
+			} else if (kind == OTHER) {
+				if (!others.hasNext()) {
+					throw new IOException("The gadgets created fewer instructions than the saved circuit has");
+				}
+				e = others.next();
+			} else if (kind == CONST_MUL || kind == CONST_MUL_NEG) {
+				int slot = 2 * readConstant(in, constants) + (kind == CONST_MUL_NEG ? 1 : 0);
+				Wire input = readWires(in, wires)[0];
+				Wire output = readWires(in, wires)[0];
+				String desc = readDesc(in, descs);
+				while (constMulOps.size() <= slot) {
+					constMulOps.add(null);
+				}
+				if (constMulOps.get(slot) != null) {
+					e = new ConstMulBasicOp(input, output, constMulOps.get(slot), desc);
+				} else {
+					BigInteger constant = constants.get(slot / 2);
+					ConstMulBasicOp op = new ConstMulBasicOp(input, output,
+							kind == CONST_MUL_NEG ? constant.negate() : constant, desc);
+					constMulOps.set(slot, op);
+					e = op;
+				}
+			} else {
+				Wire[] inputs = readWires(in, wires);
+				Wire[] outputs = readWires(in, wires);
+				e = createBasicOp(kind, inputs, outputs, readDesc(in, descs));
+			}
+			queue.put(e, e);
+		}
+		if (others.hasNext()) {
+			throw new IOException("The gadgets created more instructions than the saved circuit has");
+		}
+		return queue;
+	}
+
+	private static int getKind(BasicOp op) {
+		if (op instanceof AddBasicOp) {
+			return ADD;
+		} else if (op instanceof MulBasicOp) {
+			return MUL;
+		} else if (op instanceof AssertBasicOp) {
+			return ASSERT;
+		} else if (op instanceof ConstMulBasicOp) {
+			return ((ConstMulBasicOp) op).isNegative() ? CONST_MUL_NEG : CONST_MUL;
+		} else if (op instanceof NonZeroCheckBasicOp) {
+			return NONZERO_CHECK;
+		} else if (op instanceof ORBasicOp) {
+			return OR;
+		} else if (op instanceof XorBasicOp) {
+			return XOR;
+		} else if (op instanceof PackBasicOp) {
+			return PACK;
+		} else if (op instanceof SplitBasicOp) {
+			return SPLIT;
+		} else {
+			throw new IllegalArgumentException("Unsupported primitive operation: " + op.getOpcode());
+		}
+	}
+
+	private static BasicOp createBasicOp(int kind, Wire[] inputs, Wire[] outputs, String desc) {
+		switch (kind) {
+		case ADD:
+			return new AddBasicOp(inputs, outputs[0], desc);
+		case MUL:
+			return new MulBasicOp(inputs[0], inputs[1], outputs[0], desc);
+		case ASSERT:
+			return new AssertBasicOp(inputs[0], inputs[1], outputs[0], desc);
+		case NONZERO_CHECK:
+			return new NonZeroCheckBasicOp(inputs[0], outputs[0], outputs[1], desc);
+		case OR:
+			return new ORBasicOp(inputs[0], inputs[1], outputs[0], desc);
+		case XOR:
+			return new XorBasicOp(inputs[0], inputs[1], outputs[0], desc);
+		case PACK:
+			return new PackBasicOp(inputs, outputs[0], desc);
+		case SPLIT:
+			return new SplitBasicOp(inputs[0], outputs, desc);
+		default:
+			throw new IllegalArgumentException("Unknown record in the compiled circuit: " + kind);
+		}
+	}
+
+	private static void writeWires(DataOutputStream out, Wire[] ws) throws IOException {
+		out.writeInt(ws.length);
+		for (Wire w : ws) {
+			out.writeInt(w.getWireId());
+		}
+	}
+
+	private static Wire[] readWires(ByteBuffer in, Wire[] wires) {
+		Wire[] ws = new Wire[in.getInt()];
+		for (int i = 0; i < ws.length; i++) {
+			ws[i] = getWire(wires, in.getInt());
+		}
+		return ws;
+	}
+
+	private static Wire getWire(Wire[] wires, int id) {
+		if (wires[id] == null) {
+			wires[id] = new VariableWire(id);
+		}
+		return wires[id];
+	}
+
+	private static void writeConstant(DataOutputStream out, BigInteger constant,
+			HashMap<BigInteger, Integer> constantIndices) throws IOException {
+		Integer index = constantIndices.get(constant);
+		if (index != null) {
+			out.writeInt(index);
+		} else {
+			out.writeInt(constantIndices.size());
+			byte[] bytes = constant.toByteArray();
+			out.writeShort(bytes.length);
+			out.write(bytes);
+			constantIndices.put(constant, constantIndices.size());
+		}
+	}
+
+	// returns the index of the constant in the table
+	private static int readConstant(ByteBuffer in, ArrayList<BigInteger> constants) {
+		int index = in.getInt();
+		if (index == constants.size()) {
+			byte[] bytes = new byte[in.getShort() & 0xFFFF];
+			in.get(bytes);
+			constants.add(new BigInteger(bytes));
+		}
+		return index;
+	}
+
+	private static void writeDesc(DataOutputStream out, String desc, HashMap<String, Integer> descIndices)
+			throws IOException {
+		Integer index = descIndices.get(desc);
+		if (index != null) {
+			out.writeInt(index);
+		} else {
+			out.writeInt(descIndices.size());
+			byte[] bytes = desc.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			descIndices.put(desc, descIndices.size());
+		}
+	}
+
+	private static String readDesc(ByteBuffer in, ArrayList<String> descs) {
+		int index = in.getInt();
+		if (index == descs.size()) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			descs.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return descs.get(index);
+	}
+
+}
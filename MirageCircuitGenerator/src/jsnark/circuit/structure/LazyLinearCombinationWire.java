@@ -0,0 +1,260 @@
+package jsnark.circuit.structure;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.CircuitEvaluator;
+import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.operations.primitive.AddBasicOp;
+
+/**
+ * A linear combination of wires that is not in the circuit yet. Additions,
+ * subtractions and multiplications by constants (see Wire.add(), Wire.sub()
+ * and mul(BigInteger)) only merge (coefficient, wire) terms, and constants are
+ * terms of the one-wire. The combination is materialized when its id is
+ * needed, e.g. when it is an input of a multiplication or a split, into one
+ * constant multiplication per term whose coefficient is not one and a single
+ * add operation, instead of a chain of two-input adds.
+ *
+ * Like a wire whose bits are not packed yet, its id is -1 until then.
+ *
+ */
+public class LazyLinearCombinationWire extends LinearCombinationWire {
+
+	/**
+	 * The maximum number of terms. A larger combination is materialized and
+	 * used as one term, so that merging terms stays cheap.
+	 */
+	private static final int MAX_TERMS = 64;
+
+	private static final BigInteger HALF_FIELD_PRIME = Config.FIELD_PRIME.shiftRight(1);
+
+	private Wire[] wires = new Wire[4];
+	private BigInteger[] coefficients = new BigInteger[4];
+	private int size;
+	private String[] desc;
+
+	private LazyLinearCombinationWire(String... desc) {
+		super((WireArray) null);
+		this.desc = desc;
+	}
+
+	/**
+	 * Returns a*ca + b*cb, where each of a and b can be a lazy combination
+	 * itself. The result is a constant wire if no other wire is left, and one
+	 * of the wires if it is the only term and its coefficient is one.
+	 */
+	static Wire combine(Wire a, BigInteger ca, Wire b, BigInteger cb, String... desc) {
+		LazyLinearCombinationWire result = new LazyLinearCombinationWire(desc);
+		result.addTerms(a, ca);
+		result.addTerms(b, cb);
+		return result.simplify();
+	}
+
+	/**
+	 * Returns the sum of the given wires.
+	 */
+	static Wire sum(Wire[] array, String... desc) {
+		LazyLinearCombinationWire result = new LazyLinearCombinationWire(desc);
+		for (Wire w : array) {
+			result.addTerms(w, BigInteger.ONE);
+		}
+		return result.simplify();
+	}
+
+	public boolean isMaterialized() {
+		return wireId != -1;
+	}
+
+	private void addTerms(Wire w, BigInteger c) {
+		if (w instanceof LazyLinearCombinationWire && !((LazyLinearCombinationWire) w).isMaterialized()) {
+			LazyLinearCombinationWire combination = (LazyLinearCombinationWire) w;
+			if (size + combination.size <= MAX_TERMS && combination.isWorthScaling(c)) {
+				for (int i = 0; i < combination.size; i++) {
+					addTerm(combination.wires[i], combination.coefficients[i].multiply(c));
+				}
+				return;
+			}
+		}
+		if (w instanceof ConstantWire) {
+			addTerm(generator.oneWire, ((ConstantWire) w).getConstant().multiply(c));
+		} else {
+			w.packIfNeeded(desc);
+			addTerm(w, c);
+		}
+	}
+
+	/**
+	 * Scaling the terms needs more constant multiplications when most
+	 * coefficients are one, e.g. for (a+b)*c. The terms are scaled if that
+	 * costs at most two more of them, since scaling the materialized
+	 * combination instead costs an add and a constant multiplication.
+	 */
+	private boolean isWorthScaling(BigInteger c) {
+		if (c.equals(BigInteger.ONE)) {
+			return true;
+		}
+		int before = 0;
+		int after = 0;
+		for (int i = 0; i < size; i++) {
+			if (!coefficients[i].equals(BigInteger.ONE)) {
+				before++;
+			}
+			if (!coefficients[i].multiply(c).equals(BigInteger.ONE)) {
+				after++;
+			}
+		}
+		return after <= before + 2;
+	}
+
+	private void addTerm(Wire w, BigInteger c) {
+		int id = w.getWireId();
+		for (int i = 0; i < size; i++) {
+			if (wires[i].getWireId() == id) {
+				BigInteger sum = reduce(coefficients[i].add(c));
+				if (sum.signum() != 0) {
+					coefficients[i] = sum;
+				} else {
+					size--;
+					System.arraycopy(wires, i + 1, wires, i, size - i);
+					System.arraycopy(coefficients, i + 1, coefficients, i, size - i);
+				}
+				return;
+			}
+		}
+		c = reduce(c);
+		if (c.signum() == 0) {
+			return;
+		}
+		if (size == wires.length) {
+			wires = Arrays.copyOf(wires, size * 2);
+			coefficients = Arrays.copyOf(coefficients, size * 2);
+		}
+		wires[size] = w;
+		coefficients[size++] = c;
+	}
+
+	/**
+	 * Reduces large coefficients to (-p/2, p/2], so that e.g. -1 stays a
+	 * negative constant multiplication in the circuit file.
+	 */
+	private static BigInteger reduce(BigInteger c) {
+		if (c.bitLength() < Config.FIELD_PRIME.bitLength()) {
+			return c;
+		}
+		c = c.mod(Config.FIELD_PRIME);
+		return c.compareTo(HALF_FIELD_PRIME) > 0 ? c.subtract(Config.FIELD_PRIME) : c;
+	}
+
+	private Wire simplify() {
+		if (size == 0) {
+			return generator.zeroWire;
+		} else if (size == 1 && wires[0] == generator.oneWire) {
+			return generator.createConstantWire(coefficients[0], desc);
+		} else if (size == 1 && coefficients[0].equals(BigInteger.ONE)) {
+			return wires[0];
+		}
+		return this;
+	}
+
+	@Override
+	public Wire mul(BigInteger b, String... desc) {
+		if (isMaterialized()) {
+			return super.mul(b, desc);
+		}
+		LazyLinearCombinationWire result = new LazyLinearCombinationWire(desc);
+		result.addTerms(this, b);
+		return result.simplify();
+	}
+
+	@Override
+	public int getWireId() {
+		if (wireId == -1) {
+			materialize();
+		}
+		return wireId;
+	}
+
+	@Override
+	protected void pack(String... desc) {
+		if (wireId == -1) {
+			materialize();
+		}
+	}
+
+	private void materialize() {
+		Wire[] inputs = new Wire[size];
+		for (int i = 0; i < size; i++) {
+			inputs[i] = coefficients[i].equals(BigInteger.ONE) ? wires[i] : wires[i].mul(coefficients[i], desc);
+		}
+		if (size == 1) {
+			wireId = inputs[0].getWireId();
+		} else {
+			wireId = generator.currentWireId++;
+			Instruction op = new AddBasicOp(inputs, this, desc);
+			Wire[] cachedOutputs = generator.addToEvaluationQueue(op);
+			if (cachedOutputs != null) {
+				generator.currentWireId--;
+				wireId = cachedOutputs[0].getWireId();
+			}
+		}
+		// the terms are not needed anymore
+		wires = null;
+		coefficients = null;
+	}
+
+	/**
+	 * Computes the value of a combination that was not materialized, e.g. when
+	 * it is only read by a prover computation. Returns null if a term has no
+	 * value yet.
+	 */
+	public BigInteger evaluate(CircuitEvaluator evaluator) {
+		BigInteger value = BigInteger.ZERO;
+		for (int i = 0; i < size; i++) {
+			BigInteger v = evaluator.getWireValue(wires[i]);
+			if (v == null) {
+				return null;
+			}
+			value = value.add(v.multiply(coefficients[i]));
+		}
+		return value.mod(Config.FIELD_PRIME);
+	}
+
+	/**
+	 * A combination that was not materialized is only equal to itself, so
+	 * that comparing or hashing it does not add it to the circuit.
+	 */
+	@Override
+	public int hashCode() {
+		return isMaterialized() ? super.hashCode() : System.identityHashCode(this);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!isMaterialized()
+				|| (obj instanceof LazyLinearCombinationWire && !((LazyLinearCombinationWire) obj).isMaterialized())) {
+			return this == obj;
+		}
+		return super.equals(obj);
+	}
+
+	@Override
+	public String toString() {
+		if (isMaterialized()) {
+			return super.toString();
+		}
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				s.append(" + ");
+			}
+			if (!coefficients[i].equals(BigInteger.ONE)) {
+				s.append(coefficients[i]).append('*');
+			}
+			s.append(wires[i]);
+		}
+		return s.toString();
+	}
+
+}
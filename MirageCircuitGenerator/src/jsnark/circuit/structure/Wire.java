@@ -100,35 +100,29 @@ public class Wire {
 		}
 	}
 
+	// additions and subtractions are lazy, see LazyLinearCombinationWire
 	public Wire add(Wire w, String... desc) {
-		packIfNeeded(desc);
-		w.packIfNeeded(desc);
-		return new WireArray(new Wire[] { this, w }).sumAllElements(desc);
+		return LazyLinearCombinationWire.combine(this, BigInteger.ONE, w, BigInteger.ONE, desc);
 	}
 
 	public Wire add(long v, String... desc) {
-		return add(generator.createConstantWire(v, desc), desc);
+		return add(BigInteger.valueOf(v), desc);
 	}
 
 	public Wire add(BigInteger b, String... desc) {
-		return add(generator.createConstantWire(b, desc), desc);
-
+		return LazyLinearCombinationWire.combine(this, BigInteger.ONE, generator.oneWire, b, desc);
 	}
 
 	public Wire sub(Wire w, String... desc) {
-		packIfNeeded(desc);
-		w.packIfNeeded(desc);
-		Wire neg = w.mul(-1, desc);
-		return add(neg, desc);
+		return LazyLinearCombinationWire.combine(this, BigInteger.ONE, w, BigInteger.ONE.negate(), desc);
 	}
 
 	public Wire sub(long v, String... desc) {
-		return sub(generator.createConstantWire(v, desc), desc);
-
+		return add(BigInteger.valueOf(v).negate(), desc);
 	}
 
 	public Wire sub(BigInteger b, String... desc) {
-		return sub(generator.createConstantWire(b, desc), desc);
+		return add(b.negate(), desc);
 	}
 
 	public Wire checkNonZero(String... desc) {
@@ -65,6 +65,12 @@ public class WireArray {
 		boolean allConstant = true;
 		Wire output;
 		BigInteger sum = BigInteger.ZERO;
+		for (Wire w : array) {
+			if (w instanceof LazyLinearCombinationWire && !((LazyLinearCombinationWire) w).isMaterialized()) {
+				// merges the terms instead of materializing them
+				return LazyLinearCombinationWire.sum(array, desc);
+			}
+		}
 		for (Wire w : array) {
 			if (!(w instanceof ConstantWire)) {
 				allConstant = false;
@@ -11,10 +11,12 @@ import java.util.concurrent.ConcurrentMap;
 public class BigIntStorage {
 	
 	private ConcurrentMap<BigInteger, BigInteger> bigIntegerSet;
+	private ConcurrentMap<BigInteger, String> hexStrings;
 	private static BigIntStorage instance;
 	
 	private BigIntStorage(){
 		bigIntegerSet = new ConcurrentHashMap<BigInteger, BigInteger>();
+		hexStrings = new ConcurrentHashMap<BigInteger, String>();
 	}
 	
 	public static BigIntStorage getInstance(){
@@ -28,4 +30,17 @@ public class BigIntStorage {
 		bigIntegerSet.putIfAbsent(x, x);
 	    return bigIntegerSet.get(x);
 	}
+
+	/**
+	 * Returns the hexadecimal encoding of x, which is computed once per value
+	 * (e.g. for the constants of const-mul operations in the circuit file).
+	 */
+	public String getHexString(BigInteger x){
+		String s = hexStrings.get(x);
+		if (s == null) {
+			s = x.toString(16);
+			hexStrings.putIfAbsent(x, s);
+		}
+		return s;
+	}
 }
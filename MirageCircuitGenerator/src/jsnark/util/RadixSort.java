@@ -0,0 +1,104 @@
+package jsnark.util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A stable LSD radix sort for non-negative int or long keys, which works on
+ * primitive arrays only. Each pass counts the digits of the keys in chunks,
+ * and then moves every chunk to its place, with the chunks processed in
+ * parallel.
+ *
+ */
+public class RadixSort {
+
+	private static final int DIGIT_BITS = 11;
+	private static final int RADIX = 1 << DIGIT_BITS;
+
+	// smaller arrays are sorted in a single chunk
+	private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * Returns the positions of the keys in ascending order of the keys, where
+	 * equal keys keep their order.
+	 */
+	public static int[] sortedOrder(int[] keys, int numThreads) {
+		long[] longKeys = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			longKeys[i] = keys[i];
+		}
+		return sortedOrder(longKeys, numThreads);
+	}
+
+	/**
+	 * Returns the positions of the keys in ascending order of the keys, where
+	 * equal keys keep their order.
+	 */
+	public static int[] sortedOrder(long[] keys, int numThreads) {
+		int n = keys.length;
+		long max = 0;
+		for (long k : keys) {
+			if (k < 0) {
+				throw new IllegalArgumentException("Negative key: " + k);
+			}
+			max = Math.max(max, k);
+		}
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		long[] sortedKeys = keys.clone();
+		int[] tmpOrder = new int[n];
+		long[] tmpKeys = new long[n];
+
+		int numChunks = Math.max(1, Math.min(numThreads, n / MIN_CHUNK_SIZE));
+		int[][] counts = new int[numChunks][RADIX];
+		for (int shift = 0; shift < 64 && (shift == 0 || (max >>> shift) != 0); shift += DIGIT_BITS) {
+			sortByDigit(sortedKeys, order, tmpKeys, tmpOrder, shift, counts);
+			long[] t = sortedKeys;
+			sortedKeys = tmpKeys;
+			tmpKeys = t;
+			int[] o = order;
+			order = tmpOrder;
+			tmpOrder = o;
+		}
+		return order;
+	}
+
+	private static void sortByDigit(long[] keys, int[] order, long[] keysOut, int[] orderOut, int shift,
+			int[][] counts) {
+		int numChunks = counts.length;
+		int chunkSize = (keys.length + numChunks - 1) / numChunks;
+
+		IntStream.range(0, numChunks).parallel().forEach(c -> {
+			int[] count = counts[c];
+			Arrays.fill(count, 0);
+			int to = Math.min(keys.length, (c + 1) * chunkSize);
+			for (int i = c * chunkSize; i < to; i++) {
+				count[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+			}
+		});
+
+		// the position of the first key of each (digit, chunk) pair
+		int offset = 0;
+		for (int d = 0; d < RADIX; d++) {
+			for (int c = 0; c < numChunks; c++) {
+				int count = counts[c][d];
+				counts[c][d] = offset;
+				offset += count;
+			}
+		}
+
+		IntStream.range(0, numChunks).parallel().forEach(c -> {
+			int[] position = counts[c];
+			int to = Math.min(keys.length, (c + 1) * chunkSize);
+			for (int i = c * chunkSize; i < to; i++) {
+				int p = position[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+				keysOut[p] = keys[i];
+				orderOut[p] = order[i];
+			}
+		});
+	}
+
+}
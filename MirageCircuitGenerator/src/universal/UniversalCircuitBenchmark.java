@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package universal;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import jsnark.circuit.structure.CircuitMetrics;
+
+/**
+ * Measures the phases of running programs on universal circuits of different
+ * sizes: generateCircuit(), saveCompiledCircuit(), loadCompiledCircuit() (into
+ * a new generator, which runs the next phases), the specification,
+ * evaluateCircuit(), writeCircuitFile() and writeInputFile(). Each program is profiled first (see
+ * UniversalCircuitProfiler), and is then run on universal circuits whose shape
+ * is its profiled shape multiplied by the given scale factors.
+ *
+ * Every run uses a new circuit. After the warmup runs, each phase reports its
+ * average time and throughput, the bytes allocated by all the live threads
+ * (the evaluation is parallel) and the allocation rate, and the peak heap
+ * usage during the phase (the sum of the peaks of the heap memory pools,
+ * after a GC).
+ *
+ * Example:
+ *
+ * <pre>
+ * UniversalCircuitBenchmark benchmark = new UniversalCircuitBenchmark(1, 3);
+ * benchmark.addProgram("MatMul", g -> new MatMulSpecifier(g, 3).setInputToUniversalCircuit(), 1, 2, 4);
+ * benchmark.run();
+ * </pre>
+ */
+public class UniversalCircuitBenchmark {
+
+	private static final String[] PHASES = { "generateCircuit", "saveCompiledCircuit", "loadCompiledCircuit",
+			"specification", "evaluateCircuit", "writeCircuitFile", "writeInputFile" };
+
+	private final int warmupIterations;
+	private final int measuredIterations;
+
+	private ArrayList<String> names = new ArrayList<>();
+	private ArrayList<Consumer<UniversalCircuitGenerator>> specifications = new ArrayList<>();
+	private ArrayList<int[]> scales = new ArrayList<>();
+
+	public UniversalCircuitBenchmark(int warmupIterations, int measuredIterations) {
+		if (warmupIterations < 0 || measuredIterations < 1) {
+			throw new IllegalArgumentException("At least one measured iteration is needed");
+		}
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+	}
+
+	/**
+	 * Adds a program, e.g. g -> new AES128Specifier(g).setInputToUniversalCircuit(),
+	 * to be run on universal circuits of its profiled shape multiplied by each
+	 * of the given factors.
+	 */
+	public void addProgram(String name, Consumer<UniversalCircuitGenerator> specification, int... scaleFactors) {
+		names.add(name);
+		specifications.add(specification);
+		scales.add(scaleFactors.length == 0 ? new int[] { 1 } : scaleFactors);
+	}
+
+	public void run() {
+		ArrayList<String> report = new ArrayList<>();
+		for (int i = 0; i < names.size(); i++) {
+			UniversalCircuitProfiler profiler = new UniversalCircuitProfiler();
+			specifications.get(i).accept(profiler);
+			UniversalCircuitProfile shape = profiler.getShape();
+			for (int factor : scales.get(i)) {
+				UniversalCircuitProfile scaled = shape.scale(factor);
+				String circuitName = "bench_" + names.get(i).replaceAll("\\W", "") + "_x" + factor;
+				Measurement[] measurements = new Measurement[PHASES.length];
+				for (int p = 0; p < PHASES.length; p++) {
+					measurements[p] = new Measurement();
+				}
+				for (int iteration = 0; iteration < warmupIterations + measuredIterations; iteration++) {
+					runOnce(scaled, circuitName, specifications.get(i),
+							iteration < warmupIterations ? null : measurements);
+				}
+				report.add("Program < " + names.get(i) + " > x" + factor + " [" + scaled + "] ("
+						+ scaled.getNumOfConstraints() + " constraints)");
+				for (int p = 0; p < PHASES.length; p++) {
+					report.add("\t" + measurements[p].toString(PHASES[p], measuredIterations));
+				}
+			}
+		}
+		System.out.println("Benchmark results (" + warmupIterations + " warmup, " + measuredIterations
+				+ " measured iterations):");
+		for (String line : report) {
+			System.out.println(line);
+		}
+	}
+
+	private static void runOnce(UniversalCircuitProfile shape, String circuitName,
+			Consumer<UniversalCircuitGenerator> specification, Measurement[] measurements) {
+		// the generated circuit is replaced by the loaded one after the load phase
+		UniversalCircuitGenerator[] generator = { shape.createGenerator(circuitName) };
+		// the circuit file is written by its own phase
+		generator[0].setStreamingMode(false);
+		String compiledCircuitFile = generator[0].getCompiledCircuitFileName();
+		Runnable[] phases = { () -> generator[0].generateCircuit(),
+				() -> generator[0].saveCompiledCircuit(compiledCircuitFile), () -> {
+					generator[0] = shape.createGenerator(circuitName);
+					generator[0].setStreamingMode(false);
+					generator[0].loadCompiledCircuit(compiledCircuitFile);
+				}, () -> specification.accept(generator[0]),
+				() -> generator[0].getCircuitEvaluator().evaluateCircuit(), () -> generator[0].writeCircuitFile(),
+				() -> generator[0].getCircuitEvaluator().writeInputFile(circuitName) };
+		for (int p = 0; p < phases.length; p++) {
+			System.gc();
+			resetPeakHeapUsage();
+			long allocated = CircuitMetrics.getAllocatedBytes();
+			long start = System.nanoTime();
+			phases[p].run();
+			long time = System.nanoTime() - start;
+			allocated = CircuitMetrics.getAllocatedBytes() - allocated;
+			if (measurements != null) {
+				measurements[p].add(time, allocated, getPeakHeapUsage());
+			}
+		}
+		new File(compiledCircuitFile).delete();
+	}
+
+	private static class Measurement {
+		private long totalTime;
+		private long totalAllocated;
+		private long peakHeap;
+
+		void add(long time, long allocated, long heap) {
+			totalTime += time;
+			totalAllocated += allocated;
+			peakHeap = Math.max(peakHeap, heap);
+		}
+
+		String toString(String phase, int iterations) {
+			double ms = totalTime / 1e6 / iterations;
+			double mb = totalAllocated / 1048576.0 / iterations;
+			return String.format("%-17s %10.1f ms/op %10.3f ops/s %10.1f MB/op %10.1f MB/s %10.1f MB peak heap", phase,
+					ms, 1000 / ms, mb, ms == 0 ? 0 : mb * 1000 / ms, peakHeap / 1048576.0);
+		}
+	}
+
+	private static List<MemoryPoolMXBean> getHeapPools() {
+		ArrayList<MemoryPoolMXBean> pools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	private static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			pool.resetPeakUsage();
+		}
+	}
+
+	private static long getPeakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+}
@@ -9,61 +9,170 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
+import jsnark.circuit.eval.BinaryInputWriter;
 import jsnark.circuit.eval.CircuitEvaluator;
 import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.eval.ParallelEvaluator;
 import jsnark.circuit.operations.WireLabelInstruction;
 import jsnark.circuit.operations.WireLabelInstruction.LabelType;
 import jsnark.circuit.structure.CircuitGenerator;
+import jsnark.circuit.structure.Wire;
 
 public class UniversalCircuitEvaluator extends CircuitEvaluator{
 
-	private HashMap<BigInteger, BigInteger> universalAssignment;
+	// The universal indices are handed out densely from 0 by the generator, so
+	// their values are kept in a store indexed by them (with the same layout as
+	// the wire values), which grows as needed.
+	private AssignmentStore universalAssignment;
 
 	public UniversalCircuitEvaluator(CircuitGenerator circuitGenerator) {
 		super(circuitGenerator);
-		universalAssignment = new HashMap<>();
+		universalAssignment = AssignmentStore.create(1 << 16);
 	}
 	
 	public BigInteger getValueOfIndex(int index){
-		return universalAssignment.get(BigInteger.valueOf(index));
+		if (index < 0 || index >= universalAssignment.size()) {
+			return null;
+		}
+		return universalAssignment.get(index);
 	}
 	
 	public BigInteger[] getValuesOfIndices(int[] indices){
 		BigInteger[] values = new BigInteger[indices.length];
 		for(int i = 0; i < indices.length; i++){
-			values[i] = universalAssignment.get(BigInteger.valueOf(indices[i]));
+			values[i] = getValueOfIndex(indices[i]);
 		}
 		return values;
 	}
 	
+	// Works on the stored values directly, so that nothing is allocated unless
+	// the values mismatch.
 	public void resolveEntry(universal.opcodes.OpEntry entry){
-		if(getWireValue(entry.indexWire)!=null){
-			if(getWireValue(entry.valueWire)==null){
-				setWireValue(entry.valueWire, universalAssignment.get(getWireValue(entry.indexWire)));
-			} else{
-				setUniversalAssignment(getWireValue(entry.indexWire), getWireValue(entry.valueWire));
+		int indexWireId = entry.indexWire.getWireId();
+		int valueWireId = entry.valueWire.getWireId();
+		if (!wireValueAssignment.isAssigned(indexWireId)) {
+			return;
+		}
+		int index = getIndex(indexWireId);
+		if (!wireValueAssignment.isAssigned(valueWireId)) {
+			if (index < universalAssignment.size() && universalAssignment.isAssigned(index)) {
+				copyValue(universalAssignment, index, wireValueAssignment, valueWireId);
 			}
-		} 
+		} else {
+			ensureCapacity(index);
+			if (!universalAssignment.isAssigned(index)) {
+				copyValue(wireValueAssignment, valueWireId, universalAssignment, index);
+			} else if (!valuesEqual(wireValueAssignment, valueWireId, universalAssignment, index)) {
+				reportMismatch(index, wireValueAssignment.get(valueWireId));
+			}
+		}
 	}
 	
+	/**
+	 * Returns the universal index that the index wire of the entry holds.
+	 */
+	public int getIndexOfEntry(universal.opcodes.OpEntry entry){
+		int wireId = entry.indexWire.getWireId();
+		if (!wireValueAssignment.isAssigned(wireId)) {
+			throw new IllegalStateException("The index of the entry is not assigned: " + entry.indexWire);
+		}
+		return getIndex(wireId);
+	}
+
 	public void setUniversalAssignment(BigInteger key, BigInteger value){
+		setUniversalAssignment(key.intValueExact(), value);
+	}
+
+	public void setUniversalAssignment(int index, BigInteger value){
 		if(value == null)
 			return;
 		value = value.mod(Config.FIELD_PRIME);
-		if(universalAssignment.get(key)!=null)
-			if(!value.equals(universalAssignment.get(key))){
-				System.out.println(key + ", " + value + "," + universalAssignment.get(key));
-				throw new RuntimeException("Mismatch");
+		ensureCapacity(index);
+		if (universalAssignment.isAssigned(index)) {
+			if (!value.equals(universalAssignment.get(index))) {
+				reportMismatch(index, value);
+			}
+		} else {
+			universalAssignment.set(index, value);
+		}
+	}
+
+	private void reportMismatch(int index, BigInteger value) {
+		System.out.println(index + ", " + value + "," + universalAssignment.get(index));
+		throw new RuntimeException("Mismatch");
+	}
+
+	private int getIndex(int wireId) {
+		if (wireValueAssignment.isPacked()) {
+			long low = wireValueAssignment.getLimb(wireId, 0);
+			if ((wireValueAssignment.getLimb(wireId, 1) | wireValueAssignment.getLimb(wireId, 2)
+					| wireValueAssignment.getLimb(wireId, 3)) == 0 && low >= 0 && low <= Integer.MAX_VALUE) {
+				return (int) low;
+			}
+		} else if (wireValueAssignment.get(wireId).bitLength() < 32) {
+			return wireValueAssignment.get(wireId).intValue();
+		}
+		throw new IllegalArgumentException("Invalid universal index: " + wireValueAssignment.get(wireId));
+	}
+
+	private void ensureCapacity(int index) {
+		if (index < universalAssignment.size()) {
+			return;
+		}
+		int capacity = universalAssignment.size();
+		while (capacity <= index) {
+			capacity = capacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : 2 * capacity;
+		}
+		AssignmentStore store = AssignmentStore.create(capacity);
+		for (int i = 0; i < universalAssignment.size(); i++) {
+			if (universalAssignment.isAssigned(i)) {
+				copyValue(universalAssignment, i, store, i);
+			}
+		}
+		universalAssignment.release();
+		universalAssignment = store;
+	}
+
+	// Both stores are created by AssignmentStore.create(), so they are either
+	// both packed or both not.
+	private static void copyValue(AssignmentStore from, int fromId, AssignmentStore to, int toId) {
+		if (from.isPacked()) {
+			to.setLimbs(toId, from.getLimb(fromId, 0), from.getLimb(fromId, 1), from.getLimb(fromId, 2),
+					from.getLimb(fromId, 3));
+		} else {
+			to.set(toId, from.get(fromId));
+		}
+	}
+
+	private static boolean valuesEqual(AssignmentStore store1, int id1, AssignmentStore store2, int id2) {
+		if (store1.isPacked()) {
+			for (int i = 0; i < AssignmentStore.NUM_LIMBS; i++) {
+				if (store1.getLimb(id1, i) != store2.getLimb(id2, i)) {
+					return false;
+				}
 			}
-		universalAssignment.put(key, value);
+			return true;
+		}
+		return store1.get(id1).equals(store2.get(id2));
 	}
 
 	
 	public void writeInputFile(String appName) {
+		circuitGenerator.startPhase("writeInputFile");
+		if (!Config.inputFileFormat.equals("binary")) {
+			writeTextInputFile(appName);
+		}
+		if (Config.inputFileFormat.equals("binary") || Config.inputFileFormat.equals("both")) {
+			writeBinaryInputFile(appName);
+		}
+		circuitGenerator.endPhase("writeInputFile");
+	}
+
+	private void writeTextInputFile(String appName) {
 		try {
 			LinkedHashMap<Instruction, Instruction> evalSequence = circuitGenerator
 					.getEvaluationQueue();
@@ -78,7 +187,7 @@ public class UniversalCircuitEvaluator extends CircuitEvaluator{
 								.getType() == LabelType.stmt)) {
 					int id = ((WireLabelInstruction) e).getWire().getWireId();
 					printWriter.println(id + " "
-							+ wireValueAssignment[id].toString(16));
+							+ wireValueAssignment.get(id).toString(16));
 				}
 			}
 			printWriter.close();
@@ -87,37 +196,81 @@ public class UniversalCircuitEvaluator extends CircuitEvaluator{
 			e.printStackTrace();
 		}
 	}
+
+	// The input wires are taken from the generator's lists instead of the
+	// evaluation queue, and written as fixed-width records.
+	private void writeBinaryInputFile(String appName) {
+		ArrayList<Wire> inputWires = new ArrayList<>();
+		inputWires.addAll(circuitGenerator.getInWires());
+		inputWires.addAll(circuitGenerator.getStmtWires());
+		inputWires.addAll(circuitGenerator.getProverWitnessWires());
+		inputWires.addAll(circuitGenerator.getRndWires());
+		int[] wireIds = new int[inputWires.size()];
+		for (int i = 0; i < wireIds.length; i++) {
+			wireIds[i] = inputWires.get(i).getWireId();
+		}
+		try {
+			BinaryInputWriter.write(appName + ".inb", wireValueAssignment, wireIds);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
 	
 	public void evaluateCircuit() {
 
 		// Different evaluator logic from jsnark
 		
 		System.out.println("Running Circuit Evaluator for < " + circuitGenerator.getName() + " >");
+		circuitGenerator.startPhase("evaluateCircuit");
 
+		// The instructions that follow the runtime order of the specification
+		// (the program) are evaluated first, in that order. The rest, mostly the
+		// constraints of the circuit, keep the order of the queue, and are
+		// evaluated in parallel when they do not depend on each other.
 		LinkedHashMap<Instruction, Instruction> evalSequence = circuitGenerator.getEvaluationQueue();
-		ArrayList<Instruction> list = new ArrayList<>();
+		ArrayList<Instruction> program = new ArrayList<>();
+		ArrayList<Instruction> constraints = new ArrayList<>();
 		for (Instruction e : evalSequence.keySet()) {
-			list.add(e);
+			if (e.getOperationCounter() == Integer.MAX_VALUE) {
+				constraints.add(e);
+			} else {
+				program.add(e);
+			}
 		}
 
-		Collections.sort(list, new Comparator<Instruction>() {
+		Collections.sort(program, new Comparator<Instruction>() {
 			@Override
 			public int compare(Instruction arg0, Instruction arg1) {
 				return arg0.getOperationCounter() - arg1.getOperationCounter();
 			}
 		});
 
-		for (Instruction e : list) {
+		for (Instruction e : program) {
 			e.evaluate(this);
 			e.emit(this);
 		}
 
+		int numThreads = ParallelEvaluator.getNumThreads();
+		if (numThreads > 1 || Config.printEvaluationLevels) {
+			ParallelEvaluator parallelEvaluator = new ParallelEvaluator(constraints, wireValueAssignment.size());
+			if (Config.printEvaluationLevels) {
+				parallelEvaluator.printStatistics();
+			}
+			parallelEvaluator.evaluate(this, numThreads);
+		} else {
+			for (Instruction e : constraints) {
+				e.evaluate(this);
+				e.emit(this);
+			}
+		}
+
 		// check that each wire has been assigned a value
-		for (int i = 0; i < wireValueAssignment.length; i++) {
-			if (wireValueAssignment[i] == null) {
+		for (int i = 0; i < wireValueAssignment.size(); i++) {
+			if (!wireValueAssignment.isAssigned(i)) {
 				throw new RuntimeException("Wire#" + i + "is without value");
 			}
 		}
+		circuitGenerator.endPhase("evaluateCircuit");
 		System.out.println("Circuit Evaluation Done for < " + circuitGenerator.getName() + " >\n\n");
 
 	}
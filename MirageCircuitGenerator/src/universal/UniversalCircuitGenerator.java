@@ -4,24 +4,39 @@
 
 package universal;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
 
 import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.eval.CircuitEvaluator;
 import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.eval.ParallelEvaluator;
 import jsnark.circuit.structure.CircuitGenerator;
+import jsnark.circuit.structure.CircuitMetrics;
 import jsnark.circuit.structure.Wire;
+import jsnark.util.RadixSort;
 import jsnark.util.Util;
 import universal.opcodes.OpEntry;
 import universal.opcodes.opcode1.BinaryOperation;
+import universal.opcodes.opcode1.BinaryOperationProgram;
 import universal.opcodes.opcode1.OperationType;
 import universal.opcodes.opcode2.BitwiseOperationType;
 import universal.opcodes.opcode2.IntegerBitwiseOperation;
 import universal.opcodes.opcode3.Split32Operation;
 import universal.opcodes.opcode3.Split32OperationUtil;
 import universal.opcodes.opcode4.MemoryLookupOpHandler;
+import universal.opcodes.opcode5.TableLookupOpHandler;
 
 public class UniversalCircuitGenerator extends CircuitGenerator {
 
@@ -31,17 +46,20 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	private int numSplits; // number of supported opcode 3 operations
 	private int totalMemorySize;
 	private int totalNumberOfLookups; // number of supported opcode 4 operations
+	private int totalTableSize;
+	private int totalNumberOfTableLookups; // number of supported opcode 5 operations
 
 	private int stmtSize; // supported statement size
 	private final int numRnd = 2; // number of random values needed by the circuit
 
 	private final int zeroConstantIndex = 0;
 	private final int oneConstantIndex = 1;
-	private int universalIndex = 2;
+	protected int universalIndex = 2;
 	private int consumedBinaryOps = 0;
 	private int consumedIntegerBitwiseOps = 0;
 	private int consumedSplitOps = 0;
 	private int consumedStmt = 0;
+	private int builtQueueSize; // number of instructions added while building the circuit
 
 	private ArrayList<Integer> witnessIndices = new ArrayList<>();
 	private ArrayList<Integer> bitsToCheckBuffer = new ArrayList<>();
@@ -55,6 +73,7 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	private OpEntry[] bitwiseOpEntries;
 	private OpEntry[] splitOpEntries;
 	private OpEntry[][] memoryEntries;
+	private OpEntry[][] tableEntries;
 	private OpEntry[] permutedEntries;
 	private Wire[] rndWires;
 
@@ -62,11 +81,24 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	private IntegerBitwiseOperation[] bitwiseOperations;
 	private Split32Operation[] splitOperations;
 	private MemoryLookupOpHandler memoryLookupOpHandler;
+	private TableLookupOpHandler tableLookupOpHandler;
+	private BinaryOperationProgram binaryProgram; // the opcode 1 operations of the specification
 
 	private UniversalCircuitEvaluator evaluator;
 
 	public UniversalCircuitGenerator(String circuitName, int stmtSize, int numBinary, int numBitwise, int numSplits,
 			int totalMemorySize, int totalNumberOfLookups) {
+		this(circuitName, stmtSize, numBinary, numBitwise, numSplits, totalMemorySize, totalNumberOfLookups, 0, 0);
+	}
+
+	/**
+	 * Same as above, with support for lookups in read-only tables (opcode 5),
+	 * e.g. S-boxes, which are much cheaper than memory lookups (see
+	 * TableLookupOpHandler). The table size is the total size of the tables of
+	 * a specification, plus one for the null table if there are table lookups.
+	 */
+	public UniversalCircuitGenerator(String circuitName, int stmtSize, int numBinary, int numBitwise, int numSplits,
+			int totalMemorySize, int totalNumberOfLookups, int totalTableSize, int totalNumberOfTableLookups) {
 		super(circuitName);
 		this.numBinary = numBinary;
 		this.numBitwise = numBitwise;
@@ -74,6 +106,8 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		this.stmtSize = stmtSize;
 		this.totalMemorySize = totalMemorySize;
 		this.totalNumberOfLookups = totalNumberOfLookups;
+		this.totalTableSize = totalTableSize;
+		this.totalNumberOfTableLookups = totalNumberOfTableLookups;
 	}
 
 	public UniversalCircuitGenerator(String circuitName, int stmtSize, int budget) {
@@ -91,6 +125,190 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	}
 
 
+	/**
+	 * The universal circuit only depends on these parameters and on the
+	 * version of the code that builds it, so a compiled circuit saved under
+	 * this name can be reused for any specification.
+	 */
+	public String getCompiledCircuitFileName() {
+		return circuitName + "_" + stmtSize + "_" + numBinary + "_" + numBitwise + "_" + numSplits + "_"
+				+ totalMemorySize + "_" + totalNumberOfLookups
+				+ (totalNumberOfTableLookups == 0 ? "" : "_" + totalTableSize + "_" + totalNumberOfTableLookups)
+				+ "_v" + COMPILED_CIRCUIT_VERSION + ".univ";
+	}
+
+	/**
+	 * Returns a built universal circuit with the parameters of this generator.
+	 * If a compiled circuit was saved by an earlier run, it is loaded and
+	 * returned instead of building this generator. Otherwise, or if the file
+	 * cannot be loaded, this generator builds the circuit and saves it. In both
+	 * cases, prepareForSpecification() is to be called on the returned
+	 * generator.
+	 */
+	public UniversalCircuitGenerator generateOrLoadCircuit() {
+		String path = getCompiledCircuitFileName();
+		if (new File(path).exists()) {
+			UniversalCircuitGenerator loaded = new UniversalCircuitGenerator(circuitName, stmtSize, numBinary,
+					numBitwise, numSplits, totalMemorySize, totalNumberOfLookups, totalTableSize,
+					totalNumberOfTableLookups);
+			try {
+				loaded.loadCompiledCircuit(path);
+				return loaded;
+			} catch (RuntimeException e) {
+				System.err.println("Warning: " + e.getMessage() + " (" + e.getCause() + "), rebuilding it");
+				makeActive();
+			}
+		}
+		generateCircuit();
+		saveCompiledCircuit(path);
+		return this;
+	}
+
+	/**
+	 * Writes the parameters, the wire ids of the entries and the wire offsets
+	 * of the gadgets (see CircuitGenerator.writeSkeleton()).
+	 */
+	@Override
+	protected void writeSkeleton(DataOutputStream out) throws IOException {
+		super.writeSkeleton(out);
+		for (int param : getParameters()) {
+			out.writeInt(param);
+		}
+		writeWireIds(out, rndWires);
+		writeEntries(out, stmtEntries);
+		writeEntries(out, binaryOpEntries);
+		writeEntries(out, bitwiseOpEntries);
+		writeEntries(out, splitOpEntries);
+		for (OpEntry[] entries : memoryEntries) {
+			writeEntries(out, entries);
+		}
+		for (OpEntry[] entries : tableEntries) {
+			writeEntries(out, entries);
+		}
+		writeEntries(out, permutedEntries);
+		for (BinaryOperation op : binaryOperations) {
+			op.writeSkeleton(out);
+		}
+		for (IntegerBitwiseOperation op : bitwiseOperations) {
+			op.writeSkeleton(out);
+		}
+		for (Split32Operation op : splitOperations) {
+			op.writeSkeleton(out);
+		}
+		memoryLookupOpHandler.writeSkeleton(out);
+		tableLookupOpHandler.writeSkeleton(out);
+		out.writeInt(builtQueueSize);
+	}
+
+	/**
+	 * Restores the entries and the gadgets in the order of buildCircuit(), so
+	 * that their witness computations take the places of the ones that were
+	 * saved.
+	 */
+	@Override
+	protected void readSkeleton(ByteBuffer in) throws IOException {
+		super.readSkeleton(in);
+		for (int param : getParameters()) {
+			int savedParam = in.getInt();
+			if (savedParam != param) {
+				throw new IOException(
+						"The parameters of the saved circuit do not match " + getCompiledCircuitFileName());
+			}
+		}
+		rndWires = readWireIds(in);
+		constantEntries = new OpEntry[] { new OpEntry(zeroWire, zeroWire), new OpEntry(oneWire, oneWire) };
+		allOpEntries.addAll(Arrays.asList(constantEntries));
+		stmtEntries = readEntries(in, stmtSize, true);
+		binaryOpEntries = readEntries(in, numBinary * 3, true);
+		bitwiseOpEntries = readEntries(in, numBitwise * 3, true);
+		splitOpEntries = readEntries(in, numSplits * Split32Operation.NUM_ENTRIES, true);
+		memoryEntries = new OpEntry[totalNumberOfLookups][];
+		for (int i = 0; i < totalNumberOfLookups; i++) {
+			memoryEntries[i] = readEntries(in, 3, true);
+		}
+		tableEntries = new OpEntry[totalNumberOfTableLookups][];
+		for (int i = 0; i < totalNumberOfTableLookups; i++) {
+			tableEntries[i] = readEntries(in, 2, true);
+		}
+		permutedEntries = readEntries(in, getNumOfPermutationInput(), false);
+
+		binaryOperations = new BinaryOperation[numBinary];
+		Wire prev = getZeroWire();
+		for (int i = 0; i < numBinary; i++) {
+			binaryOperations[i] = new BinaryOperation(binaryOpEntries[3 * i], binaryOpEntries[3 * i + 1],
+					binaryOpEntries[3 * i + 2], prev, in);
+			prev = binaryOpEntries[3 * i + 2].valueWire;
+		}
+		bitwiseOperations = new IntegerBitwiseOperation[numBitwise];
+		for (int i = 0; i < numBitwise; i++) {
+			bitwiseOperations[i] = new IntegerBitwiseOperation(bitwiseOpEntries[3 * i], bitwiseOpEntries[3 * i + 1],
+					bitwiseOpEntries[3 * i + 2], in);
+		}
+		splitOperations = new Split32Operation[numSplits];
+		for (int i = 0; i < numSplits; i++) {
+			splitOperations[i] = new Split32Operation(getSplitBitEntries(i),
+					splitOpEntries[Split32Operation.NUM_ENTRIES * i + 32],
+					splitOpEntries[Split32Operation.NUM_ENTRIES * i + 33], getSplitByteEntries(i), in);
+		}
+		memoryLookupOpHandler = new MemoryLookupOpHandler(totalNumberOfLookups, totalMemorySize, rndWires,
+				getColumn(memoryEntries, 0), getColumn(memoryEntries, 1), getColumn(memoryEntries, 2), in);
+		tableLookupOpHandler = new TableLookupOpHandler(totalNumberOfTableLookups, totalTableSize, rndWires,
+				getColumn(tableEntries, 0), getColumn(tableEntries, 1), in);
+
+		specifyPermutationComputation();
+		specifyStatementComputation();
+		builtQueueSize = in.getInt();
+	}
+
+	private int[] getParameters() {
+		return new int[] { stmtSize, numBinary, numBitwise, numSplits, totalMemorySize, totalNumberOfLookups,
+				totalTableSize, totalNumberOfTableLookups };
+	}
+
+	private static void writeEntries(DataOutputStream out, OpEntry[] entries) throws IOException {
+		for (OpEntry entry : entries) {
+			out.writeInt(entry.indexWire.getWireId());
+			out.writeInt(entry.valueWire.getWireId());
+		}
+	}
+
+	// the entries of the operations are also added to allOpEntries, as in
+	// buildCircuit()
+	private OpEntry[] readEntries(ByteBuffer in, int n, boolean isOperationEntry) {
+		OpEntry[] entries = new OpEntry[n];
+		for (int i = 0; i < n; i++) {
+			Wire indexWire = getRestoredWire(in.getInt());
+			entries[i] = new OpEntry(indexWire, getRestoredWire(in.getInt()));
+			if (isOperationEntry) {
+				allOpEntries.add(entries[i]);
+			}
+		}
+		return entries;
+	}
+
+	private int getNumOfPermutationInput() {
+		return 2 + stmtSize + numBinary * 3 + numBitwise * 3 + numSplits * Split32Operation.NUM_ENTRIES
+				+ totalNumberOfLookups * 3 + totalNumberOfTableLookups * 2;
+	}
+
+	private OpEntry[] getSplitBitEntries(int i) {
+		return Arrays.copyOfRange(splitOpEntries, i * Split32Operation.NUM_ENTRIES,
+				i * Split32Operation.NUM_ENTRIES + 32);
+	}
+
+	private OpEntry[] getSplitByteEntries(int i) {
+		return Arrays.copyOfRange(splitOpEntries, i * Split32Operation.NUM_ENTRIES + 34,
+				i * Split32Operation.NUM_ENTRIES + 38);
+	}
+
+	private static OpEntry[] getColumn(OpEntry[][] entries, int j) {
+		OpEntry[] column = new OpEntry[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			column[i] = entries[i][j];
+		}
+		return column;
+	}
+
 	public void setUniversalCircuitEvaluator(UniversalCircuitEvaluator evaluator) {
 		this.evaluator = evaluator;
 	}
@@ -98,8 +316,7 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	@Override
 	protected void buildCircuit() {
 
-		int numOfPermutationInput = 2 + stmtSize + numBinary * 3 + numBitwise * 3
-				+ numSplits * Split32Operation.NUM_ENTRIES + +totalNumberOfLookups * 3;
+		int numOfPermutationInput = getNumOfPermutationInput();
 		constantEntries = new OpEntry[2];
 
 		constantEntries[0] = new OpEntry(zeroWire, zeroWire);
@@ -145,6 +362,14 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 			allOpEntries.add(memoryEntries[i][2]);
 		}
 
+		tableEntries = new OpEntry[totalNumberOfTableLookups][2];
+		for (int i = 0; i < totalNumberOfTableLookups; i++) {
+			tableEntries[i][0] = new OpEntry(false);
+			tableEntries[i][1] = new OpEntry(false);
+			allOpEntries.add(tableEntries[i][0]);
+			allOpEntries.add(tableEntries[i][1]);
+		}
+
 		permutedEntries = new OpEntry[numOfPermutationInput];
 		for (int i = 0; i < numOfPermutationInput; i++) {
 			permutedEntries[i] = new OpEntry(false);
@@ -162,53 +387,54 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		bitwiseOperations = new IntegerBitwiseOperation[numBitwise];
 		for (int i = 0; i < numBitwise; i++) {
 			bitwiseOperations[i] = new IntegerBitwiseOperation(bitwiseOpEntries[3 * i], bitwiseOpEntries[3 * i + 1],
-					bitwiseOpEntries[3 * i + 2], null);
+					bitwiseOpEntries[3 * i + 2], (BigInteger[]) null);
 		}
 
 		splitOperations = new Split32Operation[numSplits];
 
 		for (int i = 0; i < numSplits; i++) {
-			OpEntry[] bitWires = new OpEntry[32];
-			for (int j = 0; j < bitWires.length; j++) {
-				bitWires[j] = splitOpEntries[i * Split32Operation.NUM_ENTRIES + j];
+			splitOperations[i] = new Split32Operation(getSplitBitEntries(i),
+					splitOpEntries[Split32Operation.NUM_ENTRIES * i + 32],
+					splitOpEntries[Split32Operation.NUM_ENTRIES * i + 33], getSplitByteEntries(i),
+					(BigInteger[][]) null);
+		}
 
-			}
-			OpEntry[] byteWires = new OpEntry[4];
-			for (int j = 0; j < byteWires.length; j++) {
-				byteWires[j] = splitOpEntries[i * Split32Operation.NUM_ENTRIES + 34 + j];
+		memoryLookupOpHandler = new MemoryLookupOpHandler(totalNumberOfLookups, totalMemorySize, rndWires,
+				getColumn(memoryEntries, 0), getColumn(memoryEntries, 1), getColumn(memoryEntries, 2));
+		tableLookupOpHandler = new TableLookupOpHandler(totalNumberOfTableLookups, totalTableSize, rndWires,
+				getColumn(tableEntries, 0), getColumn(tableEntries, 1));
 
-			}
-			splitOperations[i] = new Split32Operation(bitWires, splitOpEntries[Split32Operation.NUM_ENTRIES * i + 32],
-					splitOpEntries[Split32Operation.NUM_ENTRIES * i + 33], byteWires, null);
-		}
+		specifyPermutationComputation();
 
-		OpEntry[] indexEntries = new OpEntry[totalNumberOfLookups];
-		OpEntry[] valueEntries = new OpEntry[totalNumberOfLookups];
-		OpEntry[] writeFlagEntries = new OpEntry[totalNumberOfLookups];
-		for (int i = 0; i < totalNumberOfLookups; i++) {
-			indexEntries[i] = memoryEntries[i][0];
-			valueEntries[i] = memoryEntries[i][1];
-			writeFlagEntries[i] = memoryEntries[i][2];
-		}
+		checkPermutation();
+		checkConsistency();
 
-		memoryLookupOpHandler = new MemoryLookupOpHandler(totalNumberOfLookups, totalMemorySize, rndWires, indexEntries,
-				valueEntries, writeFlagEntries);
+		specifyStatementComputation();
+		builtQueueSize = evaluationQueue.size();
+	}
 
+	private void specifyPermutationComputation() {
 		specifyProverWitnessComputation(new Instruction() {
 
 			@Override
 			public void evaluate(CircuitEvaluator evaluator) {
-				for (OpEntry entry : allOpEntries) {
-					((UniversalCircuitEvaluator) evaluator).resolveEntry(entry);
-				}
-				Object[] sorted = allOpEntries.toArray();
-				Arrays.sort(sorted);
-				for (int i = 0; i < permutedEntries.length; i++) {
-					evaluator.setWireValue(permutedEntries[i].indexWire,
-							evaluator.getWireValue(((OpEntry) sorted[i]).indexWire));
-					evaluator.setWireValue(permutedEntries[i].valueWire,
-							evaluator.getWireValue(((OpEntry) sorted[i]).valueWire));
+				UniversalCircuitEvaluator univEvaluator = (UniversalCircuitEvaluator) evaluator;
+				int[] indices = new int[allOpEntries.size()];
+				for (int i = 0; i < indices.length; i++) {
+					univEvaluator.resolveEntry(allOpEntries.get(i));
+					indices[i] = univEvaluator.getIndexOfEntry(allOpEntries.get(i));
 				}
+				// The universal indices are small non-negative integers, so the
+				// entries are ordered by a radix sort on them (stable, as the
+				// comparison sort of OpEntry was), and their values are copied
+				// to the permuted entries directly.
+				int[] sorted = RadixSort.sortedOrder(indices, ParallelEvaluator.getNumThreads());
+				AssignmentStore assignment = evaluator.getAssignment();
+				IntStream.range(0, permutedEntries.length).parallel().forEach(i -> {
+					OpEntry entry = allOpEntries.get(sorted[i]);
+					copyIfAssigned(assignment, entry.indexWire, permutedEntries[i].indexWire);
+					copyIfAssigned(assignment, entry.valueWire, permutedEntries[i].valueWire);
+				});
 			}
 
 			@Override
@@ -216,10 +442,9 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 				return Integer.MAX_VALUE - 1;
 			}
 		});
+	}
 
-		checkPermutation();
-		checkConsistency();
-
+	private void specifyStatementComputation() {
 		specifyProverWitnessComputation(new Instruction() {
 
 			@Override
@@ -236,6 +461,12 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		});
 	}
 
+	private static void copyIfAssigned(AssignmentStore assignment, Wire from, Wire to) {
+		if (assignment.isAssigned(from.getWireId())) {
+			assignment.copy(from.getWireId(), to.getWireId());
+		}
+	}
+
 	private void checkConsistency() {
 		for (int i = 1; i < permutedEntries.length; i++) {
 			Wire diff = permutedEntries[i].indexWire.sub(permutedEntries[i - 1].indexWire);
@@ -265,25 +496,79 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 
 	}
 
+	/**
+	 * Starts the specification of a program with a new evaluator. The built
+	 * circuit is not changed by a specification, so this can be called again
+	 * after a specification was evaluated, to specify another program against
+	 * the same circuit. The state of the previous specification is discarded.
+	 */
 	public void prepareForSpecification() {
+		startPhase("specification");
+		resetSpecification();
 		this.evaluator = new UniversalCircuitEvaluator(this);
 		registerMemory("NULL_MEM", 1);
+		if (totalNumberOfTableLookups != 0) {
+			registerTable("NULL_TABLE", new BigInteger[] { BigInteger.ZERO });
+		}
 		initInputAssignment();
 	}
 
+	private void resetSpecification() {
+		// the queue is not retained in streaming mode, so there is nothing to evaluate
+		if (!isStreamingMode()) {
+			truncateEvaluationQueue(builtQueueSize);
+		}
+		resetIndices();
+		consumedBinaryOps = 0;
+		consumedIntegerBitwiseOps = 0;
+		consumedSplitOps = 0;
+		consumedStmt = 0;
+
+		for (BinaryOperation op : binaryOperations) {
+			op.resetRuntimeState();
+		}
+		for (IntegerBitwiseOperation op : bitwiseOperations) {
+			op.resetRuntimeState();
+		}
+		for (Split32Operation op : splitOperations) {
+			op.resetRuntimeState();
+		}
+		memoryLookupOpHandler.resetRuntimeState();
+		tableLookupOpHandler.resetRuntimeState();
+	}
+
 	public void finalizeSpecification() {
 		specifyRemainingConstraints();
+		assignBinaryOperations();
 
-		System.out.println("Total number of records/ops [stmt, op1, op2, op3, op4] = " + stmtSize + "," + numBinary + ","
-				+ numBitwise + ", " + numSplits + ", " + totalNumberOfLookups);
+		System.out.println("Total number of records/ops [stmt, op1, op2, op3, op4, op5] = " + stmtSize + "," + numBinary + ","
+				+ numBitwise + ", " + numSplits + ", " + totalNumberOfLookups + ", " + totalNumberOfTableLookups);
 		System.out.println(
 				"Number of consumed records/ops = " + consumedStmt + "," + consumedBinaryOps + "," + consumedIntegerBitwiseOps
-						+ ", " + consumedSplitOps + ", " + memoryLookupOpHandler.getRegisteredInstructions());
+						+ ", " + consumedSplitOps + ", " + memoryLookupOpHandler.getRegisteredInstructions() + ", "
+						+ tableLookupOpHandler.getRegisteredLookups());
 		System.out.println("Number of remaining records/ops = " + (stmtSize - consumedStmt) + "," + (numBinary - consumedBinaryOps)
 				+ "," + (numBitwise - consumedIntegerBitwiseOps) + ", " + (numSplits - consumedSplitOps) + ", "
-				+ (totalNumberOfLookups - memoryLookupOpHandler.getRegisteredInstructions()));
+				+ (totalNumberOfLookups - memoryLookupOpHandler.getRegisteredInstructions()) + ", "
+				+ (totalNumberOfTableLookups - tableLookupOpHandler.getRegisteredLookups()));
+		updateUtilizationMetrics();
 
 		fillEmpty();
+		endPhase("specification");
+	}
+
+	// the records/ops consumed by the specification, before the rest are
+	// filled by fillEmpty()
+	private void updateUtilizationMetrics() {
+		CircuitMetrics metrics = getMetrics();
+		metrics.setUtilization("records", "stmt", stmtSize, consumedStmt);
+		metrics.setUtilization("records", "op1", numBinary, consumedBinaryOps);
+		metrics.setUtilization("records", "op2", numBitwise, consumedIntegerBitwiseOps);
+		metrics.setUtilization("records", "op3", numSplits, consumedSplitOps);
+		metrics.setUtilization("records", "op4", totalNumberOfLookups,
+				memoryLookupOpHandler.getRegisteredInstructions());
+		metrics.setUtilization("records", "op5", totalNumberOfTableLookups,
+				tableLookupOpHandler.getRegisteredLookups());
 	}
 
 	public void addBitToVerify(int index) {
@@ -294,7 +579,20 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		elementsToCheck32Buffer.add(index);
 	}
 
-	private void specifyRemainingConstraints() {
+	/**
+	 * Resets the universal indices of a specification, and the operations
+	 * recorded on them.
+	 */
+	protected void resetIndices() {
+		globalRuntimeCounter = 0;
+		universalIndex = 2;
+		witnessIndices = new ArrayList<>();
+		startBinaryOperationProgram();
+		bitsToCheckBuffer = new ArrayList<>();
+		elementsToCheck32Buffer = new ArrayList<>();
+	}
+
+	protected void specifyRemainingConstraints() {
 		int i = 0;
 		
 		// Bits that need to be verified.
@@ -342,8 +640,8 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		evaluator.setWireValue(rndWires, Util.randomBigIntegerArray(rndWires.length, 253));
 
 
-		evaluator.setUniversalAssignment(BigInteger.ZERO, BigInteger.ZERO);
-		evaluator.setUniversalAssignment(BigInteger.ONE, BigInteger.ONE);
+		evaluator.setUniversalAssignment(zeroConstantIndex, BigInteger.ZERO);
+		evaluator.setUniversalAssignment(oneConstantIndex, BigInteger.ONE);
 		evaluator.setWireValue(constantEntries[0].indexWire, BigInteger.ZERO); 
 		evaluator.setWireValue(constantEntries[1].indexWire, BigInteger.ONE); 
 	}
@@ -354,7 +652,7 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 			makeStmt(zeroConstantIndex, BigInteger.ZERO);
 		}
 		for (int i = consumedBinaryOps; i < numBinary; i++) {
-			zeroedBinaryOp();
+			assignZeroedBinaryOp();
 		}
 		for (int i = consumedIntegerBitwiseOps; i < numBitwise; i++) {
 			zeroBitwiseOp();
@@ -367,6 +665,128 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 			writeToMemory("NULL_MEM", zeroConstantIndex, zeroConstantIndex);
 		}
 
+		for (int i = tableLookupOpHandler.getRegisteredLookups(); i < totalNumberOfTableLookups; i++) {
+			lookupTable("NULL_TABLE", zeroConstantIndex);
+		}
+		tableLookupOpHandler.fillEmptyTableEntries();
+
+	}
+
+	/**
+	 * Starts recording the opcode 1 operations of a new specification, which
+	 * are assigned to slots by finalizeSpecification() (see
+	 * BinaryOperationProgram).
+	 */
+	protected void startBinaryOperationProgram() {
+		binaryProgram = new BinaryOperationProgram(zeroConstantIndex, oneConstantIndex);
+	}
+
+	/**
+	 * Returns the recorded opcode 1 operations that need a slot, in slot order.
+	 * The operation orders of the fillers are taken from the given supplier.
+	 */
+	protected List<BinaryOperationProgram.Record> scheduleBinaryOperations(IntSupplier nextOperationOrder) {
+		List<BinaryOperationProgram.Record> scheduled = binaryProgram.schedule(nextOperationOrder);
+		binaryProgram.printStatistics(scheduled.size());
+		binaryProgram.updateMetrics(getMetrics(), scheduled.size());
+		return scheduled;
+	}
+
+	/**
+	 * Returns the index that holds the value of the given index, and marks it
+	 * as used, for an index that is used by anything other than an opcode 1
+	 * operation. The operation computing an index that is never used is
+	 * removed.
+	 */
+	public int useIndex(int index) {
+		return binaryProgram.use(index);
+	}
+
+	private int[] useIndices(int[] indices) {
+		int[] resolved = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			resolved[i] = useIndex(indices[i]);
+		}
+		return resolved;
+	}
+
+	private int recordBinaryOp(int kind, BigInteger[] runtimeSpec, int[] splitInfo, int index1, int index2,
+			int index3) {
+		binaryProgram.add(kind, runtimeSpec, splitInfo, index1, index2, index3, globalRuntimeCounter++);
+		return index3;
+	}
+
+	/**
+	 * Assigns the recorded opcode 1 operations to slots. When the opcode 1 slots
+	 * run out, the operations that do not need a previous record or an
+	 * equality check are assigned to the spare opcode 2 slots, which can work
+	 * as simplified opcode 1 operations.
+	 */
+	private void assignBinaryOperations() {
+		List<BinaryOperationProgram.Record> scheduled = scheduleBinaryOperations(() -> globalRuntimeCounter++);
+		int overflow = consumedBinaryOps + scheduled.size() - numBinary;
+		ArrayList<BinaryOperationProgram.Record> moved = new ArrayList<>();
+		if (overflow > 0) {
+			int spareBitwise = numBitwise - consumedIntegerBitwiseOps;
+			ArrayList<BinaryOperationProgram.Record> kept = new ArrayList<>();
+			// the last operations are moved, to keep the order of the others
+			for (int i = scheduled.size() - 1; i >= 0; i--) {
+				BinaryOperationProgram.Record r = scheduled.get(i);
+				if (moved.size() < Math.min(overflow, spareBitwise) && r.fitsIntegerBitwiseOperation()) {
+					moved.add(r);
+				} else {
+					kept.add(r);
+				}
+			}
+			if (moved.size() < overflow) {
+				throw new IllegalArgumentException("Not enough opcode 1 operations: " + scheduled.size()
+						+ " needed, " + (numBinary - consumedBinaryOps) + " available, and " + moved.size()
+						+ " can use the spare opcode 2 operations");
+			}
+			Collections.reverse(kept);
+			Collections.reverse(moved);
+			scheduled = kept;
+			System.out.println("Assigned " + moved.size() + " opcode 1 operations to spare opcode 2 operations");
+		}
+		getMetrics().set("opcode1", "assignedToOpcode2", moved.size());
+
+		for (BinaryOperationProgram.Record r : scheduled) {
+			binaryOperations[consumedBinaryOps].setOperation(r.runtimeSpec, r.splitInfo, r.operationOrder);
+			assignEntries(binaryOpEntries, consumedBinaryOps, r);
+			consumedBinaryOps++;
+		}
+		for (BinaryOperationProgram.Record r : moved) {
+			bitwiseOperations[consumedIntegerBitwiseOps].setBinaryOperation(r.runtimeSpec, r.splitInfo,
+					r.operationOrder);
+			assignEntries(bitwiseOpEntries, consumedIntegerBitwiseOps, r);
+			consumedIntegerBitwiseOps++;
+		}
+	}
+
+	private void assignEntries(OpEntry[] entries, int i, BinaryOperationProgram.Record r) {
+		evaluator.setWireValue(entries[3 * i].indexWire, r.z1);
+		evaluator.setWireValue(entries[3 * i + 1].indexWire, r.z2);
+		evaluator.setWireValue(entries[3 * i + 2].indexWire, r.z3);
+		if (r.kind != BinaryOperationProgram.SPLIT) {
+			evaluator.resolveEntry(entries[3 * i]);
+			evaluator.resolveEntry(entries[3 * i + 1]);
+		}
+		if (r.kind == BinaryOperationProgram.CONSTRAINT) {
+			evaluator.resolveEntry(entries[3 * i + 2]);
+		}
+	}
+
+	private void assignZeroedBinaryOp() {
+		binaryOperations[consumedBinaryOps].setType(OperationType.add, OperationType.add, false);
+		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(zeroConstantIndex));
+		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire,
+				BigInteger.valueOf(zeroConstantIndex));
+		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire,
+				BigInteger.valueOf(zeroConstantIndex));
+		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps]);
+		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 1]);
+		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 2]);
+		consumedBinaryOps++;
 	}
 
 	public void registerMemory(String name, int size) {
@@ -374,38 +794,42 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	}
 
 	public int readFromMemory(String name, int index) {
-		int numRegistered = memoryLookupOpHandler.getRegisteredInstructions();
-		evaluator.setWireValue(memoryEntries[numRegistered][1].indexWire, universalIndex);
-		memoryLookupOpHandler.addReadOperation(name, index);
+		recordMemoryRead(name, useIndex(index), universalIndex);
 		return universalIndex++;
 	}
 
-	public void writeToMemory(String name, int index, int value) {
-//		int numRegistered = memoryLookupOp.registeredInstructions;
-//		evaluator.setWireValue(memoryEntries[numRegistered][1].indexWire, universalIndex);
-		memoryLookupOpHandler.addWriteOperation(name, index, value);
+	/**
+	 * Registers a read-only table with its contents, which can then be read by
+	 * lookupTable().
+	 */
+	public void registerTable(String name, BigInteger[] values) {
+		tableLookupOpHandler.registerTable(name, values);
+	}
 
+	public int lookupTable(String name, int index) {
+		recordTableLookup(name, useIndex(index), universalIndex);
+		return universalIndex++;
 	}
 
-	public void writeToMemory(String name, int index, int value, int enable) {
-//		int numRegistered = memoryLookupOp.registeredInstructions;
-//		evaluator.setWireValue(memoryEntries[numRegistered][1].indexWire, universalIndex);
-		memoryLookupOpHandler.addConditionalWriteOperation(name, index, value, enable);
+	public void writeToMemory(String name, int index, int value) {
+		recordMemoryWrite(name, useIndex(index), useIndex(value), oneConstantIndex);
+	}
 
+	public void writeToMemory(String name, int index, int value, int enable) {
+		index = useIndex(index);
+		value = useIndex(value);
+		enable = useIndex(enable);
+		// the current value is written back if the write is not enabled
+		int current = makeMemoryValueWitness(name, index);
+		recordMemoryWrite(name, index, useIndex(muxSelector(current, value, enable)), enable);
 	}
 
 	public void makeStmt(int index, BigInteger value) {
-		evaluator.setWireValue(stmtEntries[consumedStmt].indexWire, BigInteger.valueOf(index));
-		evaluator.setWireValue(stmtEntries[consumedStmt].valueWire, value);
-		evaluator.resolveEntry(stmtEntries[consumedStmt]);
-		consumedStmt++;
+		recordStmt(useIndex(index), value);
 	}
 
 	public void makeStmtOutput(int index) {
-		evaluator.setWireValue(stmtEntries[consumedStmt].indexWire, BigInteger.valueOf(index));
-		evaluator.resolveEntry(stmtEntries[consumedStmt]);
-//		evaluator.setWireValue(stmtEntries[consumedStmt].value, value);
-		consumedStmt++;
+		recordStmt(useIndex(index), null);
 	}
 
 	public void makeStmtOutputArray(int[] outputs) {
@@ -414,100 +838,70 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		}
 	}
 
+	/**
+	 * Makes statement outputs of the given values of the given bitwidth, packing
+	 * as many of them as the field allows in each statement (little-endian).
+	 * Every two values take one opcode 1 operation, chained through usePrev.
+	 */
+	public void makePackedStmtOutputArray(int[] outputs, int bitwidth) {
+		int perStmt = (Config.FIELD_PRIME.bitLength() - 1) / bitwidth;
+		for (int i = 0; i < outputs.length; i += perStmt) {
+			int n = Math.min(perStmt, outputs.length - i);
+			if (n == 1) {
+				makeStmtOutput(outputs[i]);
+				continue;
+			}
+			int packed = addBinaryOp(outputs[i], outputs[i + 1]);
+			setRuntimeSpecEntryForBinaryOp(BinaryOperation.c4_INDEX, BigInteger.ONE.shiftLeft(bitwidth));
+			for (int j = 2; j < n; j += 2) {
+				int next = j + 1 < n ? outputs[i + j + 1] : zeroConstantIndex;
+				packed = customBinaryOp(outputs[i + j], next, OperationType.add, OperationType.add, true);
+				setRuntimeSpecEntryForBinaryOp(BinaryOperation.c2_INDEX, BigInteger.ONE.shiftLeft(j * bitwidth));
+				setRuntimeSpecEntryForBinaryOp(BinaryOperation.c4_INDEX, BigInteger.ONE.shiftLeft((j + 1) * bitwidth));
+			}
+			makeStmtOutput(packed);
+		}
+	}
+
 	public int[] createStmtArray(int n, BigInteger[] values) {
 		int[] array = new int[n];
 		for (int i = 0; i < array.length; i++) {
 			array[i] = universalIndex++;
-			evaluator.setWireValue(stmtEntries[consumedStmt].indexWire, BigInteger.valueOf(array[i]));
-			evaluator.setWireValue(stmtEntries[consumedStmt].valueWire, values[i]);
-			evaluator.resolveEntry(stmtEntries[consumedStmt]);
-			consumedStmt++;
+			recordStmt(array[i], values[i]);
 		}
 		return array;
 	}
 
 	public int mulBinaryOp(int index1, int index2) {
-		binaryOperations[consumedBinaryOps].setType(OperationType.mul, OperationType.add, false);
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(index1));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire, BigInteger.valueOf(index2));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire,
-				BigInteger.valueOf(universalIndex));
-
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 1]);
-
-		consumedBinaryOps++;
-		return universalIndex++;
+		return recordBinaryOp(BinaryOperationProgram.COMPUTE,
+				BinaryOperation.getRuntimeSpec(OperationType.mul, OperationType.add, false), null, index1, index2,
+				universalIndex++);
 	}
 
 	public void zeroBitwiseOp() {
-		bitwiseOperations[consumedIntegerBitwiseOps].setBitwiseOperationType(BitwiseOperationType.and);
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps].indexWire,
-				BigInteger.valueOf(zeroConstantIndex));
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 1].indexWire,
-				BigInteger.valueOf(zeroConstantIndex));
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 2].indexWire,
-				BigInteger.valueOf(zeroConstantIndex));
-
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps]);
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 1]);
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 2]);
-
-		consumedIntegerBitwiseOps++;
+		recordBitwiseOp(BitwiseOperationType.and, null, zeroConstantIndex, zeroConstantIndex, zeroConstantIndex);
 	}
 
 	public int bitwiseOp(int index1, int index2, BitwiseOperationType op) {
-		bitwiseOperations[consumedIntegerBitwiseOps].setBitwiseOperationType(op);
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps].indexWire, BigInteger.valueOf(index1));
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 1].indexWire,
-				BigInteger.valueOf(index2));
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 2].indexWire,
-				BigInteger.valueOf(universalIndex));
-
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps]);
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 1]);
-		consumedIntegerBitwiseOps++;
+		recordBitwiseOp(op, null, useIndex(index1), useIndex(index2), universalIndex);
 		return universalIndex++;
 	}
 
 	public int useBitwiseOpAsBinaryArithmeticOp(int index1, int index2, OperationType op) {
-		bitwiseOperations[consumedIntegerBitwiseOps].setArithmeticOperationTypeType(op);
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps].indexWire, BigInteger.valueOf(index1));
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 1].indexWire,
-				BigInteger.valueOf(index2));
-		evaluator.setWireValue(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 2].indexWire,
-				BigInteger.valueOf(universalIndex));
-
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps]);
-		evaluator.resolveEntry(bitwiseOpEntries[3 * consumedIntegerBitwiseOps + 1]);
-		consumedBinaryOps++;
+		recordBitwiseOp(null, op, useIndex(index1), useIndex(index2), universalIndex);
 		return universalIndex++;
 	}
 
 	public void zeroedBinaryOp() {
-		binaryOperations[consumedBinaryOps].setType(OperationType.add, OperationType.add, false);
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(zeroConstantIndex));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire,
-				BigInteger.valueOf(zeroConstantIndex));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire,
-				BigInteger.valueOf(zeroConstantIndex));
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 1]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 2]);
-		consumedBinaryOps++;
-		return;
+		recordBinaryOp(BinaryOperationProgram.CONSTRAINT,
+				BinaryOperation.getRuntimeSpec(OperationType.add, OperationType.add, false), null, zeroConstantIndex,
+				zeroConstantIndex, zeroConstantIndex);
 	}
 
 	public int addBinaryOp(int index1, int index2) {
-		binaryOperations[consumedBinaryOps].setType(OperationType.add, OperationType.add, false);
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(index1));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire, BigInteger.valueOf(index2));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire,
-				BigInteger.valueOf(universalIndex));
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 1]);
-		consumedBinaryOps++;
-		return universalIndex++;
+		return recordBinaryOp(BinaryOperationProgram.COMPUTE,
+				BinaryOperation.getRuntimeSpec(OperationType.add, OperationType.add, false), null, index1, index2,
+				universalIndex++);
 	}
 
 	public int isGreaterThan32(int index1, int index2) {
@@ -550,17 +944,63 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	}
 
 	public int makeConstant(int value) {
-		int v = mulBinaryOp(oneConstantIndex, oneConstantIndex);
-		binaryOperations[consumedBinaryOps - 1].getRuntimeSpec()[1] = BigInteger.valueOf(value);
-		return v;
+		return makeConstant(BigInteger.valueOf(value));
 	}
 
+	/**
+	 * Returns an index holding the given constant. A constant that is already
+	 * held by an index of the specification (e.g. by an earlier call) does not
+	 * need another operation.
+	 */
 	public int makeConstant(BigInteger value) {
+		Integer index = binaryProgram.getConstantIndex(value);
+		if (index != null) {
+			return index;
+		}
 		int v = mulBinaryOp(oneConstantIndex, oneConstantIndex);
-		binaryOperations[consumedBinaryOps - 1].getRuntimeSpec()[1] = value;
+		setRuntimeSpecEntryForBinaryOp(BinaryOperation.c2_INDEX, value);
 		return v;
 	}
 
+	/**
+	 * Returns indices holding the given constants. The constants that are not
+	 * held by an index yet are loaded by statement entries, which cost fewer
+	 * constraints than the opcode 1 operations of makeConstant(), so this is
+	 * useful for constants that are used many times or in large numbers. The
+	 * verifier supplies them as part of the statement. Later calls of
+	 * makeConstant() return the same indices.
+	 */
+	public int[] preloadConstants(BigInteger[] values) {
+		LinkedHashSet<BigInteger> newValues = new LinkedHashSet<>();
+		for (BigInteger value : values) {
+			if (binaryProgram.getConstantIndex(value) == null) {
+				newValues.add(value.mod(Config.FIELD_PRIME));
+			}
+		}
+		BigInteger[] loaded = newValues.toArray(new BigInteger[0]);
+		int[] loadedIndices = createStmtArray(loaded.length, loaded);
+		for (int i = 0; i < loaded.length; i++) {
+			binaryProgram.addConstant(loadedIndices[i], loaded[i]);
+		}
+		int[] indices = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			indices[i] = binaryProgram.getConstantIndex(values[i]);
+		}
+		return indices;
+	}
+
+	/**
+	 * Returns indices holding the constants 0, 1, .., n - 1 (see
+	 * preloadConstants()), e.g. for the addresses of a memory.
+	 */
+	public int[] preloadConstants(int n) {
+		BigInteger[] values = new BigInteger[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = BigInteger.valueOf(i);
+		}
+		return preloadConstants(values);
+	}
+
 	public int makeWitness() {
 		witnessIndices.add(universalIndex);
 		return universalIndex++;
@@ -583,144 +1023,47 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 	}
 
 	public int[] splitBinary(int index, int[] splitInfo) {
-
-		binaryOperations[consumedBinaryOps].useAsSplit(splitInfo);
 		int[] splitted = new int[] { universalIndex++, universalIndex++ };
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(splitted[0]));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire, BigInteger.valueOf(splitted[1]));
-
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire, index);
-
-		consumedBinaryOps++;
+		recordBinaryOp(BinaryOperationProgram.SPLIT, BinaryOperation.getSplitRuntimeSpec(splitInfo), splitInfo,
+				splitted[0], splitted[1], index);
 		return splitted;
 	}
 
 	public void addBinaryConstraint(int index1, int index2, int index3, OperationType op1, OperationType op2,
 			boolean usePrev) {
-
-		binaryOperations[consumedBinaryOps].setType(op1, op2, usePrev);
-
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(index1));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire, BigInteger.valueOf(index2));
-
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire, BigInteger.valueOf(index3));
-
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 1]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 2]);
-
-		consumedBinaryOps++;
+		recordBinaryOp(BinaryOperationProgram.CONSTRAINT, BinaryOperation.getRuntimeSpec(op1, op2, usePrev), null,
+				index1, index2, index3);
 	}
 
 	public int customBinaryOp(int index1, int index2, OperationType op1, OperationType op2, boolean usePrev) {
-		binaryOperations[consumedBinaryOps].setType(op1, op2, usePrev);
-
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps].indexWire, BigInteger.valueOf(index1));
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 1].indexWire, BigInteger.valueOf(index2));
-
-		evaluator.setWireValue(binaryOpEntries[3 * consumedBinaryOps + 2].indexWire,
-				BigInteger.valueOf(universalIndex));
-
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps]);
-		evaluator.resolveEntry(binaryOpEntries[3 * consumedBinaryOps + 1]);
-		consumedBinaryOps++;
-
-		return universalIndex++;
+		return recordBinaryOp(BinaryOperationProgram.COMPUTE, BinaryOperation.getRuntimeSpec(op1, op2, usePrev),
+				null, index1, index2, universalIndex++);
 	}
 
 	public int packBits(int[] bits) {
-
 		if (bits.length > 32) {
 			throw new UnsupportedOperationException();
 		}
-
-		splitOperations[consumedSplitOps].setOperation(true, Split32OperationUtil.getSplitCoefficients(),
-				Split32OperationUtil.getSplitCoefficients());
-		if (bits.length < 32) {
-			bits = Util.padIntArray(bits, 32, zeroConstantIndex);
-		}
-
-		for (int i = 0; i < 32; i++) {
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + i].indexWire,
-					BigInteger.valueOf(bits[i]));
-		}
-
-		int o1 = universalIndex;
-		int o2 = universalIndex + 1;
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire,
-				BigInteger.valueOf(o1));
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire,
-				BigInteger.valueOf(o2));
-
-		for (int i = 0; i < 4; i++) {
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire,
-					BigInteger.valueOf(o2 + 1 + i));
-		}
-
-		universalIndex = universalIndex + 6;
-		consumedSplitOps++;
+		bits = useIndices(bits);
+		int o1 = universalIndex++;
+		int o2 = universalIndex++;
+		recordSplitOp(Split32OperationUtil.getSplitCoefficients(), Split32OperationUtil.getSplitCoefficients(), bits,
+				o1, o2, newIndices(4));
 		return o1;
 	}
 
 	public void zeroSplitOp32() {
-
-		splitOperations[consumedSplitOps].setOperation(true, null, null);
-
-		for (int i = 0; i < 32; i++) {
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + i].indexWire,
-					BigInteger.valueOf(zeroConstantIndex));
-		}
-
-		int o1 = zeroConstantIndex;
-		int o2 = zeroConstantIndex;
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire,
-				BigInteger.valueOf(o1));
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire,
-				BigInteger.valueOf(o2));
-
-		for (int i = 0; i < 4; i++) {
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire,
-					BigInteger.valueOf(zeroConstantIndex));
-		}
-		consumedSplitOps++;
+		recordSplitOp(null, null, new int[0], zeroConstantIndex, zeroConstantIndex, new int[0]);
 	}
 
 	public int[] customOp3(int[] elements, boolean forceBinary, BigInteger[] set1, BigInteger[] set2) {
-
 		if (elements.length > 32) {
 			throw new UnsupportedOperationException();
 		}
-
-		splitOperations[consumedSplitOps].setOperation(true, set1, set2);
-		if (elements.length < 32) {
-			elements = Util.padIntArray(elements, 32, zeroConstantIndex);
-		}
-
-		for (int i = 0; i < 32; i++) {
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + i].indexWire,
-					BigInteger.valueOf(elements[i]));
-		}
-
-		int o1 = universalIndex;
-		int o2 = universalIndex + 1;
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire,
-				BigInteger.valueOf(o1));
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire,
-				BigInteger.valueOf(o2));
-
-		for (int i = 0; i < 4; i++) {
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire,
-					BigInteger.valueOf(o2 + 1 + i));
-		}
-
-		universalIndex = universalIndex + 6;
-		consumedSplitOps++;
+		elements = useIndices(elements);
+		int o1 = universalIndex++;
+		int o2 = universalIndex++;
+		recordSplitOp(set1, set2, elements, o1, o2, newIndices(4));
 		return new int[] { o1, o2 };
 	}
 
@@ -728,31 +1071,12 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		if (numBits != 32)
 			throw new UnsupportedOperationException();
 
-		splitOperations[consumedSplitOps].setOperation(true, Split32OperationUtil.getSplitCoefficients(),
-				Split32OperationUtil.getSplitCoefficients());
-		int[] bits = new int[32];
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire,
-				BigInteger.valueOf(index));
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire,
-				BigInteger.valueOf(universalIndex++));
-
-		for (int i = 0; i < 32; i++) {
-			bits[i] = universalIndex++;
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + i].indexWire,
-					BigInteger.valueOf(bits[i]));
-
-		}
-
-		int[] bytes = new int[4];
-		for (int i = 0; i < 4; i++) {
-			bytes[i] = universalIndex++;
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire,
-					BigInteger.valueOf(bytes[i]));
-
-		}
-		consumedSplitOps++;
+		index = useIndex(index);
+		int z2Index = universalIndex++;
+		int[] bits = newIndices(32);
+		int[] bytes = newIndices(4);
+		recordSplitOp(Split32OperationUtil.getSplitCoefficients(), Split32OperationUtil.getSplitCoefficients(), bits,
+				index, z2Index, bytes);
 		return bytes;
 	}
 
@@ -760,35 +1084,12 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		if (numBits != 32)
 			throw new UnsupportedOperationException();
 
-		splitOperations[consumedSplitOps].setOperation(true, Split32OperationUtil.getSplitCoefficients(), set2);
-		int[] result = new int[33];
-
-//		System.out.println("Setting Value1 = " + splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire);
-
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire,
-				BigInteger.valueOf(index));
-
+		index = useIndex(index);
 		int z2Index = universalIndex++;
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire,
-				BigInteger.valueOf(z2Index));
-
-		for (int i = 0; i < 32; i++) {
-			result[i] = universalIndex++;
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + i].indexWire,
-					BigInteger.valueOf(result[i]));
-
-		}
+		int[] bits = newIndices(32);
+		recordSplitOp(Split32OperationUtil.getSplitCoefficients(), set2, bits, index, z2Index, newIndices(4));
+		int[] result = Arrays.copyOf(bits, 33);
 		result[32] = z2Index;
-
-		int[] bytes = new int[4];
-		for (int i = 0; i < 4; i++) {
-			bytes[i] = universalIndex++;
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire,
-					BigInteger.valueOf(bytes[i]));
-
-		}
-
-		consumedSplitOps++;
 		return result;
 	}
 
@@ -796,39 +1097,113 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		if (numBits != 32)
 			throw new UnsupportedOperationException();
 
-		splitOperations[consumedSplitOps].setOperation(true, Split32OperationUtil.getSplitCoefficients(),
-				Split32OperationUtil.getSplitCoefficients());
-		int[] bits = new int[32];
-
-//		System.out.println("Setting Value1 = " + splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire);
+		index = useIndex(index);
+		int z2Index = universalIndex++;
+		int[] bits = newIndices(32);
+		recordSplitOp(Split32OperationUtil.getSplitCoefficients(), Split32OperationUtil.getSplitCoefficients(), bits,
+				index, z2Index, newIndices(4));
+		return bits;
+	}
 
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 32].indexWire,
-				BigInteger.valueOf(index));
+	private int[] newIndices(int n) {
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = universalIndex++;
+		}
+		return indices;
+	}
 
-//		System.out.println("Setting Value2 = " + splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire);
+	/*
+	 * The records of a specification are written by the following methods.
+	 * The methods above only assign the universal indices and call them, so
+	 * that the profiler, which overrides them to count the records, consumes
+	 * the same indices as this generator.
+	 */
+
+	/**
+	 * Writes the next statement record. The value is null for an output,
+	 * which is computed by the circuit.
+	 */
+	protected void recordStmt(int index, BigInteger value) {
+		evaluator.setWireValue(stmtEntries[consumedStmt].indexWire, BigInteger.valueOf(index));
+		if (value != null) {
+			evaluator.setWireValue(stmtEntries[consumedStmt].valueWire, value);
+		}
+		evaluator.resolveEntry(stmtEntries[consumedStmt]);
+		consumedStmt++;
+	}
 
-		evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 33].indexWire,
-				BigInteger.valueOf(universalIndex++));
+	/**
+	 * Writes the next opcode 2 record, which is either a bitwise or an
+	 * arithmetic operation. The output of a zeroed operation is the zero
+	 * constant, and is resolved as well.
+	 */
+	protected void recordBitwiseOp(BitwiseOperationType bitwiseType, OperationType arithmeticType, int index1,
+			int index2, int index3) {
+		if (bitwiseType != null) {
+			bitwiseOperations[consumedIntegerBitwiseOps].setBitwiseOperationType(bitwiseType);
+		} else {
+			bitwiseOperations[consumedIntegerBitwiseOps].setArithmeticOperationTypeType(arithmeticType);
+		}
+		int i = 3 * consumedIntegerBitwiseOps;
+		evaluator.setWireValue(bitwiseOpEntries[i].indexWire, BigInteger.valueOf(index1));
+		evaluator.setWireValue(bitwiseOpEntries[i + 1].indexWire, BigInteger.valueOf(index2));
+		evaluator.setWireValue(bitwiseOpEntries[i + 2].indexWire, BigInteger.valueOf(index3));
+
+		evaluator.resolveEntry(bitwiseOpEntries[i]);
+		evaluator.resolveEntry(bitwiseOpEntries[i + 1]);
+		if (index3 == zeroConstantIndex) {
+			evaluator.resolveEntry(bitwiseOpEntries[i + 2]);
+		}
+		consumedIntegerBitwiseOps++;
+	}
 
+	/**
+	 * Writes the next opcode 3 record: the 32 elements, the two packed values
+	 * and the four bytes. Missing elements and bytes are the zero constant.
+	 */
+	protected void recordSplitOp(BigInteger[] set1, BigInteger[] set2, int[] elements, int z1, int z2, int[] bytes) {
+		splitOperations[consumedSplitOps].setOperation(true, set1, set2);
+		elements = Util.padIntArray(elements, 32, zeroConstantIndex);
+		bytes = Util.padIntArray(bytes, 4, zeroConstantIndex);
+		int offset = Split32Operation.NUM_ENTRIES * consumedSplitOps;
 		for (int i = 0; i < 32; i++) {
-			bits[i] = universalIndex++;
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + i].indexWire,
-					BigInteger.valueOf(bits[i]));
-
+			evaluator.setWireValue(splitOpEntries[offset + i].indexWire, BigInteger.valueOf(elements[i]));
 		}
-
-		int[] bytes = new int[4];
+		evaluator.setWireValue(splitOpEntries[offset + 32].indexWire, BigInteger.valueOf(z1));
+		evaluator.setWireValue(splitOpEntries[offset + 33].indexWire, BigInteger.valueOf(z2));
 		for (int i = 0; i < 4; i++) {
-//			System.out.println("Setting wire = " + splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire);
+			evaluator.setWireValue(splitOpEntries[offset + 34 + i].indexWire, BigInteger.valueOf(bytes[i]));
+		}
+		consumedSplitOps++;
+	}
 
-			bytes[i] = universalIndex++;
-			evaluator.setWireValue(splitOpEntries[Split32Operation.NUM_ENTRIES * consumedSplitOps + 34 + i].indexWire,
-					BigInteger.valueOf(bytes[i]));
+	protected void recordMemoryRead(String name, int index, int output) {
+		int numRegistered = memoryLookupOpHandler.getRegisteredInstructions();
+		evaluator.setWireValue(memoryEntries[numRegistered][1].indexWire, output);
+		memoryLookupOpHandler.addReadOperation(name, index);
+	}
 
-		}
+	/**
+	 * Writes the next memory record of a write, which is enabled if the value
+	 * of the write flag index is one.
+	 */
+	protected void recordMemoryWrite(String name, int index, int value, int writeFlag) {
+		memoryLookupOpHandler.addWriteOperation(name, index, value, writeFlag);
+	}
 
-		consumedSplitOps++;
-		return bits;
+	/**
+	 * Returns a new witness index holding the current value of the given
+	 * memory entry, see MemoryLookupOpHandler.addValueWitness().
+	 */
+	protected int makeMemoryValueWitness(String name, int index) {
+		return memoryLookupOpHandler.addValueWitness(name, index);
+	}
+
+	protected void recordTableLookup(String name, int index, int output) {
+		int numRegistered = tableLookupOpHandler.getRegisteredLookups();
+		evaluator.setWireValue(tableEntries[numRegistered][1].indexWire, output);
+		tableLookupOpHandler.addLookup(name, index);
 	}
 
 	public int getZeroIndex() {
@@ -855,8 +1230,16 @@ public class UniversalCircuitGenerator extends CircuitGenerator {
 		return memoryLookupOpHandler;
 	}
 
+	public TableLookupOpHandler getTableLookupOpHandler() {
+		return tableLookupOpHandler;
+	}
+
+	/**
+	 * Changes the runtime spec of the last opcode 1 operation, which must be
+	 * called right after that operation.
+	 */
 	public void setRuntimeSpecEntryForBinaryOp(int index, BigInteger c) {
-		binaryOperations[consumedBinaryOps - 1].getRuntimeSpec()[index] = c;
+		binaryProgram.getPendingRecord().runtimeSpec[index] = c;
 	}
 
 	public void forceBitwidth(int index, int bitwidth) {
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package universal;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Chooses the parameters of one universal circuit for a fixed mix of
+ * programs, given the profile of each program (see UniversalCircuitProfiler),
+ * and reports how much of the circuit each program uses.
+ *
+ * The search starts from the maximum of every parameter over the programs
+ * (see UniversalCircuitProfile.max()), which supports all of them. Opcode 1
+ * operations can spill into spare opcode 2 slots (see
+ * UniversalCircuitGenerator.finalizeSpecification()), so the number of opcode 1
+ * operations is then reduced as long as every program can assign the rest of
+ * its opcode 1 operations to spare opcode 2 slots (see
+ * UniversalCircuitProfile.supports()).
+ *
+ */
+public class UniversalCircuitMixOptimizer {
+
+	private static final String[] PARAMETER_NAMES = { "stmt", "op1", "op2", "op3", "memory size", "op4", "table size",
+			"op5" };
+
+	private ArrayList<String> names = new ArrayList<>();
+	private ArrayList<UniversalCircuitProfile> profiles = new ArrayList<>();
+
+	public void addProgram(String name, UniversalCircuitProfile profile) {
+		names.add(name);
+		profiles.add(profile);
+	}
+
+	/**
+	 * Profiles a program by running its specification against a new
+	 * UniversalCircuitProfiler, e.g. g -> new AES128Specifier(g).setInputToUniversalCircuit().
+	 */
+	public void addProgram(String name, Consumer<UniversalCircuitGenerator> specification) {
+		UniversalCircuitProfiler profiler = new UniversalCircuitProfiler();
+		specification.accept(profiler);
+		for (UniversalCircuitProfile profile : profiler.getProfiles()) {
+			addProgram(name, profile);
+		}
+	}
+
+	/**
+	 * Returns the shape with the least constraints that supports all the
+	 * programs, among the maximum of their requirements with fewer opcode 1
+	 * operations.
+	 */
+	public UniversalCircuitProfile getShape() {
+		if (profiles.isEmpty()) {
+			throw new IllegalStateException("No programs were added");
+		}
+		UniversalCircuitProfile best = UniversalCircuitProfile.max(profiles);
+		long bestNumOfConstraints = best.getNumOfConstraints();
+		for (int numBinary = best.numBinary - 1; numBinary >= 0; numBinary--) {
+			UniversalCircuitProfile candidate = best.withNumBinary(numBinary);
+			if (!supportsAll(candidate)) {
+				// fewer opcode 1 operations would not support the programs either
+				break;
+			}
+			long numOfConstraints = candidate.getNumOfConstraints();
+			if (numOfConstraints < bestNumOfConstraints) {
+				best = candidate;
+				bestNumOfConstraints = numOfConstraints;
+			}
+		}
+		return best;
+	}
+
+	private boolean supportsAll(UniversalCircuitProfile shape) {
+		for (UniversalCircuitProfile profile : profiles) {
+			if (!shape.supports(profile)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public UniversalCircuitGenerator createGenerator(String circuitName) {
+		return getShape().createGenerator(circuitName);
+	}
+
+	public void printReport(String circuitName) {
+		UniversalCircuitProfile shape = getShape();
+		long numOfConstraints = shape.getNumOfConstraints();
+		int[] params = shape.toArray();
+
+		System.out.println("Universal circuit for " + profiles.size() + " program(s):");
+		System.out.println("\tnew UniversalCircuitGenerator(\"" + circuitName + "\", " + shape + ")");
+		System.out.println("\tTotal Number of Constraints = " + numOfConstraints);
+
+		for (int i = 0; i < profiles.size(); i++) {
+			UniversalCircuitProfile profile = profiles.get(i);
+			int[] used = profile.toArray();
+			// the opcode 1 operations that do not fit are assigned to opcode 2 slots
+			int spilled = Math.max(0, used[1] - params[1]);
+			used[1] -= spilled;
+			used[2] += spilled;
+			StringBuilder utilization = new StringBuilder();
+			for (int j = 0; j < params.length; j++) {
+				if (params[j] != 0) {
+					utilization.append(utilization.length() == 0 ? "" : ", ").append(PARAMETER_NAMES[j]).append(" ")
+							.append(used[j] * 100L / params[j]).append("%");
+				}
+			}
+			long dedicated = profile.getNumOfConstraints();
+			System.out.println("Program < " + names.get(i) + " > [" + profile + "]");
+			System.out.println("\tUtilization: " + utilization
+					+ (spilled == 0 ? "" : " (" + spilled + " opcode 1 operations in opcode 2 slots)"));
+			System.out.println("\tConstraints of a dedicated universal circuit = " + dedicated + " ("
+					+ dedicated * 100 / numOfConstraints + "% of the shared circuit)");
+		}
+	}
+
+}
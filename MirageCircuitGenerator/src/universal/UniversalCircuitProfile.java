@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package universal;
+
+import java.util.Collection;
+
+import universal.opcodes.opcode1.BinaryOperation;
+import universal.opcodes.opcode2.IntegerBitwiseOperation;
+import universal.opcodes.opcode3.Split32Operation;
+import universal.opcodes.opcode4.MemoryLookupOpHandler;
+import universal.opcodes.opcode5.TableLookupOpHandler;
+
+/**
+ * The parameters of a universal circuit, in the order of the arguments of the
+ * UniversalCircuitGenerator constructor. A profile is either the shape of a
+ * circuit, or the smallest shape that supports a specification (see
+ * UniversalCircuitProfiler).
+ *
+ */
+public class UniversalCircuitProfile {
+
+	// the number of constraints of one statement record, and of a circuit
+	// without any records or operations
+	private static final int STMT_NUM_CONSTRAINTS = 5;
+	private static final int BASE_NUM_CONSTRAINTS = 6;
+
+	public final int stmtSize;
+	public final int numBinary;
+	public final int numBitwise;
+	public final int numSplits;
+	public final int totalMemorySize;
+	public final int totalNumberOfLookups;
+	public final int totalTableSize;
+	public final int totalNumberOfTableLookups;
+
+	// the number of opcode 1 operations of a profiled specification that can be
+	// assigned to spare opcode 2 slots (zero for the shape of a circuit)
+	public final int numSpillableBinary;
+
+	public UniversalCircuitProfile(int stmtSize, int numBinary, int numBitwise, int numSplits, int totalMemorySize,
+			int totalNumberOfLookups, int totalTableSize, int totalNumberOfTableLookups) {
+		this(stmtSize, numBinary, numBitwise, numSplits, totalMemorySize, totalNumberOfLookups, totalTableSize,
+				totalNumberOfTableLookups, 0);
+	}
+
+	public UniversalCircuitProfile(int stmtSize, int numBinary, int numBitwise, int numSplits, int totalMemorySize,
+			int totalNumberOfLookups, int totalTableSize, int totalNumberOfTableLookups, int numSpillableBinary) {
+		this.stmtSize = stmtSize;
+		this.numBinary = numBinary;
+		this.numBitwise = numBitwise;
+		this.numSplits = numSplits;
+		this.totalMemorySize = totalMemorySize;
+		this.totalNumberOfLookups = totalNumberOfLookups;
+		this.totalTableSize = totalTableSize;
+		this.totalNumberOfTableLookups = totalNumberOfTableLookups;
+		this.numSpillableBinary = numSpillableBinary;
+	}
+
+	/**
+	 * Returns the maximum of every parameter over the given profiles, which
+	 * supports all of them. UniversalCircuitMixOptimizer starts from this shape
+	 * and removes the opcode 1 operations that are not needed.
+	 */
+	public static UniversalCircuitProfile max(Collection<UniversalCircuitProfile> profiles) {
+		if (profiles.isEmpty()) {
+			throw new IllegalArgumentException("No profiles");
+		}
+		int[] max = new int[8];
+		for (UniversalCircuitProfile p : profiles) {
+			int[] params = p.toArray();
+			for (int i = 0; i < max.length; i++) {
+				max[i] = Math.max(max[i], params[i]);
+			}
+		}
+		return new UniversalCircuitProfile(max[0], max[1], max[2], max[3], max[4], max[5], max[6], max[7]);
+	}
+
+	/**
+	 * Returns whether a universal circuit of this shape supports the given
+	 * profiled specification. The opcode 1 operations that do not fit in the
+	 * opcode 1 slots must be spillable, and fit in the spare opcode 2 slots
+	 * (see UniversalCircuitGenerator.finalizeSpecification()).
+	 */
+	public boolean supports(UniversalCircuitProfile program) {
+		int[] params = toArray();
+		int[] required = program.toArray();
+		for (int i = 0; i < params.length; i++) {
+			if (i != 1 && params[i] < required[i]) {
+				return false;
+			}
+		}
+		int overflow = program.numBinary - numBinary;
+		return overflow <= Math.min(numBitwise - program.numBitwise, program.numSpillableBinary);
+	}
+
+	/**
+	 * Returns this shape with the given number of opcode 1 operations.
+	 */
+	public UniversalCircuitProfile withNumBinary(int numBinary) {
+		return new UniversalCircuitProfile(stmtSize, numBinary, numBitwise, numSplits, totalMemorySize,
+				totalNumberOfLookups, totalTableSize, totalNumberOfTableLookups);
+	}
+
+	/**
+	 * Returns the number of constraints of a universal circuit of this shape,
+	 * without building it.
+	 */
+	public long getNumOfConstraints() {
+		return BASE_NUM_CONSTRAINTS + (long) STMT_NUM_CONSTRAINTS * stmtSize
+				+ (long) BinaryOperation.NUM_CONSTRAINTS * numBinary
+				+ (long) IntegerBitwiseOperation.NUM_CONSTRAINTS * numBitwise
+				+ (long) Split32Operation.NUM_CONSTRAINTS * numSplits
+				+ MemoryLookupOpHandler.getNumConstraints(totalMemorySize, totalNumberOfLookups)
+				+ TableLookupOpHandler.getNumConstraints(totalTableSize, totalNumberOfTableLookups);
+	}
+
+	/**
+	 * Returns this shape with every parameter multiplied by the given factor,
+	 * e.g. to measure how the costs grow with the size of the circuit.
+	 */
+	public UniversalCircuitProfile scale(int factor) {
+		int[] params = toArray();
+		for (int i = 0; i < params.length; i++) {
+			params[i] *= factor;
+		}
+		return new UniversalCircuitProfile(params[0], params[1], params[2], params[3], params[4], params[5], params[6],
+				params[7]);
+	}
+
+	public UniversalCircuitGenerator createGenerator(String circuitName) {
+		return new UniversalCircuitGenerator(circuitName, stmtSize, numBinary, numBitwise, numSplits, totalMemorySize,
+				totalNumberOfLookups, totalTableSize, totalNumberOfTableLookups);
+	}
+
+	public int[] toArray() {
+		return new int[] { stmtSize, numBinary, numBitwise, numSplits, totalMemorySize, totalNumberOfLookups,
+				totalTableSize, totalNumberOfTableLookups };
+	}
+
+	/**
+	 * Returns the parameters as the arguments of the UniversalCircuitGenerator
+	 * constructor, after the circuit name.
+	 */
+	@Override
+	public String toString() {
+		return stmtSize + ", " + numBinary + ", " + numBitwise + ", " + numSplits + ", " + totalMemorySize + ", "
+				+ totalNumberOfLookups + ", " + totalTableSize + ", " + totalNumberOfTableLookups;
+	}
+
+}
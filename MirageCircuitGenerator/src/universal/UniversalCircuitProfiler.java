@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package universal;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import universal.opcodes.opcode1.BinaryOperationProgram;
+import universal.opcodes.opcode1.OperationType;
+import universal.opcodes.opcode2.BitwiseOperationType;
+
+/**
+ * A dry run of specifications, to find the smallest universal circuit that
+ * supports them. The profiler is passed to a specifier instead of a universal
+ * circuit generator. It does not build a circuit, and it only counts the
+ * records/ops that each specification consumes, including the ones consumed
+ * by finalizeSpecification(). The universal indices are assigned by the
+ * methods of UniversalCircuitGenerator, and the profiler only overrides the
+ * methods that write the records (e.g. recordSplitOp()) to count them. The
+ * opcode 1 operations are recorded and optimized as in
+ * UniversalCircuitGenerator, so that only the ones that need a slot are
+ * counted.
+ *
+ * Several specifications can be profiled one after the other (each one
+ * starting with prepareForSpecification()). The shape returned by
+ * createGenerator() is then the smallest one found that supports all of them
+ * (see UniversalCircuitMixOptimizer), so that no slots are wasted on
+ * operations that are only zeroed by fillEmpty().
+ *
+ * Example:
+ *
+ * <pre>
+ * UniversalCircuitProfiler profiler = new UniversalCircuitProfiler();
+ * new AES128Specifier(profiler).setInputToUniversalCircuit();
+ * UniversalCircuitGenerator generator = profiler.createGenerator("UnivCircuit_AES");
+ * </pre>
+ */
+public class UniversalCircuitProfiler extends UniversalCircuitGenerator {
+
+	// the requirements of the current specification
+	private int stmt;
+	private int binary;
+	private int spillableBinary;
+	private int bitwise;
+	private int splits;
+	private int memorySize;
+	private int memoryLookups;
+	private int tableSize;
+	private int tableLookups;
+
+	// the smallest shapes that support each of the profiled specifications
+	private ArrayList<UniversalCircuitProfile> profiles = new ArrayList<>();
+
+	public UniversalCircuitProfiler() {
+		super("profiler", 0, 0, 0, 0, 0, 0);
+		setStreamingMode(false);
+		// only the constant wires are created, so that specifiers can still
+		// assign values to the universal indices through the evaluator
+		initCircuitConstruction();
+	}
+
+	@Override
+	protected void buildCircuit() {
+		throw new UnsupportedOperationException("The profiler does not build a circuit, see createGenerator()");
+	}
+
+	@Override
+	public void prepareForSpecification() {
+		resetIndices();
+		stmt = 0;
+		binary = 0;
+		spillableBinary = 0;
+		bitwise = 0;
+		splits = 0;
+		memorySize = 0;
+		memoryLookups = 0;
+		tableSize = 0;
+		tableLookups = 0;
+		setUniversalCircuitEvaluator(new UniversalCircuitEvaluator(this));
+	}
+
+	@Override
+	public void finalizeSpecification() {
+		specifyRemainingConstraints();
+		// the fillers are not evaluated, so their order does not matter
+		List<BinaryOperationProgram.Record> scheduled = scheduleBinaryOperations(() -> 0);
+		binary += scheduled.size();
+		for (BinaryOperationProgram.Record r : scheduled) {
+			if (r.fitsIntegerBitwiseOperation()) {
+				spillableBinary++;
+			}
+		}
+
+		// one more entry for the null memory/table that fills the unused lookups
+		profiles.add(new UniversalCircuitProfile(stmt, binary, bitwise, splits, memoryLookups == 0 ? 0 : memorySize + 1,
+				memoryLookups, tableLookups == 0 ? 0 : tableSize + 1, tableLookups, spillableBinary));
+
+		System.out.println("Required records/ops [stmt, op1, op2, op3, op4, op5] = " + stmt + "," + binary + ","
+				+ bitwise + ", " + splits + ", " + memoryLookups + ", " + tableLookups + " (memory size = "
+				+ memorySize + ", table size = " + tableSize + ", " + spillableBinary
+				+ " op1 can use spare op2 slots)");
+	}
+
+	/**
+	 * Returns a generator of a universal circuit that supports all the
+	 * profiled specifications, see getShape().
+	 */
+	public UniversalCircuitGenerator createGenerator(String circuitName) {
+		return getShape().createGenerator(circuitName);
+	}
+
+	/**
+	 * Returns the smallest shape found that supports all the profiled
+	 * specifications, see UniversalCircuitMixOptimizer.getShape().
+	 */
+	public UniversalCircuitProfile getShape() {
+		if (profiles.isEmpty()) {
+			throw new IllegalStateException("No specification was profiled");
+		}
+		UniversalCircuitMixOptimizer optimizer = new UniversalCircuitMixOptimizer();
+		for (int i = 0; i < profiles.size(); i++) {
+			optimizer.addProgram("specification " + i, profiles.get(i));
+		}
+		return optimizer.getShape();
+	}
+
+	/**
+	 * Returns the smallest shape that supports each of the profiled
+	 * specifications, in their order.
+	 */
+	public ArrayList<UniversalCircuitProfile> getProfiles() {
+		return profiles;
+	}
+
+	public void printShape() {
+		UniversalCircuitProfile shape = getShape();
+		System.out.println("Universal circuit shape for " + profiles.size() + " specification(s) [stmt, op1, op2, op3, "
+				+ "memory size, op4, table size, op5] = " + shape + " (" + shape.getNumOfConstraints()
+				+ " constraints)");
+	}
+
+	@Override
+	public String getCompiledCircuitFileName() {
+		throw new UnsupportedOperationException("The profiler does not build a circuit, see createGenerator()");
+	}
+
+	@Override
+	public void registerMemory(String name, int size) {
+		memorySize += size;
+	}
+
+	@Override
+	public void registerTable(String name, BigInteger[] values) {
+		tableSize += values.length;
+	}
+
+	@Override
+	protected void recordStmt(int index, BigInteger value) {
+		stmt++;
+	}
+
+	@Override
+	protected void recordBitwiseOp(BitwiseOperationType bitwiseType, OperationType arithmeticType, int index1,
+			int index2, int index3) {
+		bitwise++;
+	}
+
+	@Override
+	protected void recordSplitOp(BigInteger[] set1, BigInteger[] set2, int[] elements, int z1, int z2, int[] bytes) {
+		splits++;
+	}
+
+	@Override
+	protected void recordMemoryRead(String name, int index, int output) {
+		memoryLookups++;
+	}
+
+	@Override
+	protected void recordMemoryWrite(String name, int index, int value, int writeFlag) {
+		memoryLookups++;
+	}
+
+	@Override
+	protected int makeMemoryValueWitness(String name, int index) {
+		return makeWitness();
+	}
+
+	@Override
+	protected void recordTableLookup(String name, int index, int output) {
+		tableLookups++;
+	}
+
+}
@@ -11,7 +11,8 @@ import jsnark.circuit.structure.CircuitGenerator;
 import jsnark.circuit.structure.Wire;
 import universal.UniversalCircuitGenerator;
 
-public class OpEntry implements Comparable<OpEntry>{
+public class OpEntry implements Comparable<OpEntry> {
+
 	
 	public Wire indexWire;
 	public Wire valueWire;
@@ -4,10 +4,14 @@
 
 package universal.opcodes.opcode1;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 import jsnark.circuit.config.Config;
 import jsnark.circuit.eval.CircuitEvaluator;
+import jsnark.circuit.eval.FieldArithmetic;
 import jsnark.circuit.eval.Instruction;
 import jsnark.circuit.operations.Gadget;
 import jsnark.circuit.structure.Wire;
@@ -18,6 +22,10 @@ import universal.opcodes.OpEntry;
 
 public class BinaryOperation extends Gadget {
 
+	// the number of constraints of one operation in the universal circuit,
+	// including the permutation check of its entries
+	public static final int NUM_CONSTRAINTS = 26;
+
 	private int runtimeOperationOrder = -1;
 	private OpEntry z1;
 	private OpEntry z2;
@@ -56,6 +64,7 @@ public class BinaryOperation extends Gadget {
 	private Wire cPrevAdd2;
 	private Wire cPrevAdd3;
 	private BigInteger[] runtimeSpec;
+	private long[][] runtimeSpecLimbs; // c2 and c4 in the Montgomery form
 	private int[] splitInfo;
 
 	public BinaryOperation(OpEntry z1, OpEntry z2, OpEntry z3, Wire prev, BigInteger[] runtimeSpec) {
@@ -64,11 +73,13 @@ public class BinaryOperation extends Gadget {
 		this.z3 = z3;
 		this.prev = prev;
 		this.runtimeSpec = runtimeSpec;
+		updateRuntimeSpecLimbs();
 		buildCircuit();
 	}
 
 	public void useRand() {
 		runtimeSpec[runtimeSpec.length - 1] = BigInteger.ONE;
+		updateRuntimeSpecLimbs();
 	}
 
 	public BinaryOperation(OpEntry z1, OpEntry z2, OpEntry z3, Wire prev) {
@@ -79,6 +90,39 @@ public class BinaryOperation extends Gadget {
 		buildCircuit();
 	}
 
+	/**
+	 * Restores an operation of a compiled circuit that is being loaded, from
+	 * what writeSkeleton() wrote.
+	 */
+	public BinaryOperation(OpEntry z1, OpEntry z2, OpEntry z3, Wire prev, ByteBuffer in) {
+		this.z1 = z1;
+		this.z2 = z2;
+		this.z3 = z3;
+		this.prev = prev;
+		Wire[] specWires = generator.getRestoredWires(in.getInt(), 12);
+		c1 = specWires[c1_INDEX];
+		c2 = specWires[c2_INDEX];
+		c3 = specWires[c3_INDEX];
+		c4 = specWires[c4_INDEX];
+		c5 = specWires[c5_INDEX];
+		opSelector11 = specWires[opSelector11_INDEX];
+		opSelector2 = specWires[opSelector2_INDEX];
+		usePrev = specWires[usePrev_INDEX];
+		cPrevAdd1 = specWires[cPrevAdd1_INDEX];
+		cPrevAdd2 = specWires[cPrevAdd2_INDEX];
+		cPrevAdd3 = specWires[cPrevAdd3_INDEX];
+		opSelector12 = specWires[opSelector12_INDEX];
+		specifyWitnessComputation();
+	}
+
+	/**
+	 * Writes the id of the first specification wire of the operation, as the
+	 * twelve are consecutive (in the order of the indices above).
+	 */
+	public void writeSkeleton(DataOutputStream out) throws IOException {
+		out.writeInt(c1.getWireId());
+	}
+
 	private void buildCircuit() {
 		// TODO Auto-generated method stub
 		c1 = generator.createSpecWire();
@@ -95,6 +139,31 @@ public class BinaryOperation extends Gadget {
 		cPrevAdd3 = generator.createSpecWire();
 		opSelector12 = generator.createSpecWire();
 
+		specifyWitnessComputation();
+
+		Wire c2_z1 = c2.mul(z1.valueWire);
+		Wire c4_z2 = c4.mul(z2.valueWire);
+
+		Wire leftSum = c1.add(c2_z1);
+		Wire rightSum = c3.add(c4_z2);
+		Wire product1 = leftSum.mul(rightSum).add(c5);
+		Wire sum1 = leftSum.add(rightSum).add(c5);
+
+		Wire isEqual = c2_z1.isEqualTo(c4_z2);
+		Wire isNotEqual = isEqual.invAsBit();
+
+		Wire result11 = sum1.add(opSelector11.mul(product1.sub(sum1)));
+		Wire result12 = isNotEqual.add(opSelector11.mul(isEqual.sub(isNotEqual)));
+		Wire result1 = result11.add(opSelector12.mul(result12.sub(result11)));
+
+		Wire product2 = result1.add(cPrevAdd1).mul(prev.add(cPrevAdd2)).add(cPrevAdd3);
+		Wire sum2 = result1.add(cPrevAdd1).add(prev.add(cPrevAdd2)).add(cPrevAdd3);
+		Wire result2 = sum2.add(opSelector2.mul(product2.sub(sum2)));
+
+		generator.addAssertion(usePrev, result2.sub(result1), z3.valueWire.sub(result1), "Binary operation check");
+	}
+
+	private void specifyWitnessComputation() {
 		generator.specifyProverWitnessComputation(new Instruction() {
 
 			@Override
@@ -118,7 +187,12 @@ public class BinaryOperation extends Gadget {
 				evaluator.setWireValue(cPrevAdd3, runtimeSpec[10]);
 				evaluator.setWireValue(opSelector12, runtimeSpec[11]); // TODO: change order of opSelector12
 
-				if (splitInfo != null) {
+				if (splitInfo != null && evaluator.getAssignment().isPacked()) {
+					univEvaluator.resolveEntry(z3);
+					splitInField(evaluator);
+					univEvaluator.resolveEntry(z1);
+					univEvaluator.resolveEntry(z2);
+				} else if (splitInfo != null) {
 					univEvaluator.resolveEntry(z3);
 					BigInteger z3Value = evaluator.getWireValue(z3.valueWire);
 
@@ -142,7 +216,10 @@ public class BinaryOperation extends Gadget {
 					univEvaluator.resolveEntry(z1);
 					univEvaluator.resolveEntry(z2);
 
-					if (evaluator.getWireValue(z3.valueWire) == null) {
+					if (evaluator.getWireValue(z3.valueWire) == null && evaluator.getAssignment().isPacked()) {
+						computeInField(evaluator);
+						univEvaluator.resolveEntry(z3);
+					} else if (evaluator.getWireValue(z3.valueWire) == null) {
 
 						BigInteger v1 = runtimeSpec[0]
 								.add(runtimeSpec[1].multiply(evaluator.getWireValue(z1.valueWire)));
@@ -190,30 +267,19 @@ public class BinaryOperation extends Gadget {
 			}
 
 		});
-
-		Wire c2_z1 = c2.mul(z1.valueWire);
-		Wire c4_z2 = c4.mul(z2.valueWire);
-
-		Wire leftSum = c1.add(c2_z1);
-		Wire rightSum = c3.add(c4_z2);
-		Wire product1 = leftSum.mul(rightSum).add(c5);
-		Wire sum1 = leftSum.add(rightSum).add(c5);
-
-		Wire isEqual = c2_z1.isEqualTo(c4_z2);
-		Wire isNotEqual = isEqual.invAsBit();
-
-		Wire result11 = sum1.add(opSelector11.mul(product1.sub(sum1)));
-		Wire result12 = isNotEqual.add(opSelector11.mul(isEqual.sub(isNotEqual)));
-		Wire result1 = result11.add(opSelector12.mul(result12.sub(result11)));
-
-		Wire product2 = result1.add(cPrevAdd1).mul(prev.add(cPrevAdd2)).add(cPrevAdd3);
-		Wire sum2 = result1.add(cPrevAdd1).add(prev.add(cPrevAdd2)).add(cPrevAdd3);
-		Wire result2 = sum2.add(opSelector2.mul(product2.sub(sum2)));
-
-		generator.addAssertion(usePrev, result2.sub(result1), z3.valueWire.sub(result1), "Binary operation check");
 	}
 
 	public void setType(OperationType operationType1, OperationType operationType2, boolean usePrev) {
+		register();
+		runtimeSpec = getRuntimeSpec(operationType1, operationType2, usePrev);
+		updateRuntimeSpecLimbs();
+	}
+
+	/**
+	 * Returns the runtime spec vector of an operation of the given types.
+	 */
+	public static BigInteger[] getRuntimeSpec(OperationType operationType1, OperationType operationType2,
+			boolean usePrev) {
 
 		BigInteger zero = BigInteger.ZERO;
 		BigInteger one = BigInteger.ONE;
@@ -293,26 +359,56 @@ public class BinaryOperation extends Gadget {
 				}
 			}
 		}
-		register();
-		runtimeSpec = new BigInteger[] { constSet1[0], constSet1[1], constSet1[2], constSet1[3], constSet1[4],
-				selector1, selector2, usePrevInput, constSet2[0], constSet2[1], constSet2[2],
+		return new BigInteger[] { constSet1[0], constSet1[1], constSet1[2], constSet1[3], constSet1[4], selector1,
+				selector2, usePrevInput, constSet2[0], constSet2[1], constSet2[2],
 				equalOp ? BigInteger.ONE : BigInteger.ZERO };
-
 	}
 
 	public void useAsSplit(int[] splitInfo) {
+		runtimeSpec = getSplitRuntimeSpec(splitInfo);
+		updateRuntimeSpecLimbs();
+		this.splitInfo = splitInfo;
+		register();
+	}
+
+	public static BigInteger[] getSplitRuntimeSpec(int[] splitInfo) {
 		if (splitInfo.length != 2) {
 			throw new IllegalArgumentException();
 		}
-		this.splitInfo = splitInfo;
 		BigInteger zero = BigInteger.ZERO;
 		BigInteger one = BigInteger.ONE;
 
-		runtimeSpec = new BigInteger[] { zero, one, zero, one.shiftLeft(splitInfo[0]), zero, zero, zero, zero, zero,
-				zero, zero, zero };
+		return new BigInteger[] { zero, one, zero, one.shiftLeft(splitInfo[0]), zero, zero, zero, zero, zero, zero,
+				zero, zero };
+	}
 
-		register();
+	/**
+	 * Sets the operation of this slot, with an operation order that was taken
+	 * from globalRuntimeCounter when the operation was specified (see
+	 * BinaryOperationProgram).
+	 */
+	public void setOperation(BigInteger[] runtimeSpec, int[] splitInfo, int operationOrder) {
+		this.runtimeSpec = runtimeSpec;
+		updateRuntimeSpecLimbs();
+		this.splitInfo = splitInfo;
+		runtimeOperationOrder = operationOrder;
+	}
 
+	// Converts the runtime spec once, so that evaluations in the field do not
+	// convert it again. The multipliers of the inputs are kept in the
+	// Montgomery form, and cost a single Montgomery multiplication each.
+	private void updateRuntimeSpecLimbs() {
+		if (runtimeSpec == null) {
+			runtimeSpecLimbs = null;
+			return;
+		}
+		FieldArithmetic field = FieldArithmetic.forCurrentThread();
+		runtimeSpecLimbs = new long[runtimeSpec.length][FieldArithmetic.NUM_LIMBS];
+		for (int i = 0; i < runtimeSpec.length; i++) {
+			field.fromBigInteger(runtimeSpec[i], runtimeSpecLimbs[i]);
+		}
+		field.toMontgomery(runtimeSpecLimbs[c2_INDEX], runtimeSpecLimbs[c2_INDEX]);
+		field.toMontgomery(runtimeSpecLimbs[c4_INDEX], runtimeSpecLimbs[c4_INDEX]);
 	}
 
 	@Override
@@ -326,6 +422,7 @@ public class BinaryOperation extends Gadget {
 
 	public void setRuntimeSpec(BigInteger[] runtimeSpec) {
 		this.runtimeSpec = runtimeSpec;
+		updateRuntimeSpecLimbs();
 	}
 
 	public Wire getPrev() {
@@ -364,6 +461,77 @@ public class BinaryOperation extends Gadget {
 		return usePrev;
 	}
 
+	private void readValue(CircuitEvaluator evaluator, Wire w, long[] out) {
+		if (!evaluator.getWireValue(w, out)) {
+			throw new NullPointerException("Wire " + w + " has no value");
+		}
+	}
+
+	private void splitInField(CircuitEvaluator evaluator) {
+		FieldArithmetic field = FieldArithmetic.forCurrentThread();
+		long[] z3Value = field.getScratch(0);
+		long[] part = field.getScratch(1);
+		readValue(evaluator, z3.valueWire, z3Value);
+
+		int sumBitlength = 0;
+		for (int i = 0; i < splitInfo.length; i++) {
+			sumBitlength += splitInfo[i];
+		}
+		if (FieldArithmetic.bitLength(z3Value) > sumBitlength) {
+			System.out.println("z3 value = " + evaluator.getWireValue(z3.valueWire) + ", "
+					+ FieldArithmetic.bitLength(z3Value) + " << " + sumBitlength);
+			throw new RuntimeException("Cannot Split");
+		}
+		FieldArithmetic.extractBits(z3Value, 0, splitInfo[0], part);
+		evaluator.setWireValue(z1.valueWire, part);
+		FieldArithmetic.extractBits(z3Value, splitInfo[0], splitInfo[1], part);
+		evaluator.setWireValue(z2.valueWire, part);
+	}
+
+	// Same computation as the BigInteger version in the witness instruction,
+	// performed on reduced limbs.
+	private void computeInField(CircuitEvaluator evaluator) {
+		FieldArithmetic field = FieldArithmetic.forCurrentThread();
+		long[][] c = runtimeSpecLimbs;
+		long[] v1 = field.getScratch(0);
+		long[] v2 = field.getScratch(1);
+		long[] result = field.getScratch(2);
+
+		readValue(evaluator, z1.valueWire, v1);
+		field.montMul(c[1], v1, v1);
+		field.add(v1, c[0], v1);
+
+		readValue(evaluator, z2.valueWire, v2);
+		field.montMul(c[3], v2, v2);
+		field.add(v2, c[2], v2);
+
+		boolean productSelected = runtimeSpec[5].equals(BigInteger.ONE);
+		if (runtimeSpec[11].equals(BigInteger.ONE)) {
+			boolean isEqual = FieldArithmetic.equal(v1, v2);
+			FieldArithmetic.setLong(result, isEqual == productSelected ? 1 : 0);
+		} else {
+			if (productSelected) {
+				field.mul(v1, v2, result);
+			} else {
+				field.add(v1, v2, result);
+			}
+			field.add(result, c[4], result);
+		}
+
+		if (runtimeSpec[7].equals(BigInteger.ONE)) {
+			field.add(result, c[8], v1);
+			readValue(evaluator, prev, v2);
+			field.add(v2, c[9], v2);
+			if (runtimeSpec[6].equals(BigInteger.ONE)) {
+				field.mul(v1, v2, result);
+			} else {
+				field.add(v1, v2, result);
+			}
+			field.add(result, c[10], result);
+		}
+		evaluator.setWireValue(z3.valueWire, result);
+	}
+
 	public void multiplyFactor(BigInteger factor, int[] indices) {
 		if (runtimeSpec == null) {
 			throw new NullPointerException("Call set type first");
@@ -371,6 +539,7 @@ public class BinaryOperation extends Gadget {
 		for (int i : indices) {
 			runtimeSpec[i] = runtimeSpec[i].multiply(factor);
 		}
+		updateRuntimeSpecLimbs();
 	}
 
 	public int[] getSplitInfo() {
@@ -385,6 +554,13 @@ public class BinaryOperation extends Gadget {
 		runtimeOperationOrder = UniversalCircuitGenerator.globalRuntimeCounter++;
 	}
 
+	public void resetRuntimeState() {
+		runtimeOperationOrder = -1;
+		runtimeSpec = null;
+		runtimeSpecLimbs = null;
+		splitInfo = null;
+	}
+
 	public int getOperationOrder() {
 		return runtimeOperationOrder;
 	}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package universal.opcodes.opcode1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+import jsnark.circuit.config.Config;
+import jsnark.circuit.structure.CircuitMetrics;
+
+/**
+ * The opcode 1 operations of a specification, recorded before they are
+ * assigned to the slots of the universal circuit, so that fewer slots are
+ * needed:
+ *
+ * - Constant folding: an operation on constants (e.g. the zero and one
+ * indices, or the result of makeConstant()) gives a constant, and x + 0, x * 1
+ * give x.
+ *
+ * - Common subexpressions: an operation with the same runtime spec and inputs
+ * as an earlier one gives the result of the earlier one.
+ *
+ * - Dead operations: the result of an operation that is never used (by
+ * another operation, a statement, or the other opcodes) is not computed.
+ *
+ * - usePrev fusion: t = a op b followed by t + y (or t * y), where t is not
+ * used elsewhere and y is the result of another operation, becomes one
+ * operation that uses y as the previous record, placed in the slot after the
+ * one that computes y.
+ *
+ * The result of an operation is still given a universal index when it is
+ * recorded, so when an operation is folded or eliminated, its index is an
+ * alias of the index that holds its value (see resolve()). As the runtime
+ * spec of the last operation may still be changed by the specification (see
+ * getPendingRecord()), an operation is only folded when the next one is
+ * recorded, or when an index is used. The slots of the remaining operations,
+ * in an order that keeps every usePrev operation after its previous record,
+ * are given by schedule(). The evaluation order does not change, as every
+ * operation keeps the operation counter it was recorded with.
+ *
+ * As the consistency check of the universal circuit needs the used indices to
+ * be contiguous, the indices of the results that are no longer computed are
+ * still used by split operations of zero, two indices per operation.
+ *
+ */
+public class BinaryOperationProgram {
+
+	public static final int COMPUTE = 0; // z3 is the result of z1 and z2
+	public static final int CONSTRAINT = 1; // z1, z2 and z3 are inputs
+	public static final int SPLIT = 2; // z1 and z2 are the parts of z3
+
+	private static final List<BigInteger> ADD_SPEC = Arrays
+			.asList(BinaryOperation.getRuntimeSpec(OperationType.add, OperationType.add, false));
+	private static final List<BigInteger> MUL_SPEC = Arrays
+			.asList(BinaryOperation.getRuntimeSpec(OperationType.mul, OperationType.add, false));
+	private static final int[] FILLER_SPLIT = { 1, 1 };
+
+	public static class Record {
+		public final int kind;
+		public BigInteger[] runtimeSpec;
+		public int[] splitInfo;
+		public int z1;
+		public int z2;
+		public int z3;
+		public final int operationOrder;
+
+		// the record before this one, which is the previous record of a usePrev operation
+		private Record prev;
+		private Record next;
+		private boolean eliminated;
+		private boolean live;
+		// the result was used before the operation was folded, so it cannot be
+		// replaced by another index
+		private boolean pinned;
+
+		private Record(int kind, BigInteger[] runtimeSpec, int[] splitInfo, int z1, int z2, int z3,
+				int operationOrder) {
+			this.kind = kind;
+			this.runtimeSpec = runtimeSpec;
+			this.splitInfo = splitInfo;
+			this.z1 = z1;
+			this.z2 = z2;
+			this.z3 = z3;
+			this.operationOrder = operationOrder;
+		}
+
+		public boolean usesPrev() {
+			return runtimeSpec[BinaryOperation.usePrev_INDEX].equals(BigInteger.ONE);
+		}
+
+		/**
+		 * Returns true if the operation can use an IntegerBitwiseOperation slot,
+		 * i.e. it has no previous record, it is not the previous record of
+		 * another operation, and it does not check equality.
+		 */
+		public boolean fitsIntegerBitwiseOperation() {
+			return next == null && !usesPrev()
+					&& (kind == SPLIT || runtimeSpec[BinaryOperation.opSelector12_INDEX].signum() == 0);
+		}
+	}
+
+	private ArrayList<Record> records = new ArrayList<>();
+	private Record pending;
+
+	private HashMap<Integer, Integer> aliases = new HashMap<>();
+	private HashMap<Integer, BigInteger> constantValues = new HashMap<>();
+	private HashMap<BigInteger, Integer> constantIndices = new HashMap<>();
+	private HashMap<List<BigInteger>, Integer> expressions = new HashMap<>();
+	private BitSet usedIndices = new BitSet();
+	private final int zeroIndex;
+
+	private int numFolded;
+	private int numEliminated;
+	private int numDead;
+	private int numFused;
+	private int numFillers;
+
+	public BinaryOperationProgram(int zeroIndex, int oneIndex) {
+		this.zeroIndex = zeroIndex;
+		constantValues.put(zeroIndex, BigInteger.ZERO);
+		constantValues.put(oneIndex, BigInteger.ONE);
+		constantIndices.put(BigInteger.ZERO, zeroIndex);
+		constantIndices.put(BigInteger.ONE, oneIndex);
+	}
+
+	/**
+	 * Records an operation, after folding the previous one. The input indices
+	 * are resolved here, and the runtime spec is owned by the record.
+	 */
+	public Record add(int kind, BigInteger[] runtimeSpec, int[] splitInfo, int z1, int z2, int z3,
+			int operationOrder) {
+		flush();
+		if (kind != COMPUTE) {
+			z3 = resolve(z3);
+		}
+		if (kind != SPLIT) {
+			z1 = resolve(z1);
+			z2 = resolve(z2);
+		}
+		Record r = new Record(kind, runtimeSpec, splitInfo, z1, z2, z3, operationOrder);
+		if (!records.isEmpty()) {
+			r.prev = records.get(records.size() - 1);
+		}
+		records.add(r);
+		pending = r;
+		return r;
+	}
+
+	/**
+	 * Returns the last recorded operation, if it was not folded yet, so that
+	 * its runtime spec can still be changed.
+	 */
+	public Record getPendingRecord() {
+		if (pending == null) {
+			throw new IllegalStateException("The runtime spec can only be changed right after the operation");
+		}
+		return pending;
+	}
+
+	/**
+	 * Returns an index that holds the given constant, if there is one.
+	 */
+	public Integer getConstantIndex(BigInteger value) {
+		flush();
+		return constantIndices.get(value.mod(Config.FIELD_PRIME));
+	}
+
+	/**
+	 * Records that the given index holds the given constant (e.g. a constant
+	 * loaded by a statement entry), so that it is reused by later constants and
+	 * by constant folding.
+	 */
+	public void addConstant(int index, BigInteger value) {
+		flush();
+		value = value.mod(Config.FIELD_PRIME);
+		constantValues.put(index, value);
+		constantIndices.putIfAbsent(value, index);
+	}
+
+	/**
+	 * Returns the index that holds the value of the given index.
+	 */
+	public int resolve(int index) {
+		if (pending != null && pending.z3 == index) {
+			// the runtime spec of the pending operation can still be changed
+			pending.pinned = true;
+			return index;
+		}
+		flush();
+		Integer alias = aliases.get(index);
+		return alias == null ? index : alias;
+	}
+
+	/**
+	 * Resolves an index that is used outside of the recorded operations, so
+	 * that the operation computing it is kept.
+	 */
+	public int use(int index) {
+		index = resolve(index);
+		usedIndices.set(index);
+		return index;
+	}
+
+	private void flush() {
+		Record r = pending;
+		if (r == null) {
+			return;
+		}
+		pending = null;
+		if (r.kind != COMPUTE || r.usesPrev() || r.pinned) {
+			return;
+		}
+		BigInteger c1 = constantValues.get(r.z1);
+		BigInteger c2 = constantValues.get(r.z2);
+		if (c1 != null && c2 != null) {
+			BigInteger v = evaluate(r.runtimeSpec, c1, c2);
+			Integer index = constantIndices.get(v);
+			if (index != null) {
+				eliminate(r, index);
+				numFolded++;
+			} else {
+				constantValues.put(r.z3, v);
+				constantIndices.put(v, r.z3);
+			}
+			return;
+		}
+		if ((c1 != null || c2 != null) && foldWithConstant(r, c1, c2)) {
+			return;
+		}
+
+		List<BigInteger> key = getExpressionKey(r);
+		Integer index = expressions.get(key);
+		if (index != null) {
+			eliminate(r, index);
+			numEliminated++;
+		} else {
+			expressions.put(key, r.z3);
+		}
+	}
+
+	// When one input is a constant, an addition or a multiplication is a * x + b
+	// in the other input.
+	private boolean foldWithConstant(Record r, BigInteger c1, BigInteger c2) {
+		BigInteger[] s = r.runtimeSpec;
+		if (s[BinaryOperation.opSelector12_INDEX].equals(BigInteger.ONE)) {
+			return false;
+		}
+		BigInteger p = Config.FIELD_PRIME;
+		boolean isMul = s[BinaryOperation.opSelector11_INDEX].equals(BigInteger.ONE);
+		int x = c1 == null ? r.z1 : r.z2;
+		BigInteger constant = c1 == null ? s[2].add(s[3].multiply(c2)) : s[0].add(s[1].multiply(c1));
+		BigInteger c0 = c1 == null ? s[0] : s[2];
+		BigInteger cx = c1 == null ? s[1] : s[3];
+
+		BigInteger a, b;
+		if (isMul) {
+			a = cx.multiply(constant).mod(p);
+			b = c0.multiply(constant).add(s[4]).mod(p);
+		} else {
+			a = cx.mod(p);
+			b = c0.add(constant).add(s[4]).mod(p);
+		}
+		if (a.signum() == 0) {
+			Integer index = constantIndices.get(b);
+			if (index != null) {
+				eliminate(r, index);
+				numFolded++;
+			} else {
+				constantValues.put(r.z3, b);
+				constantIndices.put(b, r.z3);
+			}
+			return true;
+		}
+		if (a.equals(BigInteger.ONE) && b.signum() == 0) {
+			eliminate(r, x);
+			numFolded++;
+			return true;
+		}
+		return false;
+	}
+
+	private static BigInteger evaluate(BigInteger[] s, BigInteger x, BigInteger y) {
+		BigInteger p = Config.FIELD_PRIME;
+		BigInteger v1 = s[0].add(s[1].multiply(x)).mod(p);
+		BigInteger v2 = s[2].add(s[3].multiply(y)).mod(p);
+		boolean productSelected = s[BinaryOperation.opSelector11_INDEX].equals(BigInteger.ONE);
+		if (s[BinaryOperation.opSelector12_INDEX].equals(BigInteger.ONE)) {
+			return v1.equals(v2) == productSelected ? BigInteger.ONE : BigInteger.ZERO;
+		}
+		return (productSelected ? v1.multiply(v2) : v1.add(v2)).add(s[4]).mod(p);
+	}
+
+	private static List<BigInteger> getExpressionKey(Record r) {
+		BigInteger[] s = r.runtimeSpec;
+		int z1 = r.z1;
+		int z2 = r.z2;
+		// the operands can be swapped if they are treated the same way
+		if (s[0].equals(s[2]) && s[1].equals(s[3]) && z1 > z2) {
+			z1 = r.z2;
+			z2 = r.z1;
+		}
+		ArrayList<BigInteger> key = new ArrayList<>(s.length + 2);
+		for (BigInteger c : s) {
+			key.add(c.mod(Config.FIELD_PRIME));
+		}
+		key.add(BigInteger.valueOf(z1));
+		key.add(BigInteger.valueOf(z2));
+		return key;
+	}
+
+	private void eliminate(Record r, int index) {
+		r.eliminated = true;
+		aliases.put(r.z3, index);
+	}
+
+	/**
+	 * Returns the operations to assign to the slots, in order, after removing
+	 * the dead operations and fusing operations through usePrev. No operation
+	 * can be recorded afterwards. The operation orders of the added fillers
+	 * are taken from the given supplier, as the orders of recorded operations
+	 * are given to add().
+	 */
+	public List<Record> schedule(IntSupplier nextOperationOrder) {
+		flush();
+
+		// the number of uses of each index by the live operations
+		HashMap<Integer, Integer> uses = new HashMap<>();
+		HashMap<Integer, Record> producers = new HashMap<>();
+		for (int i = records.size() - 1; i >= 0; i--) {
+			Record r = records.get(i);
+			// an eliminated operation is kept only if it is the previous record of a
+			// usePrev operation, in which case it computes its own index
+			r.live = r.live || (!r.eliminated && (r.kind != COMPUTE || usedIndices.get(r.z3) || uses.containsKey(r.z3)));
+			if (!r.live) {
+				if (!r.eliminated) {
+					numDead++;
+				}
+				continue;
+			}
+			if (r.usesPrev() && r.prev != null) {
+				r.prev.live = true;
+				r.prev.next = r;
+			}
+			if (r.kind == COMPUTE) {
+				producers.put(r.z3, r);
+			}
+			if (r.kind != SPLIT) {
+				addUse(uses, r.z1);
+				addUse(uses, r.z2);
+			}
+			if (r.kind != COMPUTE) {
+				addUse(uses, r.z3);
+			}
+		}
+
+		for (Record r : records) {
+			if (r.live) {
+				fuse(r, uses, producers);
+			}
+		}
+
+		ArrayList<Record> scheduled = new ArrayList<>();
+		// a usePrev operation without a previous record uses the first slot
+		for (Record r : records) {
+			if (r.live && r.usesPrev() && r.prev == null) {
+				addChain(r, scheduled);
+			}
+		}
+		for (Record r : records) {
+			if (r.live && !r.usesPrev()) {
+				addChain(r, scheduled);
+			}
+		}
+
+		int unusedIndex = -1;
+		for (Record r : records) {
+			if (r.kind != COMPUTE || r.live) {
+				continue;
+			}
+			if (unusedIndex == -1) {
+				unusedIndex = r.z3;
+			} else {
+				scheduled.add(newFiller(unusedIndex, r.z3, nextOperationOrder.getAsInt()));
+				unusedIndex = -1;
+			}
+		}
+		if (unusedIndex != -1) {
+			scheduled.add(newFiller(unusedIndex, unusedIndex, nextOperationOrder.getAsInt()));
+		}
+		return scheduled;
+	}
+
+	private Record newFiller(int index1, int index2, int operationOrder) {
+		numFillers++;
+		return new Record(SPLIT, BinaryOperation.getSplitRuntimeSpec(FILLER_SPLIT), FILLER_SPLIT, index1, index2,
+				zeroIndex, operationOrder);
+	}
+
+	private static void addUse(HashMap<Integer, Integer> uses, int index) {
+		uses.merge(index, 1, Integer::sum);
+	}
+
+	private static void addChain(Record r, List<Record> scheduled) {
+		for (; r != null; r = r.next) {
+			scheduled.add(r);
+		}
+	}
+
+	// m = t + y or t * y, where t = a op b is only used here, becomes
+	// (a op b) + prev or (a op b) * prev, following the operation that computes y.
+	private void fuse(Record m, HashMap<Integer, Integer> uses, HashMap<Integer, Record> producers) {
+		if (m.kind != COMPUTE || m.usesPrev() || m.z1 == m.z2) {
+			return;
+		}
+		List<BigInteger> spec = Arrays.asList(m.runtimeSpec);
+		boolean isAdd = spec.equals(ADD_SPEC);
+		if (!isAdd && !spec.equals(MUL_SPEC)) {
+			return;
+		}
+		for (int t : new int[] { m.z1, m.z2 }) {
+			int y = t == m.z1 ? m.z2 : m.z1;
+			Record l = producers.get(t);
+			Record p = producers.get(y);
+			if (l == null || p == null || !l.live || !p.live || l.usesPrev() || l.next != null || p.next != null
+					|| usedIndices.get(t) || uses.get(t) != 1) {
+				continue;
+			}
+			BigInteger[] fused = l.runtimeSpec.clone();
+			fused[BinaryOperation.opSelector2_INDEX] = isAdd ? BigInteger.ZERO : BigInteger.ONE;
+			fused[BinaryOperation.usePrev_INDEX] = BigInteger.ONE;
+			m.runtimeSpec = fused;
+			m.z1 = l.z1;
+			m.z2 = l.z2;
+			m.prev = p;
+			p.next = m;
+			l.live = false;
+			numFused++;
+			return;
+		}
+	}
+
+	public void printStatistics(int numScheduled) {
+		System.out.println("Opcode 1 operations: " + records.size() + " specified, " + numScheduled + " assigned ("
+				+ numFolded + " folded, " + numEliminated + " common, " + numDead + " dead, " + numFused + " fused, "
+				+ numFillers + " index fillers)");
+	}
+
+	public void updateMetrics(CircuitMetrics metrics, int numScheduled) {
+		metrics.set("opcode1", "specified", records.size());
+		metrics.set("opcode1", "assigned", numScheduled);
+		metrics.set("opcode1", "folded", numFolded);
+		metrics.set("opcode1", "common", numEliminated);
+		metrics.set("opcode1", "dead", numDead);
+		metrics.set("opcode1", "fused", numFused);
+		metrics.set("opcode1", "fillers", numFillers);
+	}
+
+}
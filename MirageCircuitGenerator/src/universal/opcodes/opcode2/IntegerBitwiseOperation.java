@@ -4,11 +4,15 @@
 
 package universal.opcodes.opcode2;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import jsnark.circuit.config.Config;
 import jsnark.circuit.eval.CircuitEvaluator;
+import jsnark.circuit.eval.FieldArithmetic;
 import jsnark.circuit.eval.Instruction;
 import jsnark.circuit.operations.Gadget;
 import jsnark.circuit.structure.CircuitGenerator;
@@ -23,6 +27,9 @@ import universal.opcodes.opcode1.OperationType;
 public class IntegerBitwiseOperation extends Gadget {
 
 	public static final int BITWIDTH = 32;
+	// the number of constraints of one operation in the universal circuit,
+	// including the permutation check of its entries
+	public static final int NUM_CONSTRAINTS = 135;
 	private int runtimeOperationOrder = -1;
 
 	private OpEntry z1;
@@ -41,6 +48,7 @@ public class IntegerBitwiseOperation extends Gadget {
 	private Wire opSelector;
 
 	private BigInteger[] runtimeSpec; // c1, c2, c3, c4, c5, opSelector, 12 selectors
+	private long[][] runtimeSpecLimbs; // c2, c4 and the selectors in the Montgomery form
 	private int[] splitInfo;
 
 	public IntegerBitwiseOperation(OpEntry z1, OpEntry z2, OpEntry z3, BigInteger[] runtimeSpec) {
@@ -48,9 +56,37 @@ public class IntegerBitwiseOperation extends Gadget {
 		this.z2 = z2;
 		this.z3 = z3;
 		this.runtimeSpec = runtimeSpec;
+		updateRuntimeSpecLimbs();
 		buildCircuit();
 	}
 
+	/**
+	 * Restores an operation of a compiled circuit that is being loaded, from
+	 * what writeSkeleton() wrote.
+	 */
+	public IntegerBitwiseOperation(OpEntry z1, OpEntry z2, OpEntry z3, ByteBuffer in) {
+		this.z1 = z1;
+		this.z2 = z2;
+		this.z3 = z3;
+		Wire[] specWires = generator.getRestoredWires(in.getInt(), 12 + 6);
+		selectors = Arrays.copyOf(specWires, 12);
+		c1 = specWires[12];
+		c2 = specWires[13];
+		c3 = specWires[14];
+		c4 = specWires[15];
+		c5 = specWires[16];
+		opSelector = specWires[17];
+		specifyWitnessComputation();
+	}
+
+	/**
+	 * Writes the id of the first specification wire of the operation, as the
+	 * selectors, c1 to c5 and opSelector are consecutive.
+	 */
+	public void writeSkeleton(DataOutputStream out) throws IOException {
+		out.writeInt(selectors[0].getWireId());
+	}
+
 	private void buildCircuit() {
 
 		selectors = generator.createSpecWireArray(12);
@@ -61,6 +97,87 @@ public class IntegerBitwiseOperation extends Gadget {
 		c5 = generator.createSpecWire();
 		opSelector = generator.createSpecWire();
 
+		specifyWitnessComputation();
+
+		Wire activateSplits = new WireArray(selectors).sumAllElements().isEqualTo(0).invAsBit();
+
+		Wire splitOp1 = z1.valueWire.mul(activateSplits);
+		Wire splitOp2 = z2.valueWire.mul(activateSplits);
+
+		Wire[] bits1 = splitOp1.getBitWires(BITWIDTH).asArray();
+		Wire[] bits2 = splitOp2.getBitWires(BITWIDTH).asArray();
+
+		Wire[] product = new Wire[BITWIDTH];
+		Wire[] xor = new Wire[BITWIDTH];
+		Wire[] or = new Wire[BITWIDTH];
+
+		Wire[] productInv1 = new Wire[BITWIDTH];
+		Wire[] xorInv1 = new Wire[BITWIDTH];
+		Wire[] orInv1 = new Wire[BITWIDTH];
+
+		Wire[] productInv2 = new Wire[BITWIDTH];
+		Wire[] xorInv2 = new Wire[BITWIDTH];
+		Wire[] orInv2 = new Wire[BITWIDTH];
+
+		Wire[] productInv12 = new Wire[BITWIDTH];
+		Wire[] xorInv12 = new Wire[BITWIDTH];
+		Wire[] orInv12 = new Wire[BITWIDTH];
+
+		Wire oneWire = CircuitGenerator.getActiveCircuitGenerator().getOneWire();
+
+		for (int i = 0; i < BITWIDTH; i++) {
+			product[i] = bits1[i].mul(bits2[i]);
+			xor[i] = bits1[i].add(bits2[i]).sub(product[i].mul(2));
+			or[i] = bits1[i].add(bits2[i]).sub(product[i].mul(1));
+
+			productInv1[i] = bits2[i].sub(product[i]);
+			xorInv1[i] = xor[i].invAsBit();
+			orInv1[i] = oneWire.sub(bits1[i]).add(product[i]);
+
+			productInv2[i] = bits1[i].sub(product[i]);
+			xorInv2[i] = xor[i].invAsBit();
+			orInv2[i] = oneWire.sub(bits2[i]).add(product[i]);
+
+			productInv12[i] = or[i].invAsBit();
+			xorInv12[i] = xor[i];
+			orInv12[i] = product[i].invAsBit();
+		}
+
+		Wire[] allResults = new Wire[13];
+
+		allResults[0] = new WireArray(product).packAsBits();
+		allResults[1] = new WireArray(xor).packAsBits();
+		allResults[2] = new WireArray(or).packAsBits();
+
+		allResults[3] = new WireArray(productInv1).packAsBits();
+		allResults[4] = new WireArray(xorInv1).packAsBits();
+		allResults[5] = new WireArray(orInv1).packAsBits();
+
+		allResults[6] = new WireArray(productInv2).packAsBits();
+		allResults[7] = new WireArray(xorInv2).packAsBits();
+		allResults[8] = new WireArray(orInv2).packAsBits();
+
+		allResults[9] = new WireArray(productInv12).packAsBits();
+		allResults[10] = new WireArray(xorInv12).packAsBits();
+		allResults[11] = new WireArray(orInv12).packAsBits();
+
+		Wire c2_z1 = c2.mul(z1.valueWire);
+		Wire c4_z2 = c4.mul(z2.valueWire);
+		Wire leftSum = c1.add(c2_z1);
+		Wire rightSum = c3.add(c4_z2);
+		Wire product1 = leftSum.mul(rightSum).add(c5);
+		Wire sum1 = leftSum.add(rightSum).add(c5);
+		allResults[12] = sum1.add(opSelector.mul(product1.sub(sum1)));
+
+		Wire tmp = allResults[12].mul(activateSplits.invAsBit());
+		for (int i = 0; i < 12; i++) {
+			tmp = tmp.add(allResults[i].mul(selectors[i]));
+		}
+		CircuitGenerator.getActiveCircuitGenerator().addEqualityAssertion(z3.valueWire, tmp,
+				"Assertion in bitwise op ");
+	}
+
+	private void specifyWitnessComputation() {
 		generator.specifyProverWitnessComputation(new Instruction() {
 
 			@Override
@@ -83,7 +200,12 @@ public class IntegerBitwiseOperation extends Gadget {
 
 				}
 
-				if (splitInfo != null) {
+				if (splitInfo != null && evaluator.getAssignment().isPacked()) {
+					univEvaluator.resolveEntry(z3);
+					splitInField(evaluator);
+					univEvaluator.resolveEntry(z1);
+					univEvaluator.resolveEntry(z2);
+				} else if (splitInfo != null) {
 					univEvaluator.resolveEntry(z3);
 					BigInteger z3Value = evaluator.getWireValue(z3.valueWire);
 					int sumBitlength = 0;
@@ -104,7 +226,10 @@ public class IntegerBitwiseOperation extends Gadget {
 					univEvaluator.resolveEntry(z1);
 					univEvaluator.resolveEntry(z2);
 
-					if (evaluator.getWireValue(z3.valueWire) == null) {
+					if (evaluator.getWireValue(z3.valueWire) == null && evaluator.getAssignment().isPacked()) {
+						computeInField(evaluator);
+						univEvaluator.resolveEntry(z3);
+					} else if (evaluator.getWireValue(z3.valueWire) == null) {
 
 						boolean bitwiseOp = false;
 
@@ -183,83 +308,6 @@ public class IntegerBitwiseOperation extends Gadget {
 			}
 
 		});
-
-		Wire activateSplits = new WireArray(selectors).sumAllElements().isEqualTo(0).invAsBit();
-
-		Wire splitOp1 = z1.valueWire.mul(activateSplits);
-		Wire splitOp2 = z2.valueWire.mul(activateSplits);
-
-		Wire[] bits1 = splitOp1.getBitWires(BITWIDTH).asArray();
-		Wire[] bits2 = splitOp2.getBitWires(BITWIDTH).asArray();
-
-		Wire[] product = new Wire[BITWIDTH];
-		Wire[] xor = new Wire[BITWIDTH];
-		Wire[] or = new Wire[BITWIDTH];
-
-		Wire[] productInv1 = new Wire[BITWIDTH];
-		Wire[] xorInv1 = new Wire[BITWIDTH];
-		Wire[] orInv1 = new Wire[BITWIDTH];
-
-		Wire[] productInv2 = new Wire[BITWIDTH];
-		Wire[] xorInv2 = new Wire[BITWIDTH];
-		Wire[] orInv2 = new Wire[BITWIDTH];
-
-		Wire[] productInv12 = new Wire[BITWIDTH];
-		Wire[] xorInv12 = new Wire[BITWIDTH];
-		Wire[] orInv12 = new Wire[BITWIDTH];
-
-		Wire oneWire = CircuitGenerator.getActiveCircuitGenerator().getOneWire();
-
-		for (int i = 0; i < BITWIDTH; i++) {
-			product[i] = bits1[i].mul(bits2[i]);
-			xor[i] = bits1[i].add(bits2[i]).sub(product[i].mul(2));
-			or[i] = bits1[i].add(bits2[i]).sub(product[i].mul(1));
-
-			productInv1[i] = bits2[i].sub(product[i]);
-			xorInv1[i] = xor[i].invAsBit();
-			orInv1[i] = oneWire.sub(bits1[i]).add(product[i]);
-
-			productInv2[i] = bits1[i].sub(product[i]);
-			xorInv2[i] = xor[i].invAsBit();
-			orInv2[i] = oneWire.sub(bits2[i]).add(product[i]);
-
-			productInv12[i] = or[i].invAsBit();
-			xorInv12[i] = xor[i];
-			orInv12[i] = product[i].invAsBit();
-		}
-
-		Wire[] allResults = new Wire[13];
-
-		allResults[0] = new WireArray(product).packAsBits();
-		allResults[1] = new WireArray(xor).packAsBits();
-		allResults[2] = new WireArray(or).packAsBits();
-
-		allResults[3] = new WireArray(productInv1).packAsBits();
-		allResults[4] = new WireArray(xorInv1).packAsBits();
-		allResults[5] = new WireArray(orInv1).packAsBits();
-
-		allResults[6] = new WireArray(productInv2).packAsBits();
-		allResults[7] = new WireArray(xorInv2).packAsBits();
-		allResults[8] = new WireArray(orInv2).packAsBits();
-
-		allResults[9] = new WireArray(productInv12).packAsBits();
-		allResults[10] = new WireArray(xorInv12).packAsBits();
-		allResults[11] = new WireArray(orInv12).packAsBits();
-
-		Wire c2_z1 = c2.mul(z1.valueWire);
-		Wire c4_z2 = c4.mul(z2.valueWire);
-		Wire leftSum = c1.add(c2_z1);
-		Wire rightSum = c3.add(c4_z2);
-		Wire product1 = leftSum.mul(rightSum).add(c5);
-		Wire sum1 = leftSum.add(rightSum).add(c5);
-		allResults[12] = sum1.add(opSelector.mul(product1.sub(sum1)));
-
-		Wire tmp = allResults[12].mul(activateSplits.invAsBit());
-		for (int i = 0; i < 12; i++) {
-			tmp = tmp.add(allResults[i].mul(selectors[i]));
-		}
-		CircuitGenerator.getActiveCircuitGenerator().addEqualityAssertion(z3.valueWire, tmp,
-				"Assertion in bitwise op ");
 	}
 
 	public int getOperationOrder() {
@@ -302,6 +350,7 @@ public class IntegerBitwiseOperation extends Gadget {
 		register();
 		runtimeSpec = new BigInteger[] { constSet1[0], constSet1[1], constSet1[2], constSet1[3], constSet1[4],
 				selector1, zero, zero, zero, zero, zero, zero, zero, zero, zero, zero, zero, zero };
+		updateRuntimeSpecLimbs();
 	}
 
 	public void setBitwiseOperationType(BitwiseOperationType operation) {
@@ -356,6 +405,7 @@ public class IntegerBitwiseOperation extends Gadget {
 		}
 		register();
 		runtimeSpec[index] = BigInteger.ONE;
+		updateRuntimeSpecLimbs();
 	}
 
 	public void useAsSplit(int[] splitInfo) {
@@ -368,11 +418,139 @@ public class IntegerBitwiseOperation extends Gadget {
 
 		runtimeSpec = new BigInteger[] { zero, one, zero, one.shiftLeft(splitInfo[0]), zero, zero, zero, zero, zero,
 				zero, zero, zero, zero, zero, zero, zero, zero, zero };
+		updateRuntimeSpecLimbs();
 
 		register();
 
 	}
 
+	private void readValue(CircuitEvaluator evaluator, Wire w, long[] out) {
+		if (!evaluator.getWireValue(w, out)) {
+			throw new NullPointerException("Wire " + w + " has no value");
+		}
+	}
+
+	private void splitInField(CircuitEvaluator evaluator) {
+		FieldArithmetic field = FieldArithmetic.forCurrentThread();
+		long[] z3Value = field.getScratch(0);
+		long[] part = field.getScratch(1);
+		readValue(evaluator, z3.valueWire, z3Value);
+		int sumBitlength = 0;
+		for (int i = 0; i < splitInfo.length; i++) {
+			sumBitlength += splitInfo[i];
+		}
+		if (FieldArithmetic.bitLength(z3Value) > sumBitlength) {
+			throw new RuntimeException("Cannot Split");
+		}
+		FieldArithmetic.extractBits(z3Value, 0, splitInfo[0], part);
+		evaluator.setWireValue(z1.valueWire, part);
+		FieldArithmetic.extractBits(z3Value, splitInfo[0], splitInfo[1], part);
+		evaluator.setWireValue(z2.valueWire, part);
+	}
+
+	// Same computation as the BigInteger version in the witness instruction,
+	// performed on reduced limbs. The bitwise results fit in 32 bits, so they
+	// are computed on primitive longs and only multiplied by the non-zero
+	// selectors.
+	private void computeInField(CircuitEvaluator evaluator) {
+		FieldArithmetic field = FieldArithmetic.forCurrentThread();
+		long[][] c = runtimeSpecLimbs;
+		long[] v1 = field.getScratch(0);
+		long[] v2 = field.getScratch(1);
+		long[] result = field.getScratch(2);
+		FieldArithmetic.setLong(result, 0);
+		readValue(evaluator, z1.valueWire, v1);
+		readValue(evaluator, z2.valueWire, v2);
+
+		int shift = 6;
+		boolean bitwiseOp = false;
+		for (int i = 0; i < 12; i++) {
+			if (runtimeSpec[shift + i].equals(BigInteger.ONE)) {
+				bitwiseOp = true;
+			}
+		}
+
+		if (bitwiseOp) {
+			if (FieldArithmetic.bitLength(v1) > BITWIDTH || FieldArithmetic.bitLength(v2) > BITWIDTH) {
+				throw new RuntimeException("Operands of bitwise operations must fit in " + BITWIDTH + " bits");
+			}
+			long a = v1[0];
+			long b = v2[0];
+			long[] term = field.getScratch(3);
+			for (int i = 0; i < 12; i++) {
+				if (runtimeSpec[shift + i].signum() == 0) {
+					continue;
+				}
+				FieldArithmetic.setLong(term, bitwiseResult(i, a, b));
+				field.montMul(term, c[shift + i], term);
+				field.add(result, term, result);
+			}
+		} else {
+			field.montMul(c[1], v1, v1);
+			field.add(v1, c[0], v1);
+			field.montMul(c[3], v2, v2);
+			field.add(v2, c[2], v2);
+			if (runtimeSpec[5].equals(BigInteger.ONE)) {
+				field.mul(v1, v2, result);
+			} else {
+				field.add(v1, v2, result);
+			}
+			field.add(result, c[4], result);
+		}
+		evaluator.setWireValue(z3.valueWire, result);
+	}
+
+	// The result of the bitwise operation of selector i on 32-bit operands
+	private static long bitwiseResult(int i, long a, long b) {
+		long mask = 0xffffffffL;
+		long aInv = ~a & mask;
+		long bInv = ~b & mask;
+		switch (i) {
+		case 0:
+			return a & b;
+		case 1:
+			return a ^ b;
+		case 2:
+			return a | b;
+		case 3:
+			return aInv & b;
+		case 4:
+			return aInv ^ b;
+		case 5:
+			return aInv | b;
+		case 6:
+			return bInv & a;
+		case 7:
+			return bInv ^ a;
+		case 8:
+			return bInv | a;
+		case 9:
+			return bInv & aInv;
+		case 10:
+			return bInv ^ aInv;
+		default:
+			return bInv | aInv;
+		}
+	}
+
+	// Converts the runtime spec once, so that evaluations in the field do not
+	// convert it again. The multipliers are kept in the Montgomery form, and
+	// cost a single Montgomery multiplication each.
+	private void updateRuntimeSpecLimbs() {
+		if (runtimeSpec == null) {
+			runtimeSpecLimbs = null;
+			return;
+		}
+		FieldArithmetic field = FieldArithmetic.forCurrentThread();
+		runtimeSpecLimbs = new long[runtimeSpec.length][FieldArithmetic.NUM_LIMBS];
+		for (int i = 0; i < runtimeSpec.length; i++) {
+			field.fromBigInteger(runtimeSpec[i], runtimeSpecLimbs[i]);
+			if (i == 1 || i == 3 || i >= 6) {
+				field.toMontgomery(runtimeSpecLimbs[i], runtimeSpecLimbs[i]);
+			}
+		}
+	}
+
 	private static BigInteger invBits(BigInteger x) {
 		BigInteger r = BigInteger.valueOf(~x.intValue() & 0x00000000ffffffffL);
 		return r;
@@ -389,6 +567,7 @@ public class IntegerBitwiseOperation extends Gadget {
 
 	public void setRuntimeSpec(BigInteger[] runtimeSpec) {
 		this.runtimeSpec = runtimeSpec;
+		updateRuntimeSpecLimbs();
 	}
 
 	public int[] getSplitInfo() {
@@ -399,8 +578,29 @@ public class IntegerBitwiseOperation extends Gadget {
 		this.splitInfo = splitInfo;
 	}
 
+	/**
+	 * Uses this slot for an opcode 1 operation that has no previous record and
+	 * no equality check (an arithmetic operation or a split, see
+	 * BinaryOperation), with the operation order it was specified with.
+	 */
+	public void setBinaryOperation(BigInteger[] binaryRuntimeSpec, int[] splitInfo, int operationOrder) {
+		runtimeSpec = new BigInteger[6 + 12];
+		Arrays.fill(runtimeSpec, BigInteger.ZERO);
+		System.arraycopy(binaryRuntimeSpec, 0, runtimeSpec, 0, 6);
+		updateRuntimeSpecLimbs();
+		this.splitInfo = splitInfo;
+		runtimeOperationOrder = operationOrder;
+	}
+
 	public void register() {
 		runtimeOperationOrder = UniversalCircuitGenerator.globalRuntimeCounter++;
 	}
 
+	public void resetRuntimeState() {
+		runtimeOperationOrder = -1;
+		runtimeSpec = null;
+		runtimeSpecLimbs = null;
+		splitInfo = null;
+	}
+
 }
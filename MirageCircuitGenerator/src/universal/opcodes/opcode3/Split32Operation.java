@@ -4,7 +4,10 @@
 
 package universal.opcodes.opcode3;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import jsnark.circuit.eval.CircuitEvaluator;
@@ -19,6 +22,9 @@ import universal.opcodes.OpEntry;
 public class Split32Operation extends Gadget {
 
 	public static final int NUM_ENTRIES = 32 + 2 + 4;
+	// the number of constraints of one operation in the universal circuit,
+	// including the permutation check of its entries
+	public static final int NUM_CONSTRAINTS = 324;
 	private int runtimeOperationOrder = -1;
 
 	private OpEntry[] elements;
@@ -41,6 +47,30 @@ public class Split32Operation extends Gadget {
 		buildCircuit();
 	}
 
+	/**
+	 * Restores an operation of a compiled circuit that is being loaded, from
+	 * what writeSkeleton() wrote.
+	 */
+	public Split32Operation(OpEntry[] bitWires, OpEntry z1, OpEntry z2, OpEntry[] zBytes, ByteBuffer in) {
+		this.elements = bitWires;
+		this.z1 = z1;
+		this.z2 = z2;
+		this.zBytes = zBytes;
+		Wire[] specWires = generator.getRestoredWires(in.getInt(), 32 + 32 + 1);
+		coefficientSet1 = Arrays.copyOfRange(specWires, 0, 32);
+		coefficientSet2 = Arrays.copyOfRange(specWires, 32, 64);
+		enableBinarychecks = specWires[64];
+		specifyWitnessComputation();
+	}
+
+	/**
+	 * Writes the id of the first specification wire of the operation, as the
+	 * two coefficient sets and enableBinarychecks are consecutive.
+	 */
+	public void writeSkeleton(DataOutputStream out) throws IOException {
+		out.writeInt(coefficientSet1[0].getWireId());
+	}
+
 	private void buildCircuit() {
 
 //		counter = serialCounter++;
@@ -48,6 +78,30 @@ public class Split32Operation extends Gadget {
 		coefficientSet2 = generator.createSpecWireArray(32);
 		enableBinarychecks = generator.createSpecWire();
 
+		specifyWitnessComputation();
+
+		for (OpEntry w : elements) {
+			generator.addBinaryAssertion(w.valueWire.mul(enableBinarychecks), "binary assertion");
+		}
+
+		Wire zeroWire = CircuitGenerator.getActiveCircuitGenerator().getZeroWire();
+		Wire sum1 = zeroWire;
+		Wire sumBytes = zeroWire;
+		Wire sum2 = zeroWire;
+		for (int i = 0; i < elements.length; i++) {
+			sum1 = sum1.add(elements[i].valueWire.mul(coefficientSet1[i]));
+			sumBytes = sumBytes.add(elements[i].valueWire.mul(2, i % 8));
+			if ((i + 1) % 8 == 0) {
+				generator.addEqualityAssertion(sumBytes, zBytes[i / 8].valueWire, "Assertion in Split32 (Bytes)");
+				sumBytes = zeroWire;
+			}
+			sum2 = sum2.add(elements[i].valueWire.mul(coefficientSet2[i]));
+		}
+		generator.addEqualityAssertion(sum1, z1.valueWire, "assertion 1 in Split32");
+		generator.addEqualityAssertion(sum2, z2.valueWire, "assertion 2 in Split32");
+	}
+
+	private void specifyWitnessComputation() {
 		generator.specifyProverWitnessComputation(new Instruction() {
 
 			@Override
@@ -192,26 +246,6 @@ public class Split32Operation extends Gadget {
 				return runtimeOperationOrder;
 			}
 		});
-
-		for (OpEntry w : elements) {
-			generator.addBinaryAssertion(w.valueWire.mul(enableBinarychecks), "binary assertion");
-		}
-
-		Wire zeroWire = CircuitGenerator.getActiveCircuitGenerator().getZeroWire();
-		Wire sum1 = zeroWire;
-		Wire sumBytes = zeroWire;
-		Wire sum2 = zeroWire;
-		for (int i = 0; i < elements.length; i++) {
-			sum1 = sum1.add(elements[i].valueWire.mul(coefficientSet1[i]));
-			sumBytes = sumBytes.add(elements[i].valueWire.mul(2, i % 8));
-			if ((i + 1) % 8 == 0) {
-				generator.addEqualityAssertion(sumBytes, zBytes[i / 8].valueWire, "Assertion in Split32 (Bytes)");
-				sumBytes = zeroWire;
-			}
-			sum2 = sum2.add(elements[i].valueWire.mul(coefficientSet2[i]));
-		}
-		generator.addEqualityAssertion(sum1, z1.valueWire, "assertion 1 in Split32");
-		generator.addEqualityAssertion(sum2, z2.valueWire, "assertion 2 in Split32");
 	}
 
 	public void setOperation(boolean split, BigInteger[] set1, BigInteger[] set2) {
@@ -254,6 +288,11 @@ public class Split32Operation extends Gadget {
 		runtimeOperationOrder = UniversalCircuitGenerator.globalRuntimeCounter++;
 	}
 
+	public void resetRuntimeState() {
+		runtimeOperationOrder = -1;
+		runtimeSpec = null;
+	}
+
 	public int getOperationOrder() {
 		return runtimeOperationOrder;
 	}
@@ -4,15 +4,21 @@
 
 package universal.opcodes.opcode4;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Hashtable;
+import java.util.stream.IntStream;
 
+import jsnark.circuit.eval.AssignmentStore;
 import jsnark.circuit.eval.CircuitEvaluator;
 import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.eval.ParallelEvaluator;
 import jsnark.circuit.structure.CircuitGenerator;
 import jsnark.circuit.structure.Wire;
+import jsnark.util.RadixSort;
 import universal.UniversalCircuitEvaluator;
 import universal.UniversalCircuitGenerator;
 import universal.opcodes.OpEntry;
@@ -51,6 +57,39 @@ public class MemoryLookupOpHandler {
 	public MemoryLookupOpHandler(int totalNumberOfLookups, int totalMemorySize, Wire[] rndWires, OpEntry[] indexEntries,
 			OpEntry[] valueEntries, OpEntry[] writeFlagEntries) {
 
+		init(totalNumberOfLookups, totalMemorySize, rndWires, indexEntries, valueEntries, writeFlagEntries);
+		permutedIndecies = generator.createProverWitnessWireArray(totalNumberOfLookups);
+		permutedValues = generator.createProverWitnessWireArray(totalNumberOfLookups);
+		permutedWriteFlags = generator.createProverWitnessWireArray(totalNumberOfLookups);
+		permutedOpCount = generator.createProverWitnessWireArray(totalNumberOfLookups);
+
+		if (totalMemorySize != 0)
+			buildCircuit();
+	}
+
+	/**
+	 * Restores the handler of a compiled circuit that is being loaded, from
+	 * what writeSkeleton() wrote.
+	 */
+	public MemoryLookupOpHandler(int totalNumberOfLookups, int totalMemorySize, Wire[] rndWires, OpEntry[] indexEntries,
+			OpEntry[] valueEntries, OpEntry[] writeFlagEntries, ByteBuffer in) {
+
+		init(totalNumberOfLookups, totalMemorySize, rndWires, indexEntries, valueEntries, writeFlagEntries);
+		permutedIndecies = generator.readWireIds(in);
+		permutedValues = generator.readWireIds(in);
+		permutedWriteFlags = generator.readWireIds(in);
+		permutedOpCount = generator.readWireIds(in);
+
+		if (totalMemorySize != 0) {
+			shifts = generator.readWireIds(in);
+			opCountWires = generator.readWireIds(in);
+			specifyLookupComputations();
+			specifySortComputation();
+		}
+	}
+
+	private void init(int totalNumberOfLookups, int totalMemorySize, Wire[] rndWires, OpEntry[] indexEntries,
+			OpEntry[] valueEntries, OpEntry[] writeFlagEntries) {
 		generator = (UniversalCircuitGenerator) CircuitGenerator.getActiveCircuitGenerator();
 		this.totalNumberOfLookups = totalNumberOfLookups;
 		this.totalMemorySize = totalMemorySize;
@@ -61,17 +100,25 @@ public class MemoryLookupOpHandler {
 		this.valueEntries = valueEntries;
 		this.writeFlagEntries = writeFlagEntries;
 
-		permutedIndecies = generator.createProverWitnessWireArray(totalNumberOfLookups);
-		permutedValues = generator.createProverWitnessWireArray(totalNumberOfLookups);
-		permutedWriteFlags = generator.createProverWitnessWireArray(totalNumberOfLookups);
-		permutedOpCount = generator.createProverWitnessWireArray(totalNumberOfLookups);
 		registerationCounters = new int[totalNumberOfLookups];
 		runtimeVals = new BigInteger[totalMemorySize];
 		Arrays.fill(runtimeVals, BigInteger.ZERO);
 		this.rndWires = rndWires;
+	}
 
-		if (totalMemorySize != 0)
-			buildCircuit();
+	/**
+	 * Writes the ids of the wires of the handler. The opcode 4 entries are
+	 * saved by the generator.
+	 */
+	public void writeSkeleton(DataOutputStream out) throws IOException {
+		CircuitGenerator.writeWireIds(out, permutedIndecies);
+		CircuitGenerator.writeWireIds(out, permutedValues);
+		CircuitGenerator.writeWireIds(out, permutedWriteFlags);
+		CircuitGenerator.writeWireIds(out, permutedOpCount);
+		if (totalMemorySize != 0) {
+			CircuitGenerator.writeWireIds(out, shifts);
+			CircuitGenerator.writeWireIds(out, opCountWires);
+		}
 	}
 
 	public void addReadOperation(String memoryId, int index) {
@@ -83,17 +130,26 @@ public class MemoryLookupOpHandler {
 		registerOneLookup();
 	}
 
-	public void addWriteOperation(String memoryId, int index, int value) {
+	/**
+	 * Adds a write, which is only done if the value of the write flag index is
+	 * one. A conditional write writes the current value otherwise (see
+	 * addValueWitness()).
+	 */
+	public void addWriteOperation(String memoryId, int index, int value, int writeFlag) {
 		UniversalCircuitEvaluator evaluator = generator.getCircuitEvaluator();
 
 		evaluator.setWireValue(shifts[registeredInstructions], memoryIdToShiftMap.get(memoryId));
 		evaluator.setWireValue(indexEntries[registeredInstructions].indexWire, index);
 		evaluator.setWireValue(valueEntries[registeredInstructions].indexWire, value);
-		evaluator.setWireValue(writeFlagEntries[registeredInstructions].indexWire, generator.getOneIndex());
+		evaluator.setWireValue(writeFlagEntries[registeredInstructions].indexWire, writeFlag);
 		registerOneLookup();
 	}
 
-	public void addConditionalWriteOperation(String name, int index, int value, int enable) {
+	/**
+	 * Returns a new witness index, which the prover assigns the current value
+	 * of the given memory entry.
+	 */
+	public int addValueWitness(String name, int index) {
 
 		int witness = generator.makeWitness();
 		int order = UniversalCircuitGenerator.globalRuntimeCounter++;
@@ -106,7 +162,7 @@ public class MemoryLookupOpHandler {
 //				if (runtimeVals.length <= univEvaluator.getValueOfIndex(index).add(BigInteger.valueOf(memoryIdToShiftMap.get(name))).intValue()) {
 //					univEvaluator.setUniversalAssignment(BigInteger.valueOf(witness), BigInteger.ZERO);
 //				} else {
-				univEvaluator.setUniversalAssignment(BigInteger.valueOf(witness), runtimeVals[univEvaluator
+				univEvaluator.setUniversalAssignment(witness, runtimeVals[univEvaluator
 						.getValueOfIndex(index).add(BigInteger.valueOf(memoryIdToShiftMap.get(name))).intValue()]);
 //				}
 			}
@@ -117,16 +173,7 @@ public class MemoryLookupOpHandler {
 				return order;
 			}
 		});
-		UniversalCircuitEvaluator evaluator = generator.getCircuitEvaluator();
-
-		evaluator.setWireValue(shifts[registeredInstructions], memoryIdToShiftMap.get(name));
-		evaluator.setWireValue(indexEntries[registeredInstructions].indexWire, index);
-
-		int muxed = generator.muxSelector(witness, value, enable);
-
-		evaluator.setWireValue(valueEntries[registeredInstructions].indexWire, muxed);
-		evaluator.setWireValue(writeFlagEntries[registeredInstructions].indexWire, enable);
-		registerOneLookup();
+		return witness;
 	}
 
 	private void registerOneLookup() {
@@ -142,44 +189,7 @@ public class MemoryLookupOpHandler {
 			opCountWires[i] = generator.createConstantWire(i);
 		}
 
-		lookupInstructions = new Instruction[totalNumberOfLookups];
-		for (int i = 0; i < totalNumberOfLookups; i++) {
-			final int lookUpIndex = i;
-			lookupInstructions[i] = new Instruction() {
-				@Override
-				public void evaluate(CircuitEvaluator evaluator) {
-					UniversalCircuitEvaluator univEvaluator = ((UniversalCircuitEvaluator) evaluator);
-
-					univEvaluator.resolveEntry(indexEntries[lookUpIndex]);
-					univEvaluator.resolveEntry(valueEntries[lookUpIndex]);
-					univEvaluator.resolveEntry(writeFlagEntries[lookUpIndex]);
-
-					BigInteger v1 = evaluator.getWireValue(indexEntries[lookUpIndex].valueWire);
-					BigInteger v2 = evaluator.getWireValue(valueEntries[lookUpIndex].valueWire);
-					BigInteger v3 = evaluator.getWireValue(writeFlagEntries[lookUpIndex].valueWire);
-
-					if (v3.equals(BigInteger.ZERO)) {
-						if (runtimeVals[v1.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue()] == null)
-							System.out.println("Warning --  assigning with a NULL");
-						evaluator.setWireValue(valueEntries[lookUpIndex].valueWire,
-								runtimeVals[v1.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue()]);
-					} else {
-						runtimeVals[v1.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue()] = v2;
-					}
-
-					univEvaluator.resolveEntry(indexEntries[lookUpIndex]);
-					univEvaluator.resolveEntry(valueEntries[lookUpIndex]);
-					univEvaluator.resolveEntry(writeFlagEntries[lookUpIndex]);
-
-				}
-
-				@Override
-				public int getOperationCounter() {
-					return registerationCounters[lookUpIndex];
-				}
-			};
-			generator.specifyProverWitnessComputation(lookupInstructions[i]);
-		}
+		specifyLookupComputations();
 
 		Wire[] values1 = new Wire[totalNumberOfLookups];
 		Wire[] values2 = new Wire[totalNumberOfLookups];
@@ -192,42 +202,7 @@ public class MemoryLookupOpHandler {
 		Wire prod1 = generator.getOneWire();
 		Wire prod2 = generator.getOneWire();
 
-		generator.specifyProverWitnessComputation(new Instruction() {
-			@Override
-			public void evaluate(CircuitEvaluator evaluator) {
-
-				MemoryConsistencyRecord[] array = new MemoryConsistencyRecord[totalNumberOfLookups];
-
-				for (int i = 0; i < totalNumberOfLookups; i++) {
-					array[i] = new MemoryConsistencyRecord();
-					array[i].op = evaluator.getWireValue(writeFlagEntries[i].valueWire);
-					array[i].counter = evaluator.getWireValue(opCountWires[i]);
-					array[i].index = evaluator.getWireValue(indexEntries[i].valueWire)
-							.add(evaluator.getWireValue(shifts[i]));
-					array[i].data = new BigInteger[] { evaluator.getWireValue(valueEntries[i].valueWire) };
-				}
-
-				ArrayIndexComparator comparator = new ArrayIndexComparator(array);
-				Integer[] indexes = comparator.createIndexArray();
-				Arrays.sort(indexes, comparator);
-
-				int[] permutation = new int[totalNumberOfLookups];
-				for (int i = 0; i < totalNumberOfLookups; i++) {
-					permutation[indexes[i]] = i;
-				}
-				Arrays.sort(array);
-
-				for (int i = 0; i < totalNumberOfLookups; i++) {
-
-					evaluator.setWireValue(permutedWriteFlags[i], array[i].op);
-					evaluator.setWireValue(permutedOpCount[i], array[i].counter);
-					evaluator.setWireValue(permutedIndecies[i], array[i].index);
-					for (int j = 0; j < 1; j++) {
-						evaluator.setWireValue(permutedValues[i], array[i].data[j]);
-					}
-				}
-			}
-		});
+		specifySortComputation();
 
 		for (int i = 0; i < totalNumberOfLookups; i++) {
 			values1[i] = valueEntries[i].valueWire;
@@ -270,44 +245,86 @@ public class MemoryLookupOpHandler {
 
 	}
 
-	private static class MemoryConsistencyRecord implements Comparable<MemoryConsistencyRecord> {
-		private BigInteger op;
-		private BigInteger index;
-		private BigInteger counter;
-		private BigInteger[] data;
-
-		@Override
-		public int compareTo(MemoryConsistencyRecord o) {
-			MemoryConsistencyRecord record = (MemoryConsistencyRecord) o;
-			if (index.compareTo(record.index) < 0)
-				return -1;
-			else if (index.compareTo(record.index) > 0)
-				return 1;
-			else {
-				return counter.compareTo(record.counter);
-			}
-		}
-	}
+	private void specifyLookupComputations() {
+		lookupInstructions = new Instruction[totalNumberOfLookups];
+		for (int i = 0; i < totalNumberOfLookups; i++) {
+			final int lookUpIndex = i;
+			lookupInstructions[i] = new Instruction() {
+				@Override
+				public void evaluate(CircuitEvaluator evaluator) {
+					UniversalCircuitEvaluator univEvaluator = ((UniversalCircuitEvaluator) evaluator);
 
-	private static class ArrayIndexComparator implements Comparator<Integer> {
-		private final MemoryConsistencyRecord[] array;
+					univEvaluator.resolveEntry(indexEntries[lookUpIndex]);
+					univEvaluator.resolveEntry(valueEntries[lookUpIndex]);
+					univEvaluator.resolveEntry(writeFlagEntries[lookUpIndex]);
 
-		public ArrayIndexComparator(MemoryConsistencyRecord[] array) {
-			this.array = array;
+					BigInteger v1 = evaluator.getWireValue(indexEntries[lookUpIndex].valueWire);
+					BigInteger v2 = evaluator.getWireValue(valueEntries[lookUpIndex].valueWire);
+					BigInteger v3 = evaluator.getWireValue(writeFlagEntries[lookUpIndex].valueWire);
+
+					if (v3.equals(BigInteger.ZERO)) {
+						if (runtimeVals[v1.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue()] == null)
+							System.out.println("Warning --  assigning with a NULL");
+						evaluator.setWireValue(valueEntries[lookUpIndex].valueWire,
+								runtimeVals[v1.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue()]);
+					} else {
+						runtimeVals[v1.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue()] = v2;
+					}
+
+					univEvaluator.resolveEntry(indexEntries[lookUpIndex]);
+					univEvaluator.resolveEntry(valueEntries[lookUpIndex]);
+					univEvaluator.resolveEntry(writeFlagEntries[lookUpIndex]);
+
+				}
+
+				@Override
+				public int getOperationCounter() {
+					return registerationCounters[lookUpIndex];
+				}
+			};
+			generator.specifyProverWitnessComputation(lookupInstructions[i]);
 		}
+	}
+
+	private void specifySortComputation() {
+		generator.specifyProverWitnessComputation(new Instruction() {
+			@Override
+			public void evaluate(CircuitEvaluator evaluator) {
 
-		public Integer[] createIndexArray() {
-			Integer[] indexes = new Integer[array.length];
-			for (int i = 0; i < array.length; i++) {
-				indexes[i] = i;
+				// The records are sorted by (index, op counter), packed into one
+				// key as both are small. The op counters are distinct, so the
+				// order is fully determined.
+				AssignmentStore assignment = evaluator.getAssignment();
+				int counterBits = 64 - Long.numberOfLeadingZeros(Math.max(1, totalNumberOfLookups - 1));
+				long[] keys = new long[totalNumberOfLookups];
+				for (int i = 0; i < totalNumberOfLookups; i++) {
+					long index = getSmallValue(assignment, indexEntries[i].valueWire)
+							+ getSmallValue(assignment, shifts[i]);
+					if (index >>> (63 - counterBits) != 0) {
+						throw new IllegalArgumentException("Memory index out of range: " + index);
+					}
+					keys[i] = index << counterBits | getSmallValue(assignment, opCountWires[i]);
+				}
+				int[] sorted = RadixSort.sortedOrder(keys, ParallelEvaluator.getNumThreads());
+
+				IntStream.range(0, totalNumberOfLookups).parallel().forEach(i -> {
+					int j = sorted[i];
+					assignment.copy(writeFlagEntries[j].valueWire.getWireId(), permutedWriteFlags[i].getWireId());
+					assignment.copy(opCountWires[j].getWireId(), permutedOpCount[i].getWireId());
+					assignment.setLong(permutedIndecies[i].getWireId(), keys[j] >>> counterBits);
+					assignment.copy(valueEntries[j].valueWire.getWireId(), permutedValues[i].getWireId());
+				});
 			}
-			return indexes;
-		}
+		});
+	}
 
-		@Override
-		public int compare(Integer index1, Integer index2) {
-			return array[index1].compareTo(array[index2]);
+	private static long getSmallValue(AssignmentStore assignment, Wire w) {
+		int id = w.getWireId();
+		if (!assignment.isAssigned(id) || (assignment.getLimb(id, 1) | assignment.getLimb(id, 2)
+				| assignment.getLimb(id, 3)) != 0 || assignment.getLimb(id, 0) < 0) {
+			throw new IllegalArgumentException("Unexpected value of wire " + w + " in a memory lookup");
 		}
+		return assignment.getLimb(id, 0);
 	}
 
 	public void registerMemoryName(String name, int size) {
@@ -322,4 +339,33 @@ public class MemoryLookupOpHandler {
 		return registeredInstructions;
 	}
 
+	/**
+	 * Returns the number of constraints of a memory of the given size and
+	 * number of lookups in the universal circuit, including the permutation
+	 * check of its entries. Every lookup after the first one is compared with
+	 * the previous one in the sorted order, which depends on the bitwidths of
+	 * the indices and of the operation counters.
+	 */
+	public static long getNumConstraints(int totalMemorySize, int totalNumberOfLookups) {
+		if (totalNumberOfLookups == 0) {
+			return 0;
+		}
+		int indexBitwidth = (int) Math.ceil(Math.log(totalMemorySize) / Math.log(2));
+		int opCounterBitwidth = (int) Math.ceil(Math.log(totalNumberOfLookups) / Math.log(2));
+		return 33L * totalNumberOfLookups - 8 + (totalNumberOfLookups - 1L) * (indexBitwidth + opCounterBitwidth);
+	}
+
+	/**
+	 * Clears the registered memories and lookups, and the memory contents
+	 * written during evaluation, so that another specification can use the
+	 * lookups of the circuit.
+	 */
+	public void resetRuntimeState() {
+		reservedSize = 0;
+		memoryIdToShiftMap.clear();
+		Arrays.fill(registerationCounters, 0);
+		registeredInstructions = 0;
+		Arrays.fill(runtimeVals, BigInteger.ZERO);
+	}
+
 }
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <ahmed.kosba@alexu.edu.eg>
+ *******************************************************************************/
+
+package universal.opcodes.opcode5;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import jsnark.circuit.config.Config;
+import jsnark.circuit.eval.CircuitEvaluator;
+import jsnark.circuit.eval.Instruction;
+import jsnark.circuit.structure.CircuitGenerator;
+import jsnark.circuit.structure.Wire;
+import universal.UniversalCircuitEvaluator;
+import universal.UniversalCircuitGenerator;
+import universal.opcodes.OpEntry;
+
+/**
+ * Lookups in read-only tables (e.g. S-boxes), which are registered by the
+ * specification with their contents instead of being written to memory.
+ *
+ * The contents of all the tables are specification wires, and entry j of the
+ * tables is encoded as j + r2 * value. A lookup i (with table offset shift_i)
+ * is encoded as index_i + shift_i + r2 * value_i. The lookups are checked to
+ * be in the tables with the random value r1:
+ *
+ * prod_i (r1 - lookup_i) = prod_j (r1 - entry_j)^m_j
+ *
+ * where m_j is the number of lookups of entry j. Only the multiplicities are
+ * computed by the prover, as the witness is committed before r1 and r2 are
+ * known. Each m_j is split into bits, and the power is the product of
+ * (r1 - entry_j)^(2^k) for its set bits. This costs a few constraints per
+ * lookup and per table entry and bit, and no memory writes.
+ *
+ */
+public class TableLookupOpHandler {
+
+	private UniversalCircuitGenerator generator;
+
+	private int totalNumberOfLookups = 0;
+	private int totalTableSize = 0;
+
+	private int reservedSize = 0;
+
+	private Hashtable<String, Integer> tableIdToShiftMap = new Hashtable<>();
+	private OpEntry[] indexEntries;
+	private OpEntry[] valueEntries;
+	private Wire[] shifts;
+
+	private Wire[] tableValues;
+	private Wire[] multiplicities;
+
+	private BigInteger[] runtimeTable;
+	private Wire[] rndWires;
+
+	private int[] registerationCounters;
+	private int registeredLookups = 0;
+
+	public TableLookupOpHandler(int totalNumberOfLookups, int totalTableSize, Wire[] rndWires, OpEntry[] indexEntries,
+			OpEntry[] valueEntries) {
+
+		init(totalNumberOfLookups, totalTableSize, rndWires, indexEntries, valueEntries);
+		if (totalNumberOfLookups != 0)
+			buildCircuit();
+	}
+
+	/**
+	 * Restores the handler of a compiled circuit that is being loaded, from
+	 * what writeSkeleton() wrote.
+	 */
+	public TableLookupOpHandler(int totalNumberOfLookups, int totalTableSize, Wire[] rndWires, OpEntry[] indexEntries,
+			OpEntry[] valueEntries, ByteBuffer in) {
+
+		init(totalNumberOfLookups, totalTableSize, rndWires, indexEntries, valueEntries);
+		if (totalNumberOfLookups != 0) {
+			shifts = generator.readWireIds(in);
+			tableValues = generator.readWireIds(in);
+			multiplicities = generator.readWireIds(in);
+			specifyWitnessComputations();
+		}
+	}
+
+	private void init(int totalNumberOfLookups, int totalTableSize, Wire[] rndWires, OpEntry[] indexEntries,
+			OpEntry[] valueEntries) {
+		generator = (UniversalCircuitGenerator) CircuitGenerator.getActiveCircuitGenerator();
+		if (totalNumberOfLookups != 0 && totalTableSize == 0) {
+			throw new IllegalArgumentException("Table lookups require a table size of at least one (the null table)");
+		}
+		this.totalNumberOfLookups = totalNumberOfLookups;
+		this.totalTableSize = totalTableSize;
+		this.indexEntries = indexEntries;
+		this.valueEntries = valueEntries;
+		this.rndWires = rndWires;
+
+		registerationCounters = new int[totalNumberOfLookups];
+		runtimeTable = new BigInteger[totalTableSize];
+		Arrays.fill(runtimeTable, BigInteger.ZERO);
+	}
+
+	/**
+	 * Writes the ids of the wires of the handler. The opcode 5 entries are
+	 * saved by the generator.
+	 */
+	public void writeSkeleton(DataOutputStream out) throws IOException {
+		if (totalNumberOfLookups != 0) {
+			CircuitGenerator.writeWireIds(out, shifts);
+			CircuitGenerator.writeWireIds(out, tableValues);
+			CircuitGenerator.writeWireIds(out, multiplicities);
+		}
+	}
+
+	public void registerTable(String name, BigInteger[] values) {
+		if (reservedSize + values.length > totalTableSize) {
+			throw new IllegalArgumentException("Cannot allocate more space for tables");
+		}
+		UniversalCircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		tableIdToShiftMap.put(name, reservedSize);
+		for (int i = 0; i < values.length; i++) {
+			runtimeTable[reservedSize + i] = values[i].mod(Config.FIELD_PRIME);
+			evaluator.setWireValue(tableValues[reservedSize + i], values[i]);
+		}
+		reservedSize += values.length;
+	}
+
+	public void addLookup(String tableId, int index) {
+		Integer shift = tableIdToShiftMap.get(tableId);
+		if (shift == null) {
+			throw new IllegalArgumentException("Unknown table: " + tableId);
+		}
+		UniversalCircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		evaluator.setWireValue(shifts[registeredLookups], shift);
+		evaluator.setWireValue(indexEntries[registeredLookups].indexWire, index);
+		registerationCounters[registeredLookups] = UniversalCircuitGenerator.globalRuntimeCounter++;
+		registeredLookups++;
+	}
+
+	/**
+	 * Assigns zero to the table entries that were not used by the
+	 * specification.
+	 */
+	public void fillEmptyTableEntries() {
+		UniversalCircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		for (int i = reservedSize; i < totalTableSize; i++) {
+			evaluator.setWireValue(tableValues[i], BigInteger.ZERO);
+		}
+	}
+
+	private void buildCircuit() {
+
+		shifts = generator.createSpecWireArray(totalNumberOfLookups);
+		tableValues = generator.createSpecWireArray(totalTableSize);
+		multiplicities = generator.createProverWitnessWireArray(totalTableSize);
+
+		specifyWitnessComputations();
+
+		Wire r1 = rndWires[0];
+		Wire r2 = rndWires[1];
+
+		Wire lookupProd = generator.getOneWire();
+		for (int i = 0; i < totalNumberOfLookups; i++) {
+			Wire lookup = indexEntries[i].valueWire.add(shifts[i]).add(valueEntries[i].valueWire.mul(r2));
+			lookupProd = lookupProd.mul(r1.sub(lookup));
+		}
+
+		// a multiplicity is at most the number of lookups
+		int multiplicityBitwidth = getMultiplicityBitwidth(totalNumberOfLookups);
+		Wire tableProd = generator.getOneWire();
+		for (int j = 0; j < totalTableSize; j++) {
+			Wire[] bits = multiplicities[j].getBitWires(multiplicityBitwidth).asArray();
+			Wire power = r1.sub(tableValues[j].mul(r2).add(j));
+			for (int k = 0; k < multiplicityBitwidth; k++) {
+				if (k > 0) {
+					power = power.mul(power);
+				}
+				// power if the bit is set, one otherwise
+				tableProd = tableProd.mul(bits[k].mul(power.sub(1)).add(1));
+			}
+		}
+		generator.addEqualityAssertion(lookupProd, tableProd, "Table lookups are included in the tables");
+	}
+
+	private void specifyWitnessComputations() {
+		for (int i = 0; i < totalNumberOfLookups; i++) {
+			final int lookUpIndex = i;
+			generator.specifyProverWitnessComputation(new Instruction() {
+				@Override
+				public void evaluate(CircuitEvaluator evaluator) {
+					UniversalCircuitEvaluator univEvaluator = ((UniversalCircuitEvaluator) evaluator);
+
+					univEvaluator.resolveEntry(indexEntries[lookUpIndex]);
+					int position = evaluator.getWireValue(indexEntries[lookUpIndex].valueWire)
+							.add(evaluator.getWireValue(shifts[lookUpIndex])).intValue();
+					if (position < 0 || position >= totalTableSize) {
+						throw new RuntimeException("Table lookup out of range: " + position);
+					}
+					evaluator.setWireValue(valueEntries[lookUpIndex].valueWire, runtimeTable[position]);
+					univEvaluator.resolveEntry(valueEntries[lookUpIndex]);
+				}
+
+				@Override
+				public int getOperationCounter() {
+					return registerationCounters[lookUpIndex];
+				}
+			});
+		}
+
+		generator.specifyProverWitnessComputation(new Instruction() {
+			@Override
+			public void evaluate(CircuitEvaluator evaluator) {
+				int[] counts = new int[totalTableSize];
+				for (int i = 0; i < totalNumberOfLookups; i++) {
+					counts[evaluator.getWireValue(indexEntries[i].valueWire)
+							.add(evaluator.getWireValue(shifts[i])).intValue()]++;
+				}
+				for (int j = 0; j < totalTableSize; j++) {
+					evaluator.setWireValue(multiplicities[j], counts[j]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Clears the registered tables and lookups, so that another specification
+	 * can use the lookups of the circuit.
+	 */
+	public void resetRuntimeState() {
+		reservedSize = 0;
+		tableIdToShiftMap.clear();
+		Arrays.fill(registerationCounters, 0);
+		registeredLookups = 0;
+		Arrays.fill(runtimeTable, BigInteger.ZERO);
+	}
+
+	public int getRegisteredLookups() {
+		return registeredLookups;
+	}
+
+	/**
+	 * Returns the number of constraints of the tables and lookups in the
+	 * universal circuit, including the permutation check of the lookup
+	 * entries.
+	 */
+	public static long getNumConstraints(int totalTableSize, int totalNumberOfLookups) {
+		if (totalNumberOfLookups == 0) {
+			return 0;
+		}
+		int multiplicityBitwidth = getMultiplicityBitwidth(totalNumberOfLookups);
+		return 12L * totalNumberOfLookups + (4L * multiplicityBitwidth + 1) * totalTableSize - 1;
+	}
+
+	private static int getMultiplicityBitwidth(int totalNumberOfLookups) {
+		return BigInteger.valueOf(totalNumberOfLookups).bitLength();
+	}
+
+}